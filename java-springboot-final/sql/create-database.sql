@@ -1,7 +1,7 @@
 create database if not exists web_shop;
 use web_shop;
 
-drop table if exists users, roles, products, orders, order_items;
+drop table if exists users, roles, products, orders, order_items, id_sequences, replica_heartbeat, stock_leases, idempotency_keys;
 
 create table users (
     username varchar(255) primary key,
@@ -18,12 +18,22 @@ create table roles (
 create table products (
     id int primary key auto_increment,
     name varchar(255),
-    price decimal(10, 2)
+    price decimal(10, 2),
+    stock int,
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_products_price (price),
+    index idx_products_name (name)
 );
 
 create table orders (
     id int primary key auto_increment,
     username varchar(255),
+    item_count int not null default 0,
+    total decimal(12, 2) not null default 0,
+    created_at datetime(6) not null default current_timestamp(6),
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_orders_created_at (created_at),
+    index idx_orders_username_created_at (username, created_at),
     foreign key (username) references users(username) on delete cascade
 );
 
@@ -32,10 +42,48 @@ create table order_items (
     order_id int,
     product_id int,
     quantity int,
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_order_items_order_product (order_id, product_id),
+    index idx_order_items_product_order (product_id, order_id),
     foreign key (order_id) references orders(id) on delete cascade,
     foreign key (product_id) references products(id) on delete cascade
 );
 
+create table stock_leases (
+    node varchar(36) not null,
+    product_id int not null,
+    units int not null,
+    renewed_at datetime(6) not null,
+    primary key (node, product_id),
+    foreign key (product_id) references products(id) on delete cascade
+);
+
+create table id_sequences (
+    name varchar(64) primary key,
+    next_id int not null
+);
+
+create table replica_heartbeat (
+    id int primary key,
+    position bigint not null,
+    beat_at datetime(6) not null
+);
+
+create table idempotency_keys (
+    username varchar(255) not null,
+    idempotency_key varchar(255) not null,
+    fingerprint char(64) not null,
+    status int,
+    content_type varchar(255),
+    headers text,
+    body longblob,
+    expires_at datetime(6) not null,
+    primary key (username, idempotency_key),
+    index idx_idempotency_keys_expires_at (expires_at)
+);
+
+insert into replica_heartbeat (id, position, beat_at) values (1, 0, current_timestamp(6));
+
 insert into users (username, password) values ('admin', '$2a$10$tBTfzHzjmQVKza3VSa5lsOX6/iL93xPVLlLXYg2FhT6a.jb1o6VDq'
 ');
 insert into roles (username, role) values ('admin', 'ADMIN');
@@ -0,0 +1,38 @@
+-- Creates the tables of one order shard, see OrderShards. Run it on every database listed
+-- in webstore.shards.urls, then POST /api/orders/totals/rebuild to copy the products over.
+create database if not exists web_shop;
+use web_shop;
+
+drop table if exists order_items, orders, products;
+
+-- A copy of the primary's products, written through by the application.
+create table products (
+    id int primary key,
+    name varchar(255),
+    price decimal(10, 2),
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000)
+);
+
+-- No foreign key to users, which stay on the primary; OrderShards.withUser checks and locks the user there.
+create table orders (
+    id int primary key auto_increment,
+    username varchar(255),
+    item_count int not null default 0,
+    total decimal(12, 2) not null default 0,
+    created_at datetime(6) not null default current_timestamp(6),
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_orders_created_at (created_at),
+    index idx_orders_username_created_at (username, created_at)
+);
+
+create table order_items (
+    id int primary key auto_increment,
+    order_id int,
+    product_id int,
+    quantity int,
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_order_items_order_product (order_id, product_id),
+    index idx_order_items_product_order (product_id, order_id),
+    foreign key (order_id) references orders(id) on delete cascade,
+    foreign key (product_id) references products(id) on delete cascade
+);
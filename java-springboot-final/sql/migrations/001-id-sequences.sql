@@ -0,0 +1,7 @@
+-- Adds the id_sequences table used by IdAllocator when webstore.ids.block-size is set.
+use web_shop;
+
+create table if not exists id_sequences (
+    name varchar(64) primary key,
+    next_id int not null
+);
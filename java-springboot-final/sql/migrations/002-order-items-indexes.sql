@@ -0,0 +1,6 @@
+-- Adds the indexes used to look up order items by order and by product.
+-- InnoDB drops the implicit foreign key indexes once these exist.
+use web_shop;
+
+create index idx_order_items_order_product on order_items (order_id, product_id);
+create index idx_order_items_product_order on order_items (product_id, order_id);
@@ -0,0 +1,8 @@
+-- Adds the row versions behind the ETag and Last-Modified headers.
+-- A version is the time of the last write in microseconds since the epoch;
+-- the DAOs set a new one on every write.
+use web_shop;
+
+alter table products add column version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000);
+alter table orders add column version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000);
+alter table order_items add column version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000);
@@ -0,0 +1,13 @@
+-- Adds the item count and total kept on each order by the DAOs, so order
+-- listings do not need to join order_items and products.
+-- The total is the sum of quantity * current product price over the order's items.
+use web_shop;
+
+alter table orders add column item_count int not null default 0;
+alter table orders add column total decimal(12, 2) not null default 0;
+
+update orders o
+    left join (select oi.order_id, count(*) as item_count, sum(oi.quantity * coalesce(p.price, 0)) as total
+               from order_items oi left join products p on p.id = oi.product_id
+               group by oi.order_id) t on t.order_id = o.id
+set o.item_count = coalesce(t.item_count, 0), o.total = coalesce(t.total, 0);
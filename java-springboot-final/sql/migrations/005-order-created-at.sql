@@ -0,0 +1,9 @@
+-- Adds the time each order was placed, for the date filters of the analytics endpoints.
+-- Existing orders get the time of the migration.
+-- The username index replaces the implicit foreign key index on orders.username.
+use web_shop;
+
+alter table orders add column created_at datetime(6) not null default current_timestamp(6);
+
+create index idx_orders_created_at on orders (created_at);
+create index idx_orders_username_created_at on orders (username, created_at);
@@ -0,0 +1,6 @@
+-- Adds the indexes used to filter and sort product listings by price and by name.
+-- InnoDB appends the primary key to each, which the listings use as the tie breaker.
+use web_shop;
+
+create index idx_products_price on products (price);
+create index idx_products_name on products (name);
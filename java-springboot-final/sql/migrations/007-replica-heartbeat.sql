@@ -0,0 +1,11 @@
+-- Adds the heartbeat row the application bumps on the primary and reads on each replica,
+-- to measure replica lag and to check consistency tokens. See ReplicaRoutingDataSource.
+use web_shop;
+
+create table if not exists replica_heartbeat (
+    id int primary key,
+    position bigint not null,
+    beat_at datetime(6) not null
+);
+
+insert ignore into replica_heartbeat (id, position, beat_at) values (1, 0, current_timestamp(6));
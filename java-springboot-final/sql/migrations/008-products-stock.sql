@@ -0,0 +1,5 @@
+-- Adds the stock of each product not yet leased by an application node, null for a product
+-- whose stock is not tracked. See Inventory.
+use web_shop;
+
+alter table products add column stock int after price;
@@ -0,0 +1,12 @@
+-- Adds the ledger of the stock each application node holds leased, renewed on every flush,
+-- so the leases of a node that died can be given back to their products. See Inventory.
+use web_shop;
+
+create table if not exists stock_leases (
+    node varchar(36) not null,
+    product_id int not null,
+    units int not null,
+    renewed_at datetime(6) not null,
+    primary key (node, product_id),
+    foreign key (product_id) references products(id) on delete cascade
+);
@@ -0,0 +1,16 @@
+-- Adds the table of Idempotency-Key requests and their kept responses, shared by every
+-- application node. See IdempotencyKeys.
+use web_shop;
+
+create table if not exists idempotency_keys (
+    username varchar(255) not null,
+    idempotency_key varchar(255) not null,
+    fingerprint char(64) not null,
+    status int,
+    content_type varchar(255),
+    headers text,
+    body longblob,
+    expires_at datetime(6) not null,
+    primary key (username, idempotency_key),
+    index idx_idempotency_keys_expires_at (expires_at)
+);
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.example.SpringBootApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import support.FinalTestConfiguration;
+import support.LoginRequest;
+import support.LoginResponse;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full request path: HTTP, security, controller, DAO and
+ * serialization, against the embedded MariaDB database started by
+ * {@link FinalTestConfiguration}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class EndpointBenchmark {
+    @Param({"1000"})
+    private int products;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUrl;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = new SpringApplicationBuilder(SpringBootApplication.class, FinalTestConfiguration.class)
+                .properties("server.port=0")
+                .run();
+        baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+
+        DataSource dataSource = context.getBean(DataSource.class);
+        try (var connection = dataSource.getConnection();
+             var reader = new InputStreamReader(EndpointBenchmark.class.getResourceAsStream("/create-database.sql"))) {
+            var scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setStopOnError(true);
+            scriptRunner.setLogWriter(null);
+            scriptRunner.runScript(reader);
+        }
+        List<Object[]> rows = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            rows.add(new Object[] {"Benchmark product " + i, BigDecimal.valueOf(100 + i, 2)});
+        }
+        new JdbcTemplate(dataSource).batchUpdate("INSERT INTO products (name, price) VALUES (?, ?);", rows);
+
+        ObjectMapper objectMapper = context.getBean(ObjectMapper.class);
+        client = HttpClient.newHttpClient();
+        var login = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/auth/login"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                objectMapper.writeValueAsString(new LoginRequest("test-admin", "admin"))))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        token = objectMapper.readValue(login.body(), LoginResponse.class).getAccessToken().getToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] getProduct() throws Exception {
+        return get("/api/products/1");
+    }
+
+    @Benchmark
+    public byte[] getAllProducts() throws Exception {
+        return get("/api/products");
+    }
+
+    @Benchmark
+    public byte[] getOrderDetails() throws Exception {
+        return get("/api/orders/1/details");
+    }
+
+    private byte[] get(String path) throws Exception {
+        var response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + path))
+                        .header("Authorization", "Bearer " + token)
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET " + path + " returned " + response.statusCode());
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.models.OrderItem;
+import org.example.models.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Jackson serialization of the list responses at different sizes,
+ * using an object mapper configured the way Spring Boot configures the
+ * application's one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JsonSerializationBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    private ObjectMapper objectMapper;
+    private List<Product> products;
+    private List<OrderItem> orderItems;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        products = new ArrayList<>(size);
+        orderItems = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            products.add(new Product(i, "Product " + i, BigDecimal.valueOf(100 + i, 2)));
+            orderItems.add(new OrderItem(i, i / 4, i % 50, 1 + i % 5));
+        }
+    }
+
+    @Benchmark
+    public void serializeProducts() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), products);
+    }
+
+    @Benchmark
+    public void serializeOrderItems() throws IOException {
+        objectMapper.writeValue(OutputStream.nullOutputStream(), orderItems);
+    }
+}
@@ -0,0 +1,155 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.example.SpringBootApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import support.FinalTestConfiguration;
+import support.LoginRequest;
+import support.LoginResponse;
+
+import javax.sql.DataSource;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures a mixed workload of signups, logins and catalog reads with real
+ * bcrypt hashing, once with hashing on the request threads and once on the
+ * bounded hashing pool. Compare the login throughput and the p99 of the
+ * catalog reads between the two.
+ * <p>
+ * Run with {@code -Djmh.args="PasswordHashingBenchmark -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PasswordHashingBenchmark {
+    @Param({"inline", "bounded"})
+    private String hashing;
+
+    private final AtomicLong signups = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+    private ObjectMapper objectMapper;
+    private HttpClient client;
+    private String baseUrl;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = new SpringApplicationBuilder(SpringBootApplication.class, FinalTestConfiguration.class, BcryptConfiguration.class)
+                .properties("server.port=0", "webstore.password-hashing.enabled=" + hashing.equals("bounded"))
+                .run();
+        baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+
+        DataSource dataSource = context.getBean(DataSource.class);
+        try (var connection = dataSource.getConnection();
+             var reader = new InputStreamReader(PasswordHashingBenchmark.class.getResourceAsStream("/create-database.sql"))) {
+            var scriptRunner = new ScriptRunner(connection);
+            scriptRunner.setStopOnError(true);
+            scriptRunner.setLogWriter(null);
+            scriptRunner.runScript(reader);
+        }
+        new JdbcTemplate(dataSource).update("UPDATE users SET password = ? WHERE username = 'test-admin';",
+                context.getBean(PasswordEncoder.class).encode("admin"));
+
+        objectMapper = context.getBean(ObjectMapper.class);
+        client = HttpClient.newHttpClient();
+        token = objectMapper.readValue(postLogin().body(), LoginResponse.class).getAccessToken().getToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public int signup() throws Exception {
+        var user = Map.of("username", "benchmark-" + signups.incrementAndGet(), "password", "password");
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/users"))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(user)))
+                .build()).statusCode();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int login() throws Exception {
+        return postLogin().statusCode();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int catalog() throws Exception {
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/products/1"))
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build()).statusCode();
+    }
+
+    private HttpResponse<String> postLogin() throws Exception {
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + "/auth/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        objectMapper.writeValueAsString(new LoginRequest("test-admin", "admin"))))
+                .build());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        // 503 is the bounded pool shedding load, which is part of what is being measured.
+        if (response.statusCode() >= 400 && response.statusCode() != 503) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " returned " + response.statusCode());
+        }
+        return response;
+    }
+
+    /**
+     * Replaces the plain text test encoder with bcrypt.
+     */
+    @Configuration
+    public static class BcryptConfiguration {
+        @Bean
+        @Primary
+        public PasswordEncoder bcryptPasswordEncoder() {
+            return new BCryptPasswordEncoder();
+        }
+    }
+}
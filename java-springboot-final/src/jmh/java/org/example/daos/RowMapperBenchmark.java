@@ -0,0 +1,151 @@
+package org.example.daos;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.config.DatabaseGate;
+import org.example.models.Order;
+import org.example.models.OrderItem;
+import org.example.models.Product;
+import org.example.models.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the DAO row mappers over in-memory result sets, so the numbers
+ * cover only column lookup and object construction, not the driver or the
+ * network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+    @Param({"1000"})
+    private int rows;
+
+    private OrderDao orderDao;
+    private OrderItemDao orderItemDao;
+    private ProductDao productDao;
+    private UserDao userDao;
+
+    private CachedRowSet orders;
+    private CachedRowSet orderItems;
+    private CachedRowSet products;
+    private CachedRowSet users;
+
+    @Setup
+    public void setUp() throws SQLException {
+        // The DAOs never open a connection here; only their mappers are called.
+        var dataSource = new DriverManagerDataSource();
+        var idAllocator = new IdAllocator(dataSource, 0);
+        var shards = new OrderShards(dataSource, new DataSourceTransactionManager(dataSource), new StandardEnvironment());
+        var versions = new EntityVersions(new NoOpCacheManager(), dataSource, shards);
+        ApplicationEventPublisher events = event -> { };
+        var groupCommit = new GroupCommit(false, 0, Duration.ZERO, new SimpleMeterRegistry(),
+                new StaticListableBeanFactory().getBeanProvider(DatabaseGate.class));
+        var inventory = new Inventory(dataSource, new DataSourceTransactionManager(dataSource), 0, 1, Duration.ZERO);
+        orderDao = new OrderDao(shards, idAllocator, versions, events, groupCommit, inventory);
+        orderItemDao = new OrderItemDao(shards, idAllocator, versions, events, groupCommit, inventory);
+        productDao = new ProductDao(dataSource, idAllocator, shards, versions, events, inventory);
+        userDao = new UserDao(dataSource, shards, versions, events, inventory);
+
+        orders = rowSet(new String[] {"id", "username", "item_count", "total", "version"},
+                new int[] {Types.INTEGER, Types.VARCHAR, Types.INTEGER, Types.DECIMAL, Types.BIGINT},
+                i -> new Object[] {i, "user-" + (i % 100), 4, BigDecimal.valueOf(1000 + i, 2), 1L});
+        orderItems = rowSet(new String[] {"id", "order_id", "product_id", "quantity", "version"},
+                new int[] {Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.INTEGER, Types.BIGINT},
+                i -> new Object[] {i, i / 4, i % 50, 1 + i % 5, 1L});
+        products = rowSet(new String[] {"id", "name", "price", "version"},
+                new int[] {Types.INTEGER, Types.VARCHAR, Types.DECIMAL, Types.BIGINT},
+                i -> new Object[] {i, "Product " + i, BigDecimal.valueOf(100 + i, 2), 1L});
+        users = rowSet(new String[] {"username", "password"}, new int[] {Types.VARCHAR, Types.VARCHAR},
+                i -> new Object[] {"user-" + i, "$2a$10$yNhRmtAD2o/E/5CH83yGsO2aoC3ww1JUE76xUrIYLbfNcTV5G2WrO"});
+    }
+
+    @Benchmark
+    public void mapToOrder(Blackhole blackhole) throws SQLException {
+        orders.beforeFirst();
+        for (int i = 0; orders.next(); i++) {
+            Order order = orderDao.mapToOrder(orders, i);
+            blackhole.consume(order);
+        }
+    }
+
+    @Benchmark
+    public void mapToOrderItem(Blackhole blackhole) throws SQLException {
+        orderItems.beforeFirst();
+        for (int i = 0; orderItems.next(); i++) {
+            OrderItem orderItem = orderItemDao.mapToOrderItem(orderItems, i);
+            blackhole.consume(orderItem);
+        }
+    }
+
+    @Benchmark
+    public void mapToProduct(Blackhole blackhole) throws SQLException {
+        products.beforeFirst();
+        for (int i = 0; products.next(); i++) {
+            Product product = productDao.mapToProduct(products, i);
+            blackhole.consume(product);
+        }
+    }
+
+    @Benchmark
+    public void mapToUser(Blackhole blackhole) throws SQLException {
+        users.beforeFirst();
+        for (int i = 0; users.next(); i++) {
+            User user = userDao.mapToUser(users, i);
+            blackhole.consume(user);
+        }
+    }
+
+    private CachedRowSet rowSet(String[] names, int[] types, IntFunction<Object[]> row) throws SQLException {
+        var metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(names.length);
+        for (int c = 0; c < names.length; c++) {
+            metaData.setColumnName(c + 1, names[c]);
+            metaData.setColumnLabel(c + 1, names[c]);
+            metaData.setColumnType(c + 1, types[c]);
+        }
+
+        CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(metaData);
+        for (int i = 1; i <= rows; i++) {
+            Object[] values = row.apply(i);
+            rowSet.moveToInsertRow();
+            for (int c = 0; c < values.length; c++) {
+                rowSet.updateObject(c + 1, values[c]);
+            }
+            rowSet.insertRow();
+        }
+        rowSet.moveToCurrentRow();
+        rowSet.beforeFirst();
+        return rowSet;
+    }
+}
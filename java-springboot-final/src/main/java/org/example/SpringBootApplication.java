@@ -1,11 +1,17 @@
 package org.example;
 
 import org.springframework.boot.SpringApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * The main class of the Spring Boot application.
+ * <p>
+ * Scheduled jobs share the pool sized by
+ * {@code spring.task.scheduling.pool.size}, so a long totals repair does not
+ * hold up the inventory flush that renews this node's stock leases.
  */
 @org.springframework.boot.autoconfigure.SpringBootApplication
+@EnableScheduling
 public class SpringBootApplication {
     /**
      * The main method of the Spring Boot application.
@@ -0,0 +1,50 @@
+package org.example.config;
+
+import eu.fraho.spring.securityJwt.base.JwtAuthenticationTokenFilter;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+
+/**
+ * Secures the actuator endpoints.
+ * <p>
+ * The JWT starter's filter chain only authenticates; the API is authorized
+ * per method with {@code @PreAuthorize}, which the actuator endpoints do
+ * not have. This chain matches the actuator endpoints first, authenticates
+ * them with the same bearer tokens, leaves {@code /actuator/health} open for
+ * load balancers and requires the {@code ADMIN} authority for the rest, so
+ * a Prometheus scraper needs an admin token.
+ */
+@Configuration
+public class ActuatorSecurity {
+    /**
+     * Creates the filter chain for the actuator endpoints.
+     *
+     * @param http The security builder.
+     * @param jwtFilter The JWT starter's authentication filter.
+     * @return SecurityFilterChain
+     * @throws Exception If the chain cannot be built.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain actuatorFilterChain(HttpSecurity http, JwtAuthenticationTokenFilter jwtFilter) throws Exception {
+        return http.securityMatcher(EndpointRequest.toAnyEndpoint())
+                .csrf(AbstractHttpConfigurer::disable)
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .exceptionHandling(exceptions -> exceptions.authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED)))
+                .addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class)
+                .authorizeHttpRequests(requests -> requests
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                        .anyRequest().hasAuthority("ADMIN"))
+                .build();
+    }
+}
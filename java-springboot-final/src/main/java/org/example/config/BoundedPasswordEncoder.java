@@ -0,0 +1,169 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password encoder that hashes and verifies on a small, bounded pool of
+ * threads instead of the calling request thread.
+ * <p>
+ * A slow hash such as bcrypt costs tens of milliseconds of CPU. Running at
+ * most one hash per core keeps a burst of logins or signups from taking the
+ * CPU away from every other request. When the queue in front of the pool is
+ * full, or a hash has waited longer than the timeout, the call fails fast
+ * with 503 instead of piling up more work.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+    /**
+     * The encoder that does the actual hashing.
+     */
+    private final PasswordEncoder delegate;
+
+    /**
+     * The threads that run the hashes.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * How long a caller waits for its hash, including time in the queue.
+     */
+    private final Duration timeout;
+
+    /**
+     * The latency of encode calls, once metrics are bound.
+     */
+    private volatile Timer encodeTimer;
+
+    /**
+     * The latency of matches calls, once metrics are bound.
+     */
+    private volatile Timer matchesTimer;
+
+    /**
+     * Creates a new bounded password encoder.
+     *
+     * @param delegate The encoder that does the actual hashing.
+     * @param threads The number of hashing threads.
+     * @param queueCapacity The number of hashes that may wait for a thread.
+     * @param timeout How long a caller waits for its hash.
+     */
+    public BoundedPasswordEncoder(PasswordEncoder delegate, int threads, int queueCapacity, Duration timeout) {
+        this.delegate = delegate;
+        this.timeout = timeout;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Publishes the pool's queue depth and the hash latencies.
+     *
+     * @param registry The registry to publish to.
+     */
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(executor, "password-hashing", Tags.empty()).bindTo(registry);
+        encodeTimer = timer(registry, "encode");
+        matchesTimer = timer(registry, "matches");
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(() -> delegate.encode(rawPassword), encodeTimer);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run(() -> delegate.matches(rawPassword, encodedPassword), matchesTimer);
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Gets the number of hashes waiting for a thread.
+     *
+     * @return int
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Shuts the hashing threads down.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs a hash on the pool and waits for its result.
+     *
+     * @param task The hash to run.
+     * @param timer The timer to record the hash's latency with, if bound.
+     * @param <T> The type of the result.
+     * @return The result of the hash.
+     */
+    private <T> T run(Callable<T> task, Timer timer) {
+        Future<T> future;
+        try {
+            future = executor.submit(timer == null ? task : () -> timer.recordCallable(task));
+        } catch (RejectedExecutionException e) {
+            throw busy();
+        }
+
+        try {
+            return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw busy();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw busy();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static ResponseStatusException busy() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many password operations, try again later");
+    }
+
+    private static Timer timer(MeterRegistry registry, String operation) {
+        return Timer.builder("webstore.password.hash")
+                .description("Time spent hashing or verifying a password on the hashing pool")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
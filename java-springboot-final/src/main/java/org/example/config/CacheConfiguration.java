@@ -0,0 +1,105 @@
+package org.example.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.support.CompositeCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Configures the in-process caches.
+ * <p>
+ * Each cache is bounded by size and time to live and records hit, miss and
+ * eviction counts. A cache can be tuned or turned off per environment with
+ * {@code webstore.cache.<name>.enabled}, {@code .maximum-size} and
+ * {@code .ttl}. A disabled cache becomes a no-op, so the annotated methods
+ * always go to the database.
+ * <p>
+ * The caching advice runs outside the transaction advice, so evictions
+ * happen after the write has committed.
+ */
+@Configuration
+@EnableCaching(order = Ordered.HIGHEST_PRECEDENCE)
+public class CacheConfiguration {
+    /**
+     * Products by id.
+     */
+    public static final String PRODUCTS = "products";
+
+    /**
+     * The full product listing.
+     */
+    public static final String PRODUCT_LISTS = "product-lists";
+
+    /**
+     * Users and their roles by username, for authentication.
+     */
+    public static final String USERS = "users";
+
+    /**
+     * The latest known version of each row and table, for conditional GETs.
+     */
+    public static final String VERSIONS = "versions";
+
+    /**
+     * The environment to read cache settings from.
+     */
+    private final Environment environment;
+
+    /**
+     * Creates a new cache configuration.
+     *
+     * @param environment The environment to read cache settings from.
+     */
+    public CacheConfiguration(Environment environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Creates the cache manager.
+     *
+     * @return The cache manager.
+     */
+    @Bean
+    public CacheManager cacheManager() {
+        CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager();
+        caffeineCacheManager.setCacheNames(List.of());
+        register(caffeineCacheManager, PRODUCTS, 10_000, Duration.ofMinutes(10), true);
+        register(caffeineCacheManager, PRODUCT_LISTS, 1, Duration.ofMinutes(1), true);
+        register(caffeineCacheManager, USERS, 10_000, Duration.ofMinutes(5), true);
+        // Only correct on a single node, see EntityVersions.
+        register(caffeineCacheManager, VERSIONS, 100_000, Duration.ofHours(1), false);
+
+        CompositeCacheManager cacheManager = new CompositeCacheManager(caffeineCacheManager);
+        cacheManager.setFallbackToNoOpCache(true);
+        return cacheManager;
+    }
+
+    /**
+     * Registers a cache unless it is disabled.
+     *
+     * @param cacheManager The cache manager to register the cache with.
+     * @param name The name of the cache.
+     * @param maximumSize The default maximum number of entries.
+     * @param ttl The default time an entry stays cached after it is written.
+     * @param enabled Whether the cache is on unless configured otherwise.
+     */
+    private void register(CaffeineCacheManager cacheManager, String name, long maximumSize, Duration ttl, boolean enabled) {
+        String prefix = "webstore.cache." + name + ".";
+        if (!environment.getProperty(prefix + "enabled", Boolean.class, enabled)) {
+            return;
+        }
+        cacheManager.registerCustomCache(name, Caffeine.newBuilder()
+                .maximumSize(environment.getProperty(prefix + "maximum-size", Long.class, maximumSize))
+                .expireAfterWrite(environment.getProperty(prefix + "ttl", Duration.class, ttl))
+                .recordStats()
+                .build());
+    }
+}
@@ -0,0 +1,264 @@
+package org.example.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jwt.SignedJWT;
+import eu.fraho.spring.securityJwt.base.dto.AccessToken;
+import eu.fraho.spring.securityJwt.base.dto.JwtUser;
+import eu.fraho.spring.securityJwt.base.dto.RefreshToken;
+import eu.fraho.spring.securityJwt.base.service.JwtTokenService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token service that remembers which access tokens it has already verified.
+ * <p>
+ * A client sends the same bearer token with every request until it expires,
+ * and verifying it means checking the signature and turning the claims back
+ * into a {@link JwtUser} each time. The first successful verification is
+ * cached under the SHA-256 digest of the token, so the token itself is never
+ * held in memory, until the token's own expiry time. Tokens without an
+ * expiry and tokens that fail to verify are not cached. Everything other than {@link #parseUser(String)}
+ * goes straight to the wrapped service.
+ */
+public class CachingJwtTokenService implements JwtTokenService {
+    /**
+     * The service that does the actual verification.
+     */
+    private final JwtTokenService delegate;
+
+    /**
+     * Verified users by token digest.
+     */
+    private final Cache<String, VerifiedToken> tokens;
+
+    /**
+     * Creates a new caching token service.
+     *
+     * @param delegate The service that does the actual verification.
+     * @param maximumSize The maximum number of verified tokens to remember.
+     */
+    public CachingJwtTokenService(JwtTokenService delegate, long maximumSize) {
+        this.delegate = delegate;
+        this.tokens = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String digest, VerifiedToken token, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(token.expiresAt - System.currentTimeMillis(), 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String digest, VerifiedToken token, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String digest, VerifiedToken token, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Publishes the cache's hit, miss and eviction counts.
+     *
+     * @param registry The registry to publish to.
+     */
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, tokens, "verified-tokens");
+    }
+
+    /**
+     * Gets the number of verified tokens currently remembered.
+     *
+     * @return long
+     */
+    public long size() {
+        tokens.cleanUp();
+        return tokens.estimatedSize();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends JwtUser> Optional<T> parseUser(String token) {
+        String digest = digest(token);
+        VerifiedToken verified = tokens.getIfPresent(digest);
+        if (verified != null) {
+            return Optional.of((T) verified.user);
+        }
+
+        Optional<T> parsed = delegate.parseUser(token);
+        parsed.ifPresent(user -> {
+            long expiresAt = expiresAt(token);
+            if (expiresAt > System.currentTimeMillis()) {
+                tokens.put(digest, new VerifiedToken(user, expiresAt));
+            }
+        });
+        return parsed;
+    }
+
+    @Override
+    public <T extends JwtUser> AccessToken generateToken(T user) throws JOSEException {
+        return delegate.generateToken(user);
+    }
+
+    @Override
+    public boolean validateToken(String token) {
+        return delegate.validateToken(token);
+    }
+
+    @Override
+    public boolean validateToken(SignedJWT token) {
+        return delegate.validateToken(token);
+    }
+
+    @Override
+    public boolean validateToken(AccessToken token) {
+        return delegate.validateToken(token);
+    }
+
+    /**
+     * Delegates the deprecated lookup, kept because the interface still
+     * declares it.
+     *
+     * @deprecated Use {@link #getAccessToken(HttpServletRequest)}.
+     */
+    @Override
+    @Deprecated
+    public Optional<String> getToken(HttpServletRequest request) {
+        return delegate.getToken(request);
+    }
+
+    @Override
+    public Optional<String> getAccessToken(HttpServletRequest request) {
+        return delegate.getAccessToken(request);
+    }
+
+    @Override
+    public Optional<String> getRefreshToken(HttpServletRequest request) {
+        return delegate.getRefreshToken(request);
+    }
+
+    @Override
+    public boolean isRefreshTokenSupported() {
+        return delegate.isRefreshTokenSupported();
+    }
+
+    @Override
+    public RefreshToken generateRefreshToken(JwtUser user) {
+        return delegate.generateRefreshToken(user);
+    }
+
+    @Override
+    public <T extends JwtUser> Optional<T> useRefreshToken(String token) {
+        return delegate.useRefreshToken(token);
+    }
+
+    @Override
+    public <T extends JwtUser> Optional<T> useRefreshToken(RefreshToken token) {
+        return delegate.useRefreshToken(token);
+    }
+
+    @Override
+    public Map<Long, List<RefreshToken>> listRefreshTokens() {
+        return delegate.listRefreshTokens();
+    }
+
+    @Override
+    public List<RefreshToken> listRefreshTokens(JwtUser user) {
+        return delegate.listRefreshTokens(user);
+    }
+
+    @Override
+    public boolean revokeRefreshToken(RefreshToken token) {
+        return delegate.revokeRefreshToken(token);
+    }
+
+    @Override
+    public boolean revokeRefreshToken(String token) {
+        return delegate.revokeRefreshToken(token);
+    }
+
+    @Override
+    public int revokeRefreshTokens(JwtUser user) {
+        return delegate.revokeRefreshTokens(user);
+    }
+
+    @Override
+    public int clearTokens() {
+        return delegate.clearTokens();
+    }
+
+    /**
+     * Hashes a token for use as a cache key.
+     *
+     * @param token The token.
+     * @return String The hex encoded SHA-256 digest of the token.
+     */
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the expiry time of a token that has already been verified.
+     *
+     * @param token The token.
+     * @return long The expiry time in epoch milliseconds, or 0 if the token does not expire.
+     */
+    private static long expiresAt(String token) {
+        try {
+            Date expiration = SignedJWT.parse(token).getJWTClaimsSet().getExpirationTime();
+            return expiration == null ? 0 : expiration.getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A verified token's user and the time the token expires.
+     */
+    private static class VerifiedToken {
+        /**
+         * The user the token was issued to.
+         */
+        private final JwtUser user;
+
+        /**
+         * The time the token expires, in epoch milliseconds.
+         */
+        private final long expiresAt;
+
+        /**
+         * Creates a new verified token.
+         *
+         * @param user The user the token was issued to.
+         * @param expiresAt The time the token expires, in epoch milliseconds.
+         */
+        private VerifiedToken(JwtUser user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
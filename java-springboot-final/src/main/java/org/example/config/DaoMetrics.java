@@ -0,0 +1,164 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Records latency and row counts for every public DAO method.
+ * <p>
+ * Publishes {@code webstore.dao} timers with percentile histograms and
+ * {@code webstore.dao.rows} summaries, tagged with the DAO, the method and,
+ * for timers, the outcome. Rows are the size of a returned list, the count
+ * of an update, one for a single object, or the number of rows passed to a
+ * streaming consumer. Meters are looked up once per method and then reused,
+ * so the per-call cost is two clock reads and one map lookup.
+ * <p>
+ * Runs inside the caching advice, so cache hits are not counted, and inside
+ * the database gate, so the time spent waiting for a permit is not included
+ * (see {@code webstore.db-gate.wait}). Disable it with
+ * {@code webstore.metrics.dao.enabled=false}.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+@ConditionalOnProperty(name = "webstore.metrics.dao.enabled", havingValue = "true", matchIfMissing = true)
+public class DaoMetrics {
+    /**
+     * The registry to publish meters to.
+     */
+    private final MeterRegistry registry;
+
+    /**
+     * The meters for each DAO method.
+     */
+    private final Map<Method, Meters> meters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new DAO metrics aspect.
+     *
+     * @param registry The registry to publish meters to.
+     */
+    public DaoMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Times a DAO call and records the rows it returned or affected.
+     *
+     * @param joinPoint The DAO call.
+     * @return The result of the call.
+     * @throws Throwable Whatever the DAO call throws.
+     */
+    @Around("execution(public * org.example.daos.*Dao.*(..))")
+    public Object record(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Meters methodMeters = meters.computeIfAbsent(method, this::register);
+
+        Object[] args = joinPoint.getArgs();
+        long[] streamed = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Consumer<?> consumer) {
+                long[] count = streamed = new long[1];
+                @SuppressWarnings("unchecked")
+                Consumer<Object> target = (Consumer<Object>) consumer;
+                args[i] = (Consumer<Object>) row -> {
+                    count[0]++;
+                    target.accept(row);
+                };
+            }
+        }
+
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = joinPoint.proceed(args);
+        } catch (Throwable e) {
+            methodMeters.failure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        methodMeters.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        long rows = streamed != null ? streamed[0] : rows(result);
+        if (rows >= 0) {
+            methodMeters.rows.record(rows);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the rows in a DAO result.
+     *
+     * @param result The result of the DAO call.
+     * @return long The number of rows, or -1 if the method returns nothing.
+     */
+    private static long rows(Object result) {
+        if (result == null) {
+            return -1;
+        }
+        if (result instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (result instanceof Integer count) {
+            return count;
+        }
+        if (result instanceof int[] counts) {
+            long total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            return total;
+        }
+        return 1;
+    }
+
+    private Meters register(Method method) {
+        String dao = method.getDeclaringClass().getSimpleName();
+        String name = method.getName();
+        return new Meters(
+                timer(dao, name, "success"),
+                timer(dao, name, "error"),
+                DistributionSummary.builder("webstore.dao.rows")
+                        .description("Rows returned or affected by DAO methods")
+                        .tags("dao", dao, "method", name)
+                        .register(registry));
+    }
+
+    private Timer timer(String dao, String method, String outcome) {
+        return Timer.builder("webstore.dao")
+                .description("Latency of DAO methods")
+                .tags("dao", dao, "method", method, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * The meters for one DAO method.
+     */
+    private static class Meters {
+        private final Timer success;
+        private final Timer failure;
+        private final DistributionSummary rows;
+
+        private Meters(Timer success, Timer failure, DistributionSummary rows) {
+            this.success = success;
+            this.failure = failure;
+            this.rows = rows;
+        }
+    }
+}
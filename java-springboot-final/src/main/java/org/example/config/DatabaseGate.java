@@ -0,0 +1,226 @@
+package org.example.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission gate that limits how many DAO calls may run at once.
+ * <p>
+ * With virtual threads ({@code spring.threads.virtual.enabled=true}, Java 21+)
+ * Tomcat no longer caps the number of concurrent requests, so thousands of
+ * requests could queue up inside the connection pool. The gate holds callers
+ * back before they touch the pool, and fails fast with 503 once they have
+ * waited {@code webstore.db-gate.timeout}.
+ * <p>
+ * The gate is sized to the primary's Hikari pool unless {@code webstore.db-gate.permits}
+ * is set. It is enabled together with virtual threads by default, and can be
+ * switched on its own with {@code webstore.db-gate.enabled}. It runs inside
+ * the caching advice, so cache hits never wait for a permit, and outside the
+ * transaction advice, so a permit is held before a connection is taken.
+ * <p>
+ * A call that spends most of its time waiting on other callers, like an
+ * insert waiting for its group commit, can give its permit back with
+ * {@link #withoutPermit(Supplier)} and take one only around the real work
+ * with {@link #withPermit(Supplier)}.
+ * <p>
+ * Time spent waiting for a permit is published as {@code webstore.db-gate.wait},
+ * and the free permits and waiting callers as gauges.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+@ConditionalOnProperty(name = "webstore.db-gate.enabled", havingValue = "true")
+public class DatabaseGate {
+    /**
+     * The gated calls the current thread is inside, so nested DAO calls do
+     * not take a second permit.
+     */
+    private static final ThreadLocal<Held> HELD = ThreadLocal.withInitial(Held::new);
+
+    /**
+     * The permits, one per concurrent DAO call.
+     */
+    private final Semaphore permits;
+
+    /**
+     * How long a caller waits for a permit before giving up.
+     */
+    private final Duration timeout;
+
+    /**
+     * The time callers spend waiting for a permit.
+     */
+    private final Timer waitTimer;
+
+    /**
+     * Creates a new database gate.
+     *
+     * @param dataSource The data source whose pool size is used by default.
+     * @param configuredPermits The number of permits, or 0 to use the pool size.
+     * @param timeout How long a caller waits for a permit.
+     * @param registry The registry to publish the gate's meters to.
+     */
+    public DatabaseGate(DataSource dataSource,
+                        @Value("${webstore.db-gate.permits:0}") int configuredPermits,
+                        @Value("${webstore.db-gate.timeout:2s}") Duration timeout,
+                        MeterRegistry registry) {
+        int size = configuredPermits;
+        if (size <= 0) {
+            DataSource pool = dataSource instanceof ReplicaRoutingDataSource routing ? routing.getPrimary() : dataSource;
+            size = pool instanceof HikariDataSource hikari ? hikari.getMaximumPoolSize() : 10;
+        }
+        this.permits = new Semaphore(size, true);
+        this.timeout = timeout;
+        this.waitTimer = Timer.builder("webstore.db-gate.wait")
+                .description("Time spent waiting for a database gate permit")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("webstore.db-gate.available", permits, Semaphore::availablePermits)
+                .description("Free database gate permits")
+                .register(registry);
+        Gauge.builder("webstore.db-gate.waiting", permits, Semaphore::getQueueLength)
+                .description("Callers waiting for a database gate permit")
+                .register(registry);
+    }
+
+    /**
+     * Runs a DAO call once a permit is available.
+     *
+     * @param joinPoint The DAO call.
+     * @return The result of the call.
+     * @throws Throwable Whatever the DAO call throws.
+     */
+    @Around("execution(public * org.example.daos.*Dao.*(..))")
+    public Object admit(ProceedingJoinPoint joinPoint) throws Throwable {
+        Held held = HELD.get();
+        if (held.depth > 0) {
+            return enter(joinPoint, held);
+        }
+        acquire(held);
+        try {
+            return enter(joinPoint, held);
+        } finally {
+            release(held);
+        }
+    }
+
+    /**
+     * Gives the current thread's permit back for the rest of its DAO call,
+     * and runs some work. The rest of the call, including any work after
+     * this returns, runs without a permit unless it takes one again with
+     * {@link #withPermit(Supplier)}.
+     *
+     * @param work The work to run.
+     * @param <T> The type of the result.
+     * @return T The result of the work.
+     */
+    public <T> T withoutPermit(Supplier<T> work) {
+        release(HELD.get());
+        return work.get();
+    }
+
+    /**
+     * Runs some work holding a permit, waiting for one if the current thread
+     * does not hold one already.
+     *
+     * @param work The work to run.
+     * @param <T> The type of the result.
+     * @return T The result of the work.
+     * @throws ResponseStatusException If no permit came free in time.
+     */
+    public <T> T withPermit(Supplier<T> work) {
+        Held held = HELD.get();
+        if (held.permit) {
+            return work.get();
+        }
+        acquire(held);
+        try {
+            return work.get();
+        } finally {
+            release(held);
+        }
+    }
+
+    /**
+     * Gets the number of permits currently free.
+     *
+     * @return int
+     */
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Gets the number of callers waiting for a permit.
+     *
+     * @return int
+     */
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    private void acquire(Held held) {
+        long start = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!admitted) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Database is busy, try again later");
+        }
+        held.permit = true;
+    }
+
+    private void release(Held held) {
+        if (held.permit) {
+            held.permit = false;
+            permits.release();
+        }
+    }
+
+    private Object enter(ProceedingJoinPoint joinPoint, Held held) throws Throwable {
+        held.depth++;
+        try {
+            return joinPoint.proceed();
+        } finally {
+            held.depth--;
+        }
+    }
+
+    /**
+     * What the current thread holds of the gate.
+     */
+    private static class Held {
+        /**
+         * How many gated calls the thread is inside.
+         */
+        private int depth;
+
+        /**
+         * Whether the thread holds a permit.
+         */
+        private boolean permit;
+    }
+}
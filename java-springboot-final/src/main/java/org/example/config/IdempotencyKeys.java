@@ -0,0 +1,500 @@
+package org.example.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Makes creating POST requests safe to retry with an {@code Idempotency-Key}
+ * header.
+ * <p>
+ * The first request with a key runs as usual, and a successful response is
+ * kept under the key together with a SHA-256 fingerprint of the request's
+ * method, path, query and body. A retry with the same key and fingerprint
+ * gets the kept response back, marked {@code Idempotent-Replayed: true},
+ * without running again; a retry that arrives while the first request is
+ * still running waits for it, up to {@code webstore.idempotency.wait-timeout},
+ * and then gets its response. Reusing a key for a different request is
+ * rejected with 422. Requests that fail keep nothing, so a retry after
+ * fixing the cause runs again; they wrote nothing either.
+ * <p>
+ * Keys live in the {@code idempotency_keys} table on the primary, so every
+ * node sees them. Inserting a key's row claims it, and the request that
+ * inserted it fills in the response once it succeeds or deletes the row if
+ * it fails; retries on any node poll the row meanwhile. A claimed key
+ * whose request never finished, because its node died, is taken over after
+ * {@code webstore.idempotency.lock-timeout}, so that should be longer than
+ * any request runs. A request that succeeded but could not keep its
+ * response leaves its claim to expire the same way rather than freeing the
+ * key for a second run. Kept responses are replayed for
+ * {@code webstore.idempotency.ttl} and then purged.
+ * <p>
+ * Keys are scoped to the authenticated user, and a user holds at most
+ * {@code webstore.idempotency.max-keys} live keys; a new key past that is
+ * rejected with 429 until older ones expire. Turned off with
+ * {@code webstore.idempotency.enabled=false}. The filter runs after Spring
+ * Security's, so the user is known and unauthenticated requests never
+ * reach it.
+ */
+@Component
+@ConditionalOnProperty(name = "webstore.idempotency.enabled", havingValue = "true", matchIfMissing = true)
+public class IdempotencyKeys extends OncePerRequestFilter {
+    /**
+     * The request header holding the key.
+     */
+    public static final String HEADER = "Idempotency-Key";
+
+    /**
+     * The response header marking a replayed response.
+     */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    /**
+     * The longest key accepted.
+     */
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * The paths whose POST requests honour the header.
+     */
+    private static final Set<String> PATHS = Set.of("/api/orders", "/api/orders/checkout", "/api/order-items", "/api/products");
+
+    /**
+     * The response headers kept with a response, besides its content type.
+     */
+    private static final List<String> KEPT_HEADERS = List.of(HttpHeaders.LOCATION, HttpHeaders.ETAG);
+
+    /**
+     * How long a retry waits between looks at a key whose first request is
+     * still running.
+     */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * How many times a successful response is written before its claim is
+     * left to expire.
+     */
+    private static final int KEEP_ATTEMPTS = 2;
+
+    /**
+     * The logger for responses that could not be kept.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyKeys.class);
+
+    /**
+     * The JDBC template for the idempotency_keys table on the primary.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * How long a successful response is kept.
+     */
+    private final Duration ttl;
+
+    /**
+     * How long a key stays claimed by a request that has not finished.
+     */
+    private final Duration lockTimeout;
+
+    /**
+     * How long a retry waits for the first request with its key to finish.
+     */
+    private final Duration waitTimeout;
+
+    /**
+     * The most live keys one user may hold.
+     */
+    private final int maxKeys;
+
+    /**
+     * Creates a new idempotency key filter.
+     *
+     * @param dataSource The data source holding the idempotency_keys table.
+     * @param ttl How long a key is kept after its first request succeeded.
+     * @param lockTimeout How long a key stays claimed by a request that has not finished.
+     * @param waitTimeout How long a retry waits for the first request with its key to finish.
+     * @param maxKeys The most live keys one user may hold.
+     */
+    public IdempotencyKeys(DataSource dataSource,
+                           @Value("${webstore.idempotency.ttl:24h}") Duration ttl,
+                           @Value("${webstore.idempotency.lock-timeout:5m}") Duration lockTimeout,
+                           @Value("${webstore.idempotency.wait-timeout:10s}") Duration waitTimeout,
+                           @Value("${webstore.idempotency.max-keys:1000}") int maxKeys) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.ttl = ttl;
+        this.lockTimeout = lockTimeout;
+        this.waitTimeout = waitTimeout;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Deletes the keys whose responses are no longer replayed, and claims
+     * that timed out.
+     *
+     * @return int The number of keys deleted.
+     */
+    @Scheduled(fixedDelayString = "${webstore.idempotency.purge-interval:PT1M}",
+            initialDelayString = "${webstore.idempotency.purge-interval:PT1M}")
+    public int purge() {
+        return jdbcTemplate.update("DELETE FROM idempotency_keys WHERE expires_at < current_timestamp(6);");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod()) || request.getHeader(HEADER) == null
+                || !PATHS.contains(request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String key = request.getHeader(HEADER);
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+        byte[] body = request.getInputStream().readAllBytes();
+        String user = user();
+        String fingerprint = fingerprint(request, body);
+        long deadline = System.nanoTime() + waitTimeout.toNanos();
+
+        if (find(user, key) == null && full(user)) {
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many live " + HEADER + " values; retry later or without one");
+            return;
+        }
+        boolean free = true;
+        while (true) {
+            if (free && claim(user, key, fingerprint)) {
+                run(new ReplayableRequest(request, body), response, filterChain, user, key);
+                return;
+            }
+            Execution first = find(user, key);
+            free = first == null;
+            if (free) {
+                // The first request failed and gave the key up; try to run this one instead.
+                continue;
+            }
+            if (!first.fingerprint.equals(fingerprint)) {
+                response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value(), HEADER + " was already used for a different request");
+                return;
+            }
+            if (first.response != null) {
+                first.response.replay(response);
+                return;
+            }
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                response.sendError(HttpStatus.CONFLICT.value(), "A request with this " + HEADER + " is still in progress");
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(left, POLL_NANOS));
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(new InterruptedException());
+            }
+        }
+    }
+
+    /**
+     * Runs the first request with a key, and keeps its response if it
+     * succeeded or gives the key up if it did not. A request that succeeded
+     * never gives its key up: if its response cannot be kept, the claim is
+     * left to expire after the lock timeout so a retry cannot run it twice.
+     */
+    private void run(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain,
+                     String user, String key) throws ServletException, IOException {
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        boolean succeeded = false;
+        try {
+            filterChain.doFilter(request, wrapper);
+            succeeded = HttpStatus.valueOf(wrapper.getStatus()).is2xxSuccessful();
+            if (succeeded) {
+                keep(user, key, new StoredResponse(wrapper));
+            }
+            wrapper.copyBodyToResponse();
+        } finally {
+            if (!succeeded) {
+                jdbcTemplate.update("DELETE FROM idempotency_keys WHERE username = ? AND idempotency_key = ?;", user, key);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a user already holds as many live keys as allowed.
+     *
+     * @return Whether another key would go over the limit.
+     */
+    private boolean full(String user) {
+        Integer live = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_keys " +
+                "WHERE username = ? AND expires_at >= current_timestamp(6);", Integer.class, user);
+        return live != null && live >= maxKeys;
+    }
+
+    /**
+     * Claims a key for a request, taking over a claim or response that has
+     * expired.
+     *
+     * @return Whether the key was claimed.
+     */
+    private boolean claim(String user, String key, String fingerprint) {
+        jdbcTemplate.update("DELETE FROM idempotency_keys WHERE username = ? AND idempotency_key = ? " +
+                "AND expires_at < current_timestamp(6);", user, key);
+        try {
+            jdbcTemplate.update("INSERT INTO idempotency_keys (username, idempotency_key, fingerprint, expires_at) " +
+                    "VALUES (?, ?, ?, current_timestamp(6) + INTERVAL ? MICROSECOND);",
+                    user, key, fingerprint, micros(lockTimeout));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the request that claimed a key, or null if the key is free.
+     */
+    private Execution find(String user, String key) {
+        List<Execution> found = jdbcTemplate.query("SELECT fingerprint, status, content_type, headers, body " +
+                "FROM idempotency_keys WHERE username = ? AND idempotency_key = ? AND expires_at >= current_timestamp(6);",
+                (resultSet, rowNumber) -> {
+                    int status = resultSet.getInt("status");
+                    StoredResponse stored = resultSet.wasNull() ? null : new StoredResponse(status,
+                            resultSet.getString("content_type"), resultSet.getString("headers"), resultSet.getBytes("body"));
+                    return new Execution(resultSet.getString("fingerprint"), stored);
+                }, user, key);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Keeps the response of the request that claimed a key, trying again
+     * once if the write fails. The request's own write has already
+     * committed, so a failure here is logged and its response still sent.
+     */
+    private void keep(String user, String key, StoredResponse stored) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                jdbcTemplate.update("UPDATE idempotency_keys SET status = ?, content_type = ?, headers = ?, body = ?, " +
+                        "expires_at = current_timestamp(6) + INTERVAL ? MICROSECOND WHERE username = ? AND idempotency_key = ?;",
+                        stored.status, stored.contentType, stored.headerLines(), stored.body, micros(ttl), user, key);
+                return;
+            } catch (DataAccessException e) {
+                if (attempt >= KEEP_ATTEMPTS) {
+                    log.warn("Could not keep the response for {} key {} of user {}; its claim will expire", HEADER, key, user, e);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long micros(Duration duration) {
+        return TimeUnit.NANOSECONDS.toMicros(duration.toNanos());
+    }
+
+    private static String user() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? "" : authentication.getName();
+    }
+
+    private static String fingerprint(HttpServletRequest request, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String target = request.getMethod() + " " + request.getRequestURI() + "?" + request.getQueryString() + "\n";
+            digest.update(target.getBytes(StandardCharsets.UTF_8));
+            digest.update(body);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The request that claimed a key, and its response once it has
+     * succeeded: null while it is still running.
+     */
+    private static class Execution {
+        /**
+         * The fingerprint of the request.
+         */
+        private final String fingerprint;
+
+        /**
+         * The kept response, or null.
+         */
+        private final StoredResponse response;
+
+        Execution(String fingerprint, StoredResponse response) {
+            this.fingerprint = fingerprint;
+            this.response = response;
+        }
+    }
+
+    /**
+     * A successful response, kept to be replayed.
+     */
+    private static class StoredResponse {
+        /**
+         * The status code.
+         */
+        private final int status;
+
+        /**
+         * The content type, if any.
+         */
+        private final String contentType;
+
+        /**
+         * The kept headers that were set.
+         */
+        private final Map<String, String> headers = new LinkedHashMap<>();
+
+        /**
+         * The body.
+         */
+        private final byte[] body;
+
+        StoredResponse(ContentCachingResponseWrapper response) {
+            this.status = response.getStatus();
+            this.contentType = response.getContentType();
+            for (String header : KEPT_HEADERS) {
+                String value = response.getHeader(header);
+                if (value != null) {
+                    headers.put(header, value);
+                }
+            }
+            this.body = response.getContentAsByteArray();
+        }
+
+        StoredResponse(int status, String contentType, String headerLines, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            if (headerLines != null) {
+                for (String line : headerLines.split("\n")) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon), line.substring(colon + 1));
+                    }
+                }
+            }
+            this.body = body == null ? new byte[0] : body;
+        }
+
+        /**
+         * Gets the kept headers as {@code name:value} lines.
+         */
+        String headerLines() {
+            StringBuilder lines = new StringBuilder();
+            headers.forEach((name, value) -> lines.append(name).append(':').append(value).append('\n'));
+            return lines.toString();
+        }
+
+        void replay(HttpServletResponse response) throws IOException {
+            response.setStatus(status);
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            headers.forEach(response::setHeader);
+            response.setHeader(REPLAYED_HEADER, "true");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+
+    /**
+     * A request whose body was already read, served again from memory.
+     */
+    private static class ReplayableRequest extends HttpServletRequestWrapper {
+        /**
+         * The body.
+         */
+        private final byte[] body;
+
+        ReplayableRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new IllegalStateException("Non-blocking reads are not supported for a replayed request body");
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body),
+                    encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding)));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
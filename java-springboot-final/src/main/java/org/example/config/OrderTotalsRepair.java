@@ -0,0 +1,39 @@
+package org.example.config;
+
+import org.example.daos.OrderDao;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Periodically repairs the item count and total kept on each order.
+ * <p>
+ * The DAOs keep the totals in step on every write, so this only catches
+ * drift from writes made outside them, such as manual SQL or migrations.
+ * It is off unless {@code webstore.order-totals.repair-cron} is set; the
+ * same repair can be run on demand with
+ * {@code POST /api/orders/totals/rebuild}.
+ */
+@Configuration
+public class OrderTotalsRepair {
+    /**
+     * The order data access object.
+     */
+    private final OrderDao orderDao;
+
+    /**
+     * Creates a new order totals repair job.
+     *
+     * @param orderDao The order data access object.
+     */
+    public OrderTotalsRepair(OrderDao orderDao) {
+        this.orderDao = orderDao;
+    }
+
+    /**
+     * Recomputes every order's item count and total from its items.
+     */
+    @Scheduled(cron = "${webstore.order-totals.repair-cron:-}")
+    public void repair() {
+        orderDao.rebuildTotals();
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves every {@link PasswordEncoder} bean onto a {@link BoundedPasswordEncoder},
+ * so signups, password changes and logins hash on a pool sized to the CPU.
+ * <p>
+ * Tuned with {@code webstore.password-hashing.threads} (default: one per
+ * core), {@code .queue-capacity} and {@code .timeout}, and turned off with
+ * {@code webstore.password-hashing.enabled=false}. Metrics are bound once
+ * all singletons exist, so the meter registry is not created early.
+ */
+@Component
+@ConditionalOnProperty(name = "webstore.password-hashing.enabled", havingValue = "true", matchIfMissing = true)
+public class PasswordHashing implements BeanPostProcessor, SmartInitializingSingleton, DisposableBean {
+    /**
+     * The environment to read the pool settings from.
+     */
+    private final Environment environment;
+
+    /**
+     * The meter registry, looked up once the context is ready.
+     */
+    private final ObjectProvider<MeterRegistry> registry;
+
+    /**
+     * The encoders wrapped so far.
+     */
+    private final List<BoundedPasswordEncoder> encoders = new ArrayList<>();
+
+    /**
+     * Creates a new password hashing post processor.
+     *
+     * @param environment The environment to read the pool settings from.
+     * @param registry The meter registry.
+     */
+    public PasswordHashing(Environment environment, ObjectProvider<MeterRegistry> registry) {
+        this.environment = environment;
+        this.registry = registry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof PasswordEncoder encoder) || bean instanceof BoundedPasswordEncoder) {
+            return bean;
+        }
+        int threads = environment.getProperty("webstore.password-hashing.threads", Integer.class,
+                Runtime.getRuntime().availableProcessors());
+        BoundedPasswordEncoder bounded = new BoundedPasswordEncoder(encoder, threads,
+                environment.getProperty("webstore.password-hashing.queue-capacity", Integer.class, threads * 16),
+                environment.getProperty("webstore.password-hashing.timeout", Duration.class, Duration.ofSeconds(5)));
+        encoders.add(bounded);
+        return bounded;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        registry.ifAvailable(meterRegistry -> encoders.forEach(encoder -> encoder.bindTo(meterRegistry)));
+    }
+
+    @Override
+    public void destroy() {
+        encoders.forEach(BoundedPasswordEncoder::shutdown);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps the application's data source in a {@link ReplicaRoutingDataSource}
+ * when read replicas are configured, so {@link ReplicaRouting} can send DAO
+ * reads to them.
+ * <p>
+ * Replicas are listed as comma separated JDBC URLs in
+ * {@code webstore.replicas.urls}, and log in with
+ * {@code webstore.replicas.username} and {@code .password}, which default to
+ * the primary's credentials. A replica is skipped once it lags more than
+ * {@code webstore.replicas.max-lag}.
+ */
+@Component
+@ConditionalOnProperty(name = "webstore.replicas.urls")
+public class ReadReplicas implements BeanPostProcessor, DisposableBean {
+    /**
+     * The environment to read the replica settings from.
+     */
+    private final Environment environment;
+
+    /**
+     * The replica data sources created so far, closed on shutdown.
+     */
+    private final List<DataSource> created = new ArrayList<>();
+
+    /**
+     * Creates a new read replica post processor.
+     *
+     * @param environment The environment to read the replica settings from.
+     */
+    public ReadReplicas(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource primary) || bean instanceof ReplicaRoutingDataSource || !beanName.equals("dataSource")) {
+            return bean;
+        }
+        String username = environment.getProperty("webstore.replicas.username", environment.getProperty("spring.datasource.username", ""));
+        String password = environment.getProperty("webstore.replicas.password", environment.getProperty("spring.datasource.password", ""));
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : environment.getRequiredProperty("webstore.replicas.urls").split(",")) {
+            DataSource replica = DataSourceBuilder.create().url(url.trim()).username(username).password(password).build();
+            created.add(replica);
+            replicas.put("replica-" + replicas.size(), replica);
+        }
+        return new ReplicaRoutingDataSource(primary, replicas,
+                environment.getProperty("webstore.replicas.max-lag", Duration.class, Duration.ofSeconds(5)));
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (DataSource replica : created) {
+            if (replica instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
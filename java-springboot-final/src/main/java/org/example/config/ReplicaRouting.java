@@ -0,0 +1,232 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends DAO reads to a read replica and everything else to the primary.
+ * <p>
+ * A DAO method whose name starts with {@code get}, {@code find} or
+ * {@code stream} is a read. The outermost DAO call decides, so a read made
+ * from inside a write, or inside a transaction, stays on the primary. If a
+ * replica cannot be reached, the read is retried on the primary, except
+ * for streams, which may already have handed rows to the caller.
+ * <p>
+ * Reads whose results are {@link Cacheable cached} always go to the primary.
+ * The caches are shared by every request and only evicted by writes on this
+ * node, so a lagging row from a replica would be served long after the
+ * replica caught up, and cache hits are never checked against a client's
+ * token.
+ * <p>
+ * Read-your-writes: after a write commits, the response carries an
+ * {@value #TOKEN_HEADER} header. A client that sends the token back is only
+ * served by replicas that have applied the write, or by the primary. Reads
+ * later in the same request use the token without it being sent.
+ * <p>
+ * Reads are counted as {@code webstore.replicas.reads{target}}, and each
+ * replica's lag is published as {@code webstore.replicas.lag{replica}}.
+ * The heartbeat runs every {@code webstore.replicas.heartbeat-interval}, an
+ * ISO-8601 duration.
+ * <p>
+ * Runs inside the database gate and the DAO metrics, so a read retried on
+ * the primary holds one permit and is timed as one call.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 3)
+@ConditionalOnProperty(name = "webstore.replicas.urls")
+public class ReplicaRouting {
+    /**
+     * The header that carries a consistency token, in both directions.
+     */
+    public static final String TOKEN_HEADER = "X-Consistency-Token";
+
+    /**
+     * The request attribute set once a replica has served a read for the
+     * request, so callers know the results may lag the primary.
+     */
+    public static final String REPLICA_READ_ATTRIBUTE = ReplicaRouting.class.getName() + ".replicaRead";
+
+    /**
+     * How many routed calls the current thread is inside.
+     */
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * The routing data source.
+     */
+    private final ReplicaRoutingDataSource routing;
+
+    /**
+     * The reads served by the primary.
+     */
+    private final Counter primaryReads;
+
+    /**
+     * The reads served by each replica, by name.
+     */
+    private final Map<String, Counter> replicaReads = new HashMap<>();
+
+    /**
+     * Creates a new replica router.
+     *
+     * @param dataSource The data source, wrapped by {@link ReadReplicas}.
+     * @param registry The registry to publish the router's meters to.
+     */
+    public ReplicaRouting(DataSource dataSource, MeterRegistry registry) {
+        if (!(dataSource instanceof ReplicaRoutingDataSource routingDataSource)) {
+            throw new IllegalStateException("webstore.replicas.urls is set but the data source was not wrapped for routing");
+        }
+        this.routing = routingDataSource;
+        this.primaryReads = reads(registry, "primary");
+        for (ReplicaRoutingDataSource.Replica replica : routing.getReplicas()) {
+            replicaReads.put(replica.getName(), reads(registry, replica.getName()));
+            Gauge.builder("webstore.replicas.lag", replica, ReplicaRoutingDataSource.Replica::getLagSeconds)
+                    .description("How far behind the primary a read replica was at the last heartbeat")
+                    .baseUnit("seconds")
+                    .tag("replica", replica.getName())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Bumps the heartbeat on the primary and measures every replica.
+     */
+    @Scheduled(fixedDelayString = "${webstore.replicas.heartbeat-interval:PT1S}")
+    public void heartbeat() {
+        routing.beat();
+    }
+
+    /**
+     * Runs a DAO call against a replica if it is a read, or against the
+     * primary.
+     *
+     * @param joinPoint The DAO call.
+     * @return The result of the call.
+     * @throws Throwable Whatever the DAO call throws.
+     */
+    @Around("execution(public * org.example.daos.*Dao.*(..))")
+    public Object route(ProceedingJoinPoint joinPoint) throws Throwable {
+        int[] depth = DEPTH.get();
+        if (depth[0] > 0) {
+            return enter(joinPoint, depth);
+        }
+        String method = joinPoint.getSignature().getName();
+        boolean stream = method.startsWith("stream");
+        if (!stream && !method.startsWith("get") && !method.startsWith("find")) {
+            Object result = enter(joinPoint, depth);
+            issueToken();
+            return result;
+        }
+
+        ReplicaRoutingDataSource.Replica replica = TransactionSynchronizationManager.isActualTransactionActive()
+                || cached(joinPoint) ? null : routing.choose(requiredPosition());
+        if (replica == null) {
+            primaryReads.increment();
+            return enter(joinPoint, depth);
+        }
+        ReplicaRoutingDataSource.use(replica);
+        try {
+            replicaReads.get(replica.getName()).increment();
+            Object result = enter(joinPoint, depth);
+            HttpServletRequest request = currentRequest();
+            if (request != null) {
+                request.setAttribute(REPLICA_READ_ATTRIBUTE, Boolean.TRUE);
+            }
+            return result;
+        } catch (DataAccessResourceFailureException e) {
+            replica.markDown();
+            if (stream) {
+                throw e;
+            }
+            ReplicaRoutingDataSource.use(null);
+            primaryReads.increment();
+            return enter(joinPoint, depth);
+        } finally {
+            ReplicaRoutingDataSource.use(null);
+        }
+    }
+
+    /**
+     * Gets the lowest heartbeat position a replica must have applied to
+     * serve the current request.
+     */
+    private long requiredPosition() {
+        HttpServletRequest request = currentRequest();
+        if (request == null) {
+            return 0;
+        }
+        long token = request.getAttribute(TOKEN_HEADER) instanceof Long issued ? issued : -1;
+        String header = request.getHeader(TOKEN_HEADER);
+        if (header != null) {
+            try {
+                token = Math.max(token, Long.parseLong(header.trim()));
+            } catch (NumberFormatException e) {
+                // A token we cannot read could be any write, so only the primary is safe.
+                return Long.MAX_VALUE;
+            }
+        }
+        return token == Long.MAX_VALUE ? token : token + 1;
+    }
+
+    /**
+     * Hands the client a token for the write that just committed.
+     */
+    private void issueToken() {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return;
+        }
+        long token = routing.primaryPosition();
+        attributes.getRequest().setAttribute(TOKEN_HEADER, token);
+        if (attributes.getResponse() != null) {
+            attributes.getResponse().setHeader(TOKEN_HEADER, String.valueOf(token));
+        }
+    }
+
+    private static boolean cached(ProceedingJoinPoint joinPoint) {
+        return joinPoint.getSignature() instanceof MethodSignature signature
+                && AnnotatedElementUtils.hasAnnotation(signature.getMethod(), Cacheable.class);
+    }
+
+    private static HttpServletRequest currentRequest() {
+        return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+                ? attributes.getRequest() : null;
+    }
+
+    private static Counter reads(MeterRegistry registry, String target) {
+        return Counter.builder("webstore.replicas.reads")
+                .description("DAO reads by the data source that served them")
+                .tag("target", target)
+                .register(registry);
+    }
+
+    private Object enter(ProceedingJoinPoint joinPoint, int[] depth) throws Throwable {
+        depth[0]++;
+        try {
+            return joinPoint.proceed();
+        } finally {
+            depth[0]--;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.example.config;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A data source that hands out connections to a read replica while a read
+ * is being routed, see {@link ReplicaRouting}, and to the primary otherwise.
+ * <p>
+ * Lag is measured with a heartbeat row. {@link #beat()} bumps
+ * {@code replica_heartbeat.position} and stamps {@code beat_at} on the
+ * primary. {@link #refresh()} reads the row back from each replica, giving
+ * how far the replica has applied and how old that is. A replica is only
+ * picked while it answered the last refresh and its lag is within
+ * {@code maxLag}. Between refreshes the lag is assumed to keep growing, so
+ * a replica whose refreshes stop, because the heartbeat job is stuck, falls
+ * out of rotation once the measured lag plus the time since it was
+ * measured passes {@code maxLag}.
+ * <p>
+ * A consistency token is a heartbeat position read from the primary after a
+ * write committed. Any replica that has applied a later heartbeat has
+ * applied the write too, because replicas apply commits in order.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+    /**
+     * The replica the current thread is reading from, or null for the primary.
+     */
+    private static final ThreadLocal<Replica> TARGET = new ThreadLocal<>();
+
+    /**
+     * The primary data source.
+     */
+    private final DataSource primary;
+
+    /**
+     * The JDBC template for the heartbeat on the primary.
+     */
+    private final JdbcTemplate primaryJdbcTemplate;
+
+    /**
+     * The read replicas.
+     */
+    private final List<Replica> replicas;
+
+    /**
+     * The most a replica may lag and still be read from, in microseconds.
+     */
+    private final long maxLagMicros;
+
+    /**
+     * Spreads reads over the replicas.
+     */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a new routing data source.
+     *
+     * @param primary The primary data source, for writes and fallback reads.
+     * @param replicas The replica data sources by name.
+     * @param maxLag The most a replica may lag and still be read from.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Duration maxLag) {
+        this.primary = primary;
+        this.primaryJdbcTemplate = new JdbcTemplate(primary);
+        this.maxLagMicros = maxLag.toNanos() / 1000;
+        this.replicas = new ArrayList<>();
+        Map<Object, Object> targets = new HashMap<>();
+        replicas.forEach((name, dataSource) -> {
+            this.replicas.add(new Replica(name, dataSource));
+            targets.put(name, dataSource);
+        });
+        setDefaultTargetDataSource(primary);
+        setTargetDataSources(targets);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Replica replica = TARGET.get();
+        return replica == null ? null : replica.name;
+    }
+
+    /**
+     * Gets the primary data source.
+     *
+     * @return DataSource
+     */
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Gets the read replicas.
+     *
+     * @return List of Replica
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Picks a replica that is up, within the allowed lag and has applied at
+     * least a heartbeat position.
+     *
+     * @param minPosition The lowest heartbeat position the replica may have applied.
+     * @return Replica The replica, or null if the read must go to the primary.
+     */
+    public Replica choose(long minPosition) {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.up && replica.lagMicros(now) <= maxLagMicros && replica.position >= minPosition) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the heartbeat position of the primary, for a consistency token.
+     *
+     * @return long
+     */
+    public long primaryPosition() {
+        Long position = primaryJdbcTemplate.queryForObject("SELECT position FROM replica_heartbeat WHERE id = 1;", Long.class);
+        return position == null ? 0 : position;
+    }
+
+    /**
+     * Bumps the heartbeat on the primary, then reads it back from every replica.
+     */
+    public void beat() {
+        try {
+            primaryJdbcTemplate.update("UPDATE replica_heartbeat SET position = position + 1, beat_at = NOW(6) WHERE id = 1;");
+        } catch (DataAccessException e) {
+            // The replicas are still measured against the last beat that made it.
+        }
+        refresh();
+    }
+
+    /**
+     * Reads the heartbeat from every replica and marks the ones that do not
+     * answer as down.
+     */
+    public void refresh() {
+        for (Replica replica : replicas) {
+            try {
+                replica.jdbcTemplate.query(
+                        "SELECT position, TIMESTAMPDIFF(MICROSECOND, beat_at, NOW(6)) AS lag FROM replica_heartbeat WHERE id = 1;",
+                        resultSet -> {
+                            replica.position = resultSet.getLong("position");
+                            replica.lagMicros = Math.max(0, resultSet.getLong("lag"));
+                            replica.refreshedAt = System.nanoTime();
+                        });
+                replica.up = true;
+            } catch (DataAccessException e) {
+                replica.up = false;
+            }
+        }
+    }
+
+    /**
+     * Gets the replica the current thread is reading from.
+     *
+     * @return Replica The replica, or null for the primary.
+     */
+    static Replica current() {
+        return TARGET.get();
+    }
+
+    /**
+     * Sets the replica the current thread reads from.
+     *
+     * @param replica The replica, or null for the primary.
+     */
+    static void use(Replica replica) {
+        if (replica == null) {
+            TARGET.remove();
+        } else {
+            TARGET.set(replica);
+        }
+    }
+
+    /**
+     * A read replica and what the last refresh found out about it.
+     */
+    public static class Replica {
+        /**
+         * The name of the replica, used in metrics.
+         */
+        private final String name;
+
+        /**
+         * The replica data source.
+         */
+        private final DataSource dataSource;
+
+        /**
+         * The JDBC template for reading the replica's heartbeat.
+         */
+        private final JdbcTemplate jdbcTemplate;
+
+        /**
+         * Whether the replica answered the last refresh.
+         */
+        private volatile boolean up;
+
+        /**
+         * The heartbeat position the replica has applied.
+         */
+        private volatile long position = -1;
+
+        /**
+         * How old the applied heartbeat was at the last refresh, in microseconds.
+         */
+        private volatile long lagMicros = Long.MAX_VALUE;
+
+        /**
+         * When the lag was measured, from {@link System#nanoTime()}.
+         */
+        private volatile long refreshedAt;
+
+        /**
+         * Creates a new replica.
+         *
+         * @param name The name of the replica.
+         * @param dataSource The replica data source.
+         */
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+
+        /**
+         * Gets the name of the replica.
+         *
+         * @return String
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the replica data source.
+         *
+         * @return DataSource
+         */
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        /**
+         * Gets how far behind the primary the replica may be now: the lag at
+         * the last refresh plus the time since.
+         *
+         * @return double The lag in seconds, or infinity if the replica is down.
+         */
+        public double getLagSeconds() {
+            return up ? lagMicros(System.nanoTime()) / 1_000_000.0 : Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Gets the lag at the last refresh plus the time since.
+         *
+         * @param now The current {@link System#nanoTime()}.
+         * @return long The lag in microseconds, or {@link Long#MAX_VALUE} if never measured.
+         */
+        long lagMicros(long now) {
+            long lag = lagMicros;
+            long stale = Math.max(0, now - refreshedAt) / 1000;
+            return lag > Long.MAX_VALUE - stale ? Long.MAX_VALUE : lag + stale;
+        }
+
+        /**
+         * Marks the replica as down until the next refresh.
+         */
+        void markDown() {
+            up = false;
+        }
+    }
+}
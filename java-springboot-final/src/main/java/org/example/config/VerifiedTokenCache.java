@@ -0,0 +1,68 @@
+package org.example.config;
+
+import eu.fraho.spring.securityJwt.base.service.JwtTokenService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps the JWT starter's {@link JwtTokenService} in a
+ * {@link CachingJwtTokenService}, so repeat requests with the same bearer
+ * token skip signature verification and claim parsing.
+ * <p>
+ * Sized with {@code webstore.cache.tokens.maximum-size} and turned off with
+ * {@code webstore.cache.tokens.enabled=false}. Hit and miss counts are
+ * published as {@code cache.gets{cache="verified-tokens"}}.
+ */
+@Component
+@ConditionalOnProperty(name = "webstore.cache.tokens.enabled", havingValue = "true", matchIfMissing = true)
+public class VerifiedTokenCache implements BeanPostProcessor, SmartInitializingSingleton {
+    /**
+     * The environment to read the cache settings from.
+     */
+    private final Environment environment;
+
+    /**
+     * The meter registry, looked up once the context is ready.
+     */
+    private final ObjectProvider<MeterRegistry> registry;
+
+    /**
+     * The token services wrapped so far.
+     */
+    private final List<CachingJwtTokenService> services = new ArrayList<>();
+
+    /**
+     * Creates a new verified token cache post processor.
+     *
+     * @param environment The environment to read the cache settings from.
+     * @param registry The meter registry.
+     */
+    public VerifiedTokenCache(Environment environment, ObjectProvider<MeterRegistry> registry) {
+        this.environment = environment;
+        this.registry = registry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof JwtTokenService service) || bean instanceof CachingJwtTokenService) {
+            return bean;
+        }
+        CachingJwtTokenService caching = new CachingJwtTokenService(service,
+                environment.getProperty("webstore.cache.tokens.maximum-size", Long.class, 10_000L));
+        services.add(caching);
+        return caching;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        registry.ifAvailable(meterRegistry -> services.forEach(service -> service.bindTo(meterRegistry)));
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.controllers;
+
+import org.example.daos.AnalyticsDao;
+import org.example.daos.SalesSnapshot;
+import org.example.models.ProductSales;
+import org.example.models.SnapshotStatistics;
+import org.example.models.UserSpend;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Controller for sales analytics.
+ * The /products and /users aggregates are computed by the database; see
+ * {@link AnalyticsDao}. The /snapshot endpoints answer from memory when
+ * {@link SalesSnapshot} is enabled.
+ */
+@RestController
+@CrossOrigin
+@RequestMapping("/api/analytics")
+@PreAuthorize("hasAuthority('ADMIN')")
+public class AnalyticsController {
+    /**
+     * The analytics data access object.
+     */
+    @Autowired
+    private AnalyticsDao analyticsDao;
+
+    /**
+     * The in-memory sales snapshot, or null when it is turned off.
+     */
+    @Autowired(required = false)
+    private SalesSnapshot salesSnapshot;
+
+    /**
+     * Gets the units sold and revenue per product, for the top products.
+     *
+     * @param from The first day to include, as yyyy-MM-dd.
+     * @param to The last day to include, as yyyy-MM-dd.
+     * @param username Only count orders of this user.
+     * @param sort "revenue" or "units", the measure to rank the products by.
+     * @param limit The number of products to return.
+     * @return A list of product sales, best selling first.
+     */
+    @GetMapping("/products")
+    public List<ProductSales> getProductSales(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                              @RequestParam(required = false) String username,
+                                              @RequestParam(defaultValue = "revenue") String sort,
+                                              @RequestParam(defaultValue = "100") int limit) {
+        return analyticsDao.getProductSales(from, to, username, sort, Pagination.checkLimit(limit));
+    }
+
+    /**
+     * Gets the number of orders and the spend per user, for the top spenders.
+     *
+     * @param from The first day to include, as yyyy-MM-dd.
+     * @param to The last day to include, as yyyy-MM-dd.
+     * @param username Only include this user.
+     * @param limit The number of users to return.
+     * @return A list of user spend, biggest spender first.
+     */
+    @GetMapping("/users")
+    public List<UserSpend> getUserSpend(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                        @RequestParam(required = false) String username,
+                                        @RequestParam(defaultValue = "100") int limit) {
+        return analyticsDao.getUserSpend(from, to, username, Pagination.checkLimit(limit));
+    }
+
+    /**
+     * Gets the units sold and revenue per product from the in-memory snapshot.
+     *
+     * @param sort "revenue" or "units", the measure to rank the products by.
+     * @param limit The number of products to return.
+     * @return A list of product sales, best selling first.
+     */
+    @GetMapping("/snapshot/products")
+    public List<ProductSales> getSnapshotProductSales(@RequestParam(defaultValue = "revenue") String sort,
+                                                      @RequestParam(defaultValue = "100") int limit) {
+        return snapshot().getProductSales(sort, Pagination.checkLimit(limit));
+    }
+
+    /**
+     * Gets the size of the in-memory snapshot and how long it took to load.
+     *
+     * @return The snapshot statistics.
+     */
+    @GetMapping("/snapshot")
+    public SnapshotStatistics getSnapshotStatistics() {
+        return snapshot().getStatistics();
+    }
+
+    /**
+     * Reloads the in-memory snapshot from the database.
+     *
+     * @return The snapshot statistics after the reload.
+     */
+    @PostMapping("/snapshot/reload")
+    public SnapshotStatistics reloadSnapshot() {
+        SalesSnapshot snapshot = snapshot();
+        snapshot.reload();
+        return snapshot.getStatistics();
+    }
+
+    private SalesSnapshot snapshot() {
+        if (salesSnapshot == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The sales snapshot is not enabled");
+        }
+        return salesSnapshot;
+    }
+}
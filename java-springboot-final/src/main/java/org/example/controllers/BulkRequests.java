@@ -0,0 +1,107 @@
+package org.example.controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.models.BulkResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reads the rows of a bulk request and hands them to a DAO in batches.
+ * The body may be a JSON array or newline delimited JSON; either way rows
+ * are parsed one at a time, so only one batch is held in memory.
+ */
+final class BulkRequests {
+    /**
+     * The logger for batches that failed, with the database's own message.
+     */
+    private static final Logger log = LoggerFactory.getLogger(BulkRequests.class);
+
+    private BulkRequests() {
+    }
+
+    /**
+     * Processes a bulk request.
+     * Each batch is saved in its own transaction. If a batch fails, all of its
+     * rows are reported as failed, with a generic reason that does not expose
+     * the schema, and the remaining batches are still saved.
+     * A row that cannot be parsed ends the request with a 400 naming it; the
+     * batches before it stay saved.
+     *
+     * @param objectMapper The object mapper for parsing rows.
+     * @param type The type of the rows.
+     * @param body The request body.
+     * @param batchSize The number of rows per batch.
+     * @param save Saves one batch and returns its results, indexed from 0.
+     * @param <T> The type of the rows.
+     * @return List of BulkResult, one per row, indexed by position in the request.
+     * @throws IOException If the body cannot be read.
+     * @throws ResponseStatusException 400 if a row cannot be parsed.
+     */
+    static <T> List<BulkResult> process(ObjectMapper objectMapper, Class<T> type, InputStream body, int batchSize,
+                                        Function<List<T>, List<BulkResult>> save) throws IOException {
+        List<BulkResult> results = new ArrayList<>();
+        List<T> batch = new ArrayList<>(batchSize);
+        try (MappingIterator<T> rows = objectMapper.readerFor(type).readValues(body)) {
+            while (rows.hasNextValue()) {
+                batch.add(rows.nextValue());
+                if (batch.size() == batchSize) {
+                    flush(batch, results, save);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Row " + (results.size() + batch.size()) + " is not valid: " + e.getOriginalMessage(), e);
+        }
+        flush(batch, results, save);
+        return results;
+    }
+
+    /**
+     * Saves the pending batch, appends its results and clears it.
+     */
+    private static <T> void flush(List<T> batch, List<BulkResult> results, Function<List<T>, List<BulkResult>> save) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int offset = results.size();
+        try {
+            for (BulkResult result : save.apply(batch)) {
+                result.setIndex(result.getIndex() + offset);
+                results.add(result);
+            }
+        } catch (DataAccessException e) {
+            String error = reason(e);
+            log.warn("Bulk batch of {} rows at {} failed: {}", batch.size(), offset, e.getMostSpecificCause().getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                results.add(new BulkResult(offset + i, 0, BulkResult.Status.FAILED, error));
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Gets the reason reported to the client for a failed batch.
+     */
+    private static String reason(DataAccessException e) {
+        if (e instanceof DuplicateKeyException) {
+            return "duplicate key";
+        }
+        if (e instanceof DataIntegrityViolationException) {
+            return "constraint violation";
+        }
+        return "database error";
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.controllers;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.example.models.CacheStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Controller for inspecting the in-process caches.
+ */
+@RestController
+@CrossOrigin
+@RequestMapping("/api/caches")
+@PreAuthorize("hasAuthority('ADMIN')")
+public class CacheController {
+    /**
+     * The cache manager.
+     */
+    @Autowired
+    private CacheManager cacheManager;
+
+    /**
+     * Gets the counters of every enabled cache.
+     *
+     * @return A list of cache statistics.
+     */
+    @GetMapping
+    public List<CacheStatistics> getStatistics() {
+        List<CacheStatistics> statistics = new ArrayList<>();
+        for (String name : cacheManager.getCacheNames()) {
+            var cache = cacheManager.getCache(name);
+            if (cache != null && cache.getNativeCache() instanceof Cache<?, ?> caffeineCache) {
+                var stats = caffeineCache.stats();
+                statistics.add(new CacheStatistics(name, caffeineCache.estimatedSize(),
+                        stats.hitCount(), stats.missCount(), stats.evictionCount()));
+            }
+        }
+        return statistics;
+    }
+}
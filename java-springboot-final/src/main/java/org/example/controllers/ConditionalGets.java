@@ -0,0 +1,110 @@
+package org.example.controllers;
+
+import org.example.config.ReplicaRouting;
+import org.example.daos.EntityVersions;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Answers conditional GETs with strong ETags and Last-Modified dates built
+ * from row and table versions. A handler that gets null back should return
+ * null; Spring then sends the 304 that has already been prepared.
+ */
+final class ConditionalGets {
+    private ConditionalGets() {
+    }
+
+    /**
+     * Gets a single row, or null if the client's copy is current. When the
+     * version cache already knows the version the client has, the row is
+     * not loaded at all.
+     *
+     * @param request The current request.
+     * @param versions The row versions.
+     * @param table The table of the row.
+     * @param id The id of the row.
+     * @param load Loads the row.
+     * @param version Gets the version of the row.
+     * @param <T> The type of the row.
+     * @return The row, or null if not modified.
+     */
+    static <T> T one(WebRequest request, EntityVersions versions, String table, int id,
+                     Supplier<T> load, ToLongFunction<T> version) {
+        Long known = versions.version(table, id);
+        if (known != null && ifNoneMatch(request, etag(table + "-" + id, known))
+                && request.checkNotModified(etag(table + "-" + id, known), lastModified(known))) {
+            return null;
+        }
+
+        T row = load.get();
+        long current = version.applyAsLong(row);
+        versions.read(table, id, current);
+        return request.checkNotModified(etag(table + "-" + id, current), lastModified(current)) ? null : row;
+    }
+
+    /**
+     * Gets a result computed from one table, or null if the client's copy
+     * is current. The table version is taken before loading, so the ETag
+     * can only be older than the body, never newer. Table versions are the
+     * primary's, so a result read from a replica, which may be older still,
+     * is sent without an ETag.
+     *
+     * @param request The current request.
+     * @param versions The row versions.
+     * @param table The table the result is computed from.
+     * @param load Loads the result.
+     * @param <T> The type of the result.
+     * @return The result, or null if not modified.
+     */
+    static <T> T list(WebRequest request, EntityVersions versions, String table, Supplier<T> load) {
+        EntityVersions.TableVersion version = versions.tableVersion(table);
+        String etag = etag(table, version.getTag());
+        if (ifNoneMatch(request, etag) && request.checkNotModified(etag, lastModified(version.getVersion()))) {
+            return null;
+        }
+        T result = load.get();
+        boolean replicaRead = request.getAttribute(ReplicaRouting.REPLICA_READ_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null;
+        return !replicaRead && request.checkNotModified(etag, lastModified(version.getVersion())) ? null : result;
+    }
+
+    private static String etag(String resource, long version) {
+        return etag(resource, String.valueOf(version));
+    }
+
+    private static String etag(String resource, String tag) {
+        return "\"" + resource + "-" + tag + "\"";
+    }
+
+    /**
+     * Versions are microseconds since the epoch.
+     */
+    private static long lastModified(long version) {
+        return version / 1000;
+    }
+
+    /**
+     * Whether the request's If-None-Match header names the given ETag.
+     * Checked before {@link WebRequest#checkNotModified}, which also sets the
+     * response headers and so may only be called with the final ETag.
+     */
+    private static boolean ifNoneMatch(WebRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (header == null) {
+            return false;
+        }
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
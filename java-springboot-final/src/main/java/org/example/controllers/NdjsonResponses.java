@@ -0,0 +1,51 @@
+package org.example.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Helpers for streaming rows to the client as newline delimited JSON.
+ * Each row is written as soon as the DAO reads it, so memory use does not
+ * grow with the size of the table.
+ */
+final class NdjsonResponses {
+    /**
+     * The NDJSON media type.
+     */
+    static final String NDJSON = "application/x-ndjson";
+
+    private NdjsonResponses() {
+    }
+
+    /**
+     * Creates a streaming response that writes every row produced by a DAO.
+     *
+     * @param objectMapper The object mapper for serializing rows.
+     * @param source Feeds each row to the given consumer.
+     * @param <T> The type of the rows.
+     * @return The streaming response.
+     */
+    static <T> ResponseEntity<StreamingResponseBody> stream(ObjectMapper objectMapper, Consumer<Consumer<T>> source) {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                source.accept(row -> {
+                    try {
+                        generator.writeObject(row);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+}
@@ -1,14 +1,24 @@
 package org.example.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.ibatis.annotations.Delete;
+import org.example.daos.EntityVersions;
 import org.example.daos.OrderDao;
+import org.example.models.Checkout;
 import org.example.models.Order;
+import org.example.models.OrderDetails;
+import org.example.models.Page;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @CrossOrigin
@@ -18,17 +28,53 @@ import java.util.List;
 
 public class OrderController {
 
+    private static final int MAX_DETAILS_BATCH = 100;
+
+    private static final int MAX_CHECKOUT_ITEMS = 500;
+
     @Autowired
     private OrderDao orderDao;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EntityVersions versions;
+
     @GetMapping
-    public List<Order> getAll(){
-        return orderDao.getAll();
+    public List<Order> getAll(WebRequest request){
+        return ConditionalGets.list(request, versions, "orders", orderDao::getAll);
+    }
+
+    @GetMapping(params = "limit")
+    public Page<Order> getPage(@RequestParam int limit, @RequestParam(required = false) String cursor, WebRequest request){
+        int afterId = Pagination.decodeId(cursor);
+        int fetchSize = Pagination.fetchSize(limit);
+        return ConditionalGets.list(request, versions, "orders",
+                () -> Pagination.page(orderDao.getPage(afterId, fetchSize), limit, Order::getId));
+    }
+
+    @GetMapping(produces = NdjsonResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAll(){
+        return NdjsonResponses.stream(objectMapper, orderDao::streamAll);
     }
 
     @GetMapping(path = "/{id}")
-    public Order getById(@PathVariable  int id){
-        return orderDao.getById(id);
+    public Order getById(@PathVariable  int id, WebRequest request){
+        return ConditionalGets.one(request, versions, "orders", id, () -> orderDao.getById(id), Order::getVersion);
+    }
+
+    @GetMapping(path = "/{id}/details")
+    public OrderDetails getDetails(@PathVariable int id){
+        return orderDao.getDetails(id);
+    }
+
+    @GetMapping(path = "/details")
+    public List<OrderDetails> getDetails(@RequestParam List<Integer> ids){
+        if (ids.size() > MAX_DETAILS_BATCH){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_DETAILS_BATCH + " ids per request");
+        }
+        return orderDao.getDetails(ids.stream().distinct().toList());
     }
 
     @ResponseStatus(HttpStatus.CREATED)
@@ -38,9 +84,27 @@ public class OrderController {
         return orderDao.createOrder(order);
     }
 
+    @ResponseStatus(HttpStatus.CREATED)
+    @PostMapping(path = "/checkout")
+    @PreAuthorize("permitAll()")
+    public OrderDetails checkout(@RequestBody Checkout checkout){
+        if (checkout.getItems() == null || checkout.getItems().isEmpty()){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "An order needs at least one item");
+        }
+        if (checkout.getItems().size() > MAX_CHECKOUT_ITEMS){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_CHECKOUT_ITEMS + " items per order");
+        }
+        return orderDao.checkout(checkout.getUsername(), checkout.getItems());
+    }
+
     @PutMapping(path = "/{id}")
     public Order updateOrder(@RequestBody Order order,  @PathVariable int id){
-        return orderDao.updateOrder(order);
+        return orderDao.updateOrder(order, id);
+    }
+
+    @PatchMapping(path = "/{id}")
+    public Order patchOrder(@RequestBody Map<String, Object> changes, @PathVariable int id){
+        return orderDao.patchOrder(id, changes);
     }
 
     @DeleteMapping(path = "/{id}")
@@ -48,6 +112,11 @@ public class OrderController {
         return orderDao.deleteOrder(id);
     }
 
+    @PostMapping(path = "/totals/rebuild")
+    public int rebuildTotals(){
+        return orderDao.rebuildTotals();
+    }
+
 
 
 
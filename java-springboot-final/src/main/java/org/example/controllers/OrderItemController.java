@@ -1,14 +1,26 @@
 package org.example.controllers;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.daos.EntityVersions;
 import org.example.daos.OrderItemDao;
+import jakarta.servlet.http.HttpServletRequest;
+import org.example.models.BulkResult;
 import org.example.models.OrderItem;
+import org.example.models.Page;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @CrossOrigin
@@ -19,14 +31,46 @@ public class OrderItemController {
     @Autowired
     private OrderItemDao orderItemDao;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EntityVersions versions;
+
+    @Value("${webstore.bulk.batch-size:500}")
+    private int bulkBatchSize;
+
     @GetMapping
-    public List<OrderItem> getAllOI() {
-        return orderItemDao.getAllOI();
+    public List<OrderItem> getAllOI(@RequestParam(required = false) Integer orderId,
+                                    @RequestParam(required = false) Integer productId,
+                                    WebRequest request) {
+        return ConditionalGets.list(request, versions, "order_items", () -> {
+            if (orderId == null && productId == null) {
+                return orderItemDao.getAllOI();
+            }
+            return orderItemDao.findOI(orderId, productId);
+        });
+    }
+
+    @GetMapping(params = "limit")
+    public Page<OrderItem> getOIPage(@RequestParam int limit, @RequestParam(required = false) String cursor,
+                                     @RequestParam(required = false) Integer orderId,
+                                     @RequestParam(required = false) Integer productId,
+                                     WebRequest request) {
+        int afterId = Pagination.decodeId(cursor);
+        int fetchSize = Pagination.fetchSize(limit);
+        return ConditionalGets.list(request, versions, "order_items",
+                () -> Pagination.page(orderItemDao.getOIPage(orderId, productId, afterId, fetchSize), limit, OrderItem::getId));
+    }
+
+    @GetMapping(produces = NdjsonResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAllOI() {
+        return NdjsonResponses.stream(objectMapper, orderItemDao::streamAllOI);
     }
 
     @GetMapping(path = "/{id}")
-    public OrderItem getById(@PathVariable int id){
-        return orderItemDao.getOIById(id);
+    public OrderItem getById(@PathVariable int id, WebRequest request){
+        return ConditionalGets.one(request, versions, "order_items", id, () -> orderItemDao.getOIById(id), OrderItem::getVersion);
     }
 
     @ResponseStatus(HttpStatus.CREATED)
@@ -36,11 +80,23 @@ public class OrderItemController {
         return orderItemDao.createOI(orderItem);
     }
 
+    @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, NdjsonResponses.NDJSON})
+    public List<BulkResult> bulkSaveOrderItems(HttpServletRequest request,
+                                               @RequestParam(defaultValue = "false") boolean upsert) throws IOException {
+        return BulkRequests.process(objectMapper, OrderItem.class, request.getInputStream(), bulkBatchSize,
+                batch -> orderItemDao.saveOIs(batch, upsert));
+    }
+
     @PutMapping(path = "/{id}")
     public OrderItem updateOrderItem(@RequestBody OrderItem orderItem, @PathVariable int id){
         return orderItemDao.updateOI(orderItem, id);
     }
 
+    @PatchMapping(path = "/{id}")
+    public OrderItem patchOrderItem(@RequestBody Map<String, Object> changes, @PathVariable int id){
+        return orderItemDao.patchOI(id, changes);
+    }
+
     @DeleteMapping("/{id}")
     public int deleteOrderItem(@PathVariable int id){
         return orderItemDao.deleteOI(id);
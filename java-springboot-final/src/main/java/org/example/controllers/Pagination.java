@@ -0,0 +1,99 @@
+package org.example.controllers;
+
+import org.example.models.Page;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Helpers for keyset-paginated listings.
+ * Cursors are the base64url encoded key of the last item on the previous page.
+ */
+final class Pagination {
+    /**
+     * The largest page size a client may request.
+     */
+    static final int MAX_LIMIT = 1000;
+
+    private Pagination() {
+    }
+
+    /**
+     * Checks a requested page size and returns it, plus one so the caller can
+     * tell whether there is a next page without a second query.
+     *
+     * @param limit The requested page size.
+     * @return int The number of rows to fetch.
+     */
+    static int fetchSize(int limit) {
+        return checkLimit(limit) + 1;
+    }
+
+    /**
+     * Checks a requested page size and returns it.
+     *
+     * @param limit The requested page size.
+     * @return int The page size.
+     */
+    static int checkLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_LIMIT);
+        }
+        return limit;
+    }
+
+    /**
+     * Decodes a cursor into the key it was created from.
+     *
+     * @param cursor The cursor, or null for the first page.
+     * @param first The key to start from when there is no cursor.
+     * @return String
+     */
+    static String decode(String cursor, String first) {
+        if (cursor == null || cursor.isEmpty()) {
+            return first;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    /**
+     * Decodes a cursor into the numeric id it was created from.
+     *
+     * @param cursor The cursor, or null for the first page.
+     * @return int
+     */
+    static int decodeId(String cursor) {
+        try {
+            return Integer.parseInt(decode(cursor, "0"));
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    /**
+     * Builds a page from rows fetched with {@link #fetchSize(int)}.
+     *
+     * @param rows The fetched rows.
+     * @param limit The requested page size.
+     * @param key Gets the key of a row.
+     * @param <T> The type of the rows.
+     * @return Page of T
+     */
+    static <T> Page<T> page(List<T> rows, int limit, Function<T, Object> key) {
+        if (rows.size() <= limit) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        String last = String.valueOf(key.apply(items.get(limit - 1)));
+        String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8));
+        return new Page<>(items, cursor);
+    }
+}
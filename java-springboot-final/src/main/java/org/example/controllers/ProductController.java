@@ -1,15 +1,29 @@
 package org.example.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.daos.EntityVersions;
 import org.example.daos.ProductDao;
+import org.example.daos.ProductSearchIndex;
 import org.example.daos.UserDao;
 import org.example.models.Order;
+import jakarta.servlet.http.HttpServletRequest;
+import org.example.models.BulkResult;
+import org.example.models.Page;
 import org.example.models.Product;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @CrossOrigin
@@ -20,14 +34,60 @@ public class ProductController {
     @Autowired
     private ProductDao productDao;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EntityVersions versions;
+
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @Value("${webstore.bulk.batch-size:500}")
+    private int bulkBatchSize;
+
     @GetMapping
-    public List<Product> getProducts(){
-        return productDao.getAllProduct();
+    public List<Product> getProducts(@RequestParam(required = false) BigDecimal minPrice,
+                                     @RequestParam(required = false) BigDecimal maxPrice,
+                                     @RequestParam(required = false) String name,
+                                     @RequestParam(defaultValue = "id") String sort,
+                                     @RequestParam(defaultValue = "asc") String direction,
+                                     WebRequest request){
+        if (minPrice == null && maxPrice == null && name == null && sort.equals("id") && direction.equals("asc")){
+            return ConditionalGets.list(request, versions, "products", productDao::getAllProduct);
+        }
+        return ConditionalGets.list(request, versions, "products",
+                () -> productDao.findProducts(minPrice, maxPrice, name, sort, direction, null, null));
+    }
+
+    @GetMapping(params = "limit")
+    public Page<Product> getProductPage(@RequestParam int limit, @RequestParam(required = false) String cursor,
+                                        @RequestParam(required = false) BigDecimal minPrice,
+                                        @RequestParam(required = false) BigDecimal maxPrice,
+                                        @RequestParam(required = false) String name,
+                                        @RequestParam(defaultValue = "id") String sort,
+                                        @RequestParam(defaultValue = "asc") String direction,
+                                        WebRequest request){
+        String after = Pagination.decode(cursor, null);
+        int fetchSize = Pagination.fetchSize(limit);
+        return ConditionalGets.list(request, versions, "products",
+                () -> Pagination.page(productDao.findProducts(minPrice, maxPrice, name, sort, direction, after, fetchSize),
+                        limit, product -> ProductDao.sortKey(product, sort)));
+    }
+
+    @GetMapping(path = "/search")
+    public List<Product> searchProducts(@RequestParam String q, @RequestParam(defaultValue = "20") int limit){
+        return searchIndex.search(q, Pagination.checkLimit(limit));
+    }
+
+    @GetMapping(produces = NdjsonResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamProducts(){
+        return NdjsonResponses.stream(objectMapper, productDao::streamAllProduct);
     }
 
     @GetMapping(path = "/{id}")
-    public Product getProductById(@PathVariable int id){
-        return productDao.getProductById(id);
+    public Product getProductById(@PathVariable int id, WebRequest request){
+        return ConditionalGets.one(request, versions, "products", id, () -> productDao.getProductById(id), Product::getVersion);
     }
 
     @ResponseStatus(HttpStatus.CREATED)
@@ -37,11 +97,46 @@ public class ProductController {
         return productDao.createProduct(product);
     }
 
+    @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, NdjsonResponses.NDJSON})
+    public List<BulkResult> bulkSaveProducts(HttpServletRequest request,
+                                             @RequestParam(defaultValue = "false") boolean upsert) throws IOException {
+        return BulkRequests.process(objectMapper, Product.class, request.getInputStream(), bulkBatchSize,
+                batch -> productDao.saveProducts(batch, upsert));
+    }
+
     @PutMapping(path = "/{id}")
     public Product updateProduct(@RequestBody Product product, @PathVariable int id){
         return productDao.updateProduct(product, id);
     }
 
+    @PatchMapping(path = "/{id}")
+    public Product patchProduct(@RequestBody Map<String, Object> changes, @PathVariable int id){
+        return productDao.patchProduct(id, changes);
+    }
+
+    @GetMapping(path = "/{id}/stock")
+    public Integer getStock(@PathVariable int id){
+        return productDao.getStock(id);
+    }
+
+    /**
+     * Sets the stock of a product. A null body stops tracking its stock, so
+     * order items no longer reserve any.
+     */
+    @PutMapping(path = "/{id}/stock")
+    public Integer setStock(@RequestBody(required = false) Integer stock, @PathVariable int id){
+        productDao.setStock(id, stock);
+        return stock;
+    }
+
+    /**
+     * Gives back the stock held by nodes that died with leases outstanding.
+     */
+    @PostMapping(path = "/stock/reconcile")
+    public int reconcileStock(){
+        return productDao.reconcileStock();
+    }
+
     @DeleteMapping(path = "/{id}")
     public int deleteProduct(@PathVariable int id){
         return productDao.deleteProduct(id);
@@ -4,6 +4,7 @@ import org.example.daos.UserDao;
 import org.example.models.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import java.security.Principal;
@@ -22,6 +23,12 @@ public class ProfileController {
     @Autowired
     private UserDao userDao;
 
+    /**
+     * Hashes passwords before they reach the DAO, outside the database gate.
+     */
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
     /**
      * Gets the profile of the currently logged in user.
      *
@@ -56,9 +63,6 @@ public class ProfileController {
     @PutMapping("/change-password")
     public User changePassword(Principal principal, @RequestBody String newPassword) {
         String username = principal.getName();
-        User user = userDao.getUserByUsername(username);
-        user.setPassword(newPassword);
-
-        return userDao.updatePassword(user);
+        return userDao.updatePassword(new User(username, passwordEncoder.encode(newPassword)));
     }
 }
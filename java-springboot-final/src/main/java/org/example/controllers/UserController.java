@@ -1,11 +1,16 @@
 package org.example.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.models.Page;
 import org.example.models.User;
 import org.example.daos.UserDao;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
@@ -25,6 +30,18 @@ public class UserController {
     @Autowired
     private UserDao userDao;
 
+    /**
+     * Hashes passwords before they reach the DAO, outside the database gate.
+     */
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    /**
+     * The object mapper for streaming responses.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Gets all users.
      *
@@ -36,6 +53,29 @@ public class UserController {
         return userDao.getUsers();
     }
 
+    /**
+     * Gets a page of users ordered by username.
+     *
+     * @param limit The maximum number of users to return.
+     * @param cursor The cursor from the previous page, if any.
+     * @return A page of users.
+     */
+    @GetMapping(params = "limit")
+    public Page<User> getPage(@RequestParam int limit, @RequestParam(required = false) String cursor) {
+        var rows = userDao.getUsersPage(Pagination.decode(cursor, ""), Pagination.fetchSize(limit));
+        return Pagination.page(rows, limit, User::getUsername);
+    }
+
+    /**
+     * Streams all users as newline delimited JSON.
+     *
+     * @return The streaming response.
+     */
+    @GetMapping(produces = NdjsonResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAll() {
+        return NdjsonResponses.stream(objectMapper, userDao::streamUsers);
+    }
+
     /**
      * Gets a user by their username.
      *
@@ -57,7 +97,7 @@ public class UserController {
     @PostMapping
     @PreAuthorize("permitAll()")
     public User create(@RequestBody User user) {
-        return userDao.createUser(user);
+        return userDao.createUser(new User(user.getUsername(), passwordEncoder.encode(user.getPassword())));
     }
 
     /**
@@ -69,12 +109,7 @@ public class UserController {
      */
     @PutMapping(path = "/{username}/password")
     public User updatePassword(@RequestBody String password, @PathVariable String username) {
-        User user = userDao.getUserByUsername(username);
-        if (user == null) {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found");
-        }
-        user.setPassword(password);
-        return userDao.updatePassword(user);
+        return userDao.updatePassword(new User(username, passwordEncoder.encode(password)));
     }
 
     /**
@@ -0,0 +1,178 @@
+package org.example.daos;
+
+import org.example.models.ProductSales;
+import org.example.models.UserSpend;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sales aggregates computed by the database.
+ * <p>
+ * Every query joins and groups in SQL and returns one row per product or
+ * user, so the cost is a scan of the matching order items rather than a
+ * download of every row. Orders are filtered by the day they were placed,
+ * using {@code idx_orders_created_at}, and by user, using
+ * {@code idx_orders_username_created_at}. Revenue is quantity times the
+ * product's current price, since prices are not kept per order; a
+ * product without a price earns nothing.
+ * <p>
+ * When orders are sharded every shard runs the same query, using its copy
+ * of the products, and the rows are combined here. A user's orders all
+ * live on one shard, so user rows are only ranked again; a product sells
+ * on every shard, so its rows are summed first.
+ */
+@Component
+public class AnalyticsDao {
+    /**
+     * The JDBC template for querying the database.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The order shards, queried instead when orders are sharded.
+     */
+    private final OrderShards shards;
+
+    /**
+     * Creates a new analytics data access object.
+     *
+     * @param dataSource The data source for the data access object.
+     * @param shards The order shards.
+     */
+    public AnalyticsDao(DataSource dataSource, OrderShards shards) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.shards = shards;
+    }
+
+    /**
+     * Gets the units sold and revenue of each product, best selling first.
+     *
+     * @param from The first day to include, or null for no lower bound.
+     * @param to The last day to include, or null for no upper bound.
+     * @param username Only count orders of this user, or null for every user.
+     * @param sort "revenue" or "units", the measure to rank the products by.
+     * @param limit The maximum number of products to return.
+     * @return List of ProductSales
+     */
+    public List<ProductSales> getProductSales(LocalDate from, LocalDate to, String username, String sort, int limit) {
+        String orderBy = switch (sort) {
+            case "revenue" -> "revenue DESC";
+            case "units" -> "units_sold DESC";
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be revenue or units");
+        };
+        Comparator<ProductSales> ranking = (sort.equals("revenue")
+                ? Comparator.comparing(ProductSales::getRevenue).reversed()
+                : Comparator.comparingLong(ProductSales::getUnitsSold).reversed())
+                .thenComparingInt(ProductSales::getProductId);
+        List<Object> args = new ArrayList<>();
+        String conditions = filter(from, to, username, args);
+        // Without an order filter there is nothing to join orders for.
+        String sql = "SELECT p.id, p.name, SUM(oi.quantity) AS units_sold, COALESCE(SUM(oi.quantity * p.price), 0) AS revenue, " +
+                "COUNT(DISTINCT oi.order_id) AS order_count " +
+                "FROM order_items oi " +
+                (args.isEmpty() ? "" : "JOIN orders o ON o.id = oi.order_id ") +
+                "JOIN products p ON p.id = oi.product_id " +
+                "WHERE " + conditions + " " +
+                "GROUP BY p.id, p.name ";
+        if (!shards.isSharded()) {
+            args.add(limit);
+            return jdbcTemplate.query(sql + "ORDER BY " + orderBy + ", p.id LIMIT ?;", this::mapToProductSales, args.toArray());
+        }
+
+        // Any product can be in the top on the sum without being in any shard's top, so shards return every product.
+        Map<Integer, ProductSales> products = new HashMap<>();
+        for (List<ProductSales> rows : shards.queryAll((shardJdbcTemplate, shard) ->
+                shardJdbcTemplate.query(sql + ";", this::mapToProductSales, args.toArray()))) {
+            for (ProductSales row : rows) {
+                products.merge(row.getProductId(), row, (sum, more) -> {
+                    sum.setUnitsSold(sum.getUnitsSold() + more.getUnitsSold());
+                    sum.setRevenue(sum.getRevenue().add(more.getRevenue()));
+                    sum.setOrderCount(sum.getOrderCount() + more.getOrderCount());
+                    return sum;
+                });
+            }
+        }
+        return products.values().stream().sorted(ranking).limit(limit).toList();
+    }
+
+    /**
+     * Gets the number of orders and the spend of each user, biggest spender
+     * first. Reads the totals kept on each order, so no items are joined.
+     *
+     * @param from The first day to include, or null for no lower bound.
+     * @param to The last day to include, or null for no upper bound.
+     * @param username Only include this user, or null for every user.
+     * @param limit The maximum number of users to return.
+     * @return List of UserSpend
+     */
+    public List<UserSpend> getUserSpend(LocalDate from, LocalDate to, String username, int limit) {
+        List<Object> args = new ArrayList<>();
+        String sql = "SELECT o.username, COUNT(*) AS order_count, SUM(o.item_count) AS item_count, COALESCE(SUM(o.total), 0) AS spend " +
+                "FROM orders o " +
+                "WHERE " + filter(from, to, username, args) + " " +
+                "GROUP BY o.username " +
+                "ORDER BY spend DESC, o.username " +
+                "LIMIT ?;";
+        args.add(limit);
+        if (!shards.isSharded()) {
+            return jdbcTemplate.query(sql, this::mapToUserSpend, args.toArray());
+        }
+        return shards.queryAll((shardJdbcTemplate, shard) -> shardJdbcTemplate.query(sql, this::mapToUserSpend, args.toArray())).stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(UserSpend::getSpend).reversed().thenComparing(UserSpend::getUsername))
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Builds the WHERE condition on orders for the optional date and user filters.
+     * Days are whole: {@code to} includes every order placed on that day.
+     */
+    private String filter(LocalDate from, LocalDate to, String username, List<Object> args) {
+        List<String> conditions = new ArrayList<>();
+        if (username != null) {
+            conditions.add("o.username = ?");
+            args.add(username);
+        }
+        if (from != null) {
+            conditions.add("o.created_at >= ?");
+            args.add(from.atStartOfDay());
+        }
+        if (to != null) {
+            conditions.add("o.created_at < ?");
+            args.add(to.plusDays(1).atStartOfDay());
+        }
+        return conditions.isEmpty() ? "TRUE" : String.join(" AND ", conditions);
+    }
+
+    private ProductSales mapToProductSales(ResultSet resultSet, int rowNumber) throws SQLException {
+        return new ProductSales(
+                resultSet.getInt("id"),
+                resultSet.getString("name"),
+                resultSet.getLong("units_sold"),
+                resultSet.getBigDecimal("revenue"),
+                resultSet.getLong("order_count")
+        );
+    }
+
+    private UserSpend mapToUserSpend(ResultSet resultSet, int rowNumber) throws SQLException {
+        return new UserSpend(
+                resultSet.getString("username"),
+                resultSet.getLong("order_count"),
+                resultSet.getLong("item_count"),
+                resultSet.getBigDecimal("spend")
+        );
+    }
+}
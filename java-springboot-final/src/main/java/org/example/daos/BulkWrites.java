@@ -0,0 +1,95 @@
+package org.example.daos;
+
+import org.example.models.BulkResult;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Writes a batch of rows with at most two batched statements: one insert
+ * for new rows and one upsert for rows that carry an id.
+ */
+final class BulkWrites {
+    private BulkWrites() {
+    }
+
+    /**
+     * Saves a batch of rows.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param idAllocator The allocator for the ids of new rows.
+     * @param table The table to write to.
+     * @param columns The comma separated columns to write, without the id column.
+     * @param rows The rows to write.
+     * @param upsert Whether rows with an id should be inserted or updated under that id.
+     *               Otherwise every row is inserted as a new row.
+     * @param id Gets the id of a row, 0 if it has none.
+     * @param values Gets the column values of a row.
+     * @param <T> The type of the rows.
+     * @return List of BulkResult, one per row, indexed from 0.
+     */
+    static <T> List<BulkResult> save(JdbcTemplate jdbcTemplate, IdAllocator idAllocator, String table, String columns,
+                                     List<T> rows, boolean upsert, ToIntFunction<T> id, Function<T, Object[]> values) {
+        BulkResult[] results = new BulkResult[rows.size()];
+        List<Integer> inserted = new ArrayList<>();
+        List<Object[]> insertArgs = new ArrayList<>();
+        List<Integer> upserted = new ArrayList<>();
+        List<Object[]> upsertArgs = new ArrayList<>();
+
+        for (int i = 0; i < rows.size(); i++) {
+            T row = rows.get(i);
+            if (upsert && id.applyAsInt(row) > 0) {
+                Object[] rowValues = values.apply(row);
+                Object[] args = new Object[rowValues.length + 1];
+                args[0] = id.applyAsInt(row);
+                System.arraycopy(rowValues, 0, args, 1, rowValues.length);
+                upserted.add(i);
+                upsertArgs.add(args);
+            } else {
+                inserted.add(i);
+                insertArgs.add(values.apply(row));
+            }
+        }
+
+        int[] ids = idAllocator.insertBatch(jdbcTemplate, table, columns, insertArgs);
+        for (int i = 0; i < ids.length; i++) {
+            results[inserted.get(i)] = new BulkResult(inserted.get(i), ids[i], BulkResult.Status.CREATED, null);
+        }
+
+        if (!upsertArgs.isEmpty()) {
+            String updates = Arrays.stream(columns.split(","))
+                    .map(String::trim)
+                    .map(column -> column + " = VALUES(" + column + ")")
+                    .collect(Collectors.joining(", "));
+            String placeholders = String.join(", ", Collections.nCopies(upsertArgs.get(0).length, "?"));
+            String sql = "INSERT INTO " + table + " (id, " + columns + ") VALUES (" + placeholders + ") " +
+                    "ON DUPLICATE KEY UPDATE " + updates + ";";
+            int[] counts = jdbcTemplate.batchUpdate(sql, upsertArgs);
+            for (int i = 0; i < counts.length; i++) {
+                int index = upserted.get(i);
+                results[index] = new BulkResult(index, (int) upsertArgs.get(i)[0], upsertStatus(counts[i]), null);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Maps the MySQL update count of an upserted row to its outcome.
+     * 1 means inserted, 2 means updated and 0 means updated to the same values.
+     * Rewritten or bulk batches report no per-row count at all.
+     */
+    private static BulkResult.Status upsertStatus(int count) {
+        if (count == 1) {
+            return BulkResult.Status.CREATED;
+        } else if (count == 2 || count == 0) {
+            return BulkResult.Status.UPDATED;
+        }
+        return BulkResult.Status.UPSERTED;
+    }
+}
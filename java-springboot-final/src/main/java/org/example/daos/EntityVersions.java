@@ -0,0 +1,285 @@
+package org.example.daos;
+
+import org.example.config.CacheConfiguration;
+import org.example.exceptions.DaoException;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out row versions and remembers the latest known version of each
+ * row and table, so conditional GETs can be answered without a query.
+ * <p>
+ * A version is a timestamp in microseconds, bumped past the previous one
+ * so that every write on this node gets a distinct, increasing version.
+ * Every row carries its version, which replicas and shards copy along with
+ * the row, so by default a conditional GET reads the row and compares the
+ * version stored in it, and a table's version is read from the database as
+ * its highest row version together with its row count. A write on any node
+ * raises the highest version and a delete lowers the count, so list ETags
+ * hold across nodes. Sharded tables are read on every shard. The count
+ * scans the table, so a list validator costs a query of its own, but
+ * never a read of the list.
+ * <p>
+ * With {@code webstore.cache.versions.enabled=true} the versions are also
+ * kept in the {@code versions} cache: the DAOs record every write here and
+ * the controllers record every row they read, so conditional GETs are
+ * answered without a query. A cached table version changes whenever any of
+ * its rows does, and is minted fresh when unknown, so list ETags only ever
+ * err towards a 200. The cache is local to this node, so it is only
+ * correct for a single node: writes made outside the DAOs or on another
+ * node are not seen, and a row known here is answered with 304 until its
+ * TTL runs out. Reads from a lagging replica only ever record older
+ * versions, which never replace newer ones.
+ * <p>
+ * Row versions are keyed by table, generation and id. A cascade bumps the
+ * table's generation instead of looking for the table's rows, so the rows
+ * recorded before it are no longer found and age out of the cache.
+ */
+@Component
+public class EntityVersions {
+    /**
+     * Marks a deleted row, so a late read cannot bring its old version back.
+     */
+    private static final long DELETED = Long.MAX_VALUE;
+
+    /**
+     * The tables whose rows are split over the order shards.
+     */
+    private static final Set<String> SHARDED_TABLES = Set.of("orders", "order_items");
+
+    /**
+     * The tables a version can be read for, which also keeps table names out of the SQL.
+     */
+    private static final Set<String> TABLES = Set.of("products", "orders", "order_items");
+
+    /**
+     * The last version handed out.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * The versions by table name and by {@code table:generation:id}, or null if the cache is disabled.
+     */
+    private final ConcurrentMap<Object, Object> versions;
+
+    /**
+     * The current generation of each table's row versions.
+     */
+    private final ConcurrentMap<String, Long> generations = new ConcurrentHashMap<>();
+
+    /**
+     * The JDBC template for reading table versions from the primary.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The order shards, for the versions of sharded tables.
+     */
+    private final OrderShards shards;
+
+    /**
+     * Creates a new version store.
+     *
+     * @param cacheManager The cache manager holding the versions cache.
+     * @param dataSource The data source to read table versions from.
+     * @param shards The order shards, to read the versions of sharded tables from.
+     */
+    public EntityVersions(CacheManager cacheManager, DataSource dataSource, OrderShards shards) {
+        Cache cache = cacheManager.getCache(CacheConfiguration.VERSIONS);
+        this.versions = cache instanceof CaffeineCache caffeineCache ? caffeineCache.getNativeCache().asMap() : null;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.shards = shards;
+    }
+
+    /**
+     * Hands out a new version.
+     *
+     * @return long A version greater than every version handed out before.
+     */
+    public long next() {
+        long now = System.currentTimeMillis() * 1000;
+        return last.accumulateAndGet(now, (previous, time) -> Math.max(previous + 1, time));
+    }
+
+    /**
+     * Records that a row was written with a version.
+     *
+     * @param table The table of the row.
+     * @param id The id of the row.
+     * @param version The version the row was written with.
+     */
+    public void written(String table, int id, long version) {
+        if (versions == null) {
+            return;
+        }
+        versions.merge(key(table, id), version, EntityVersions::latest);
+        versions.merge(table, version, EntityVersions::latest);
+    }
+
+    /**
+     * Records that many rows of a table were written, without tracking each row.
+     *
+     * @param table The table that was written.
+     * @param ids The ids of the rows that were written.
+     */
+    public void written(String table, Iterable<Integer> ids) {
+        if (versions == null) {
+            return;
+        }
+        for (Integer id : ids) {
+            versions.remove(key(table, id));
+        }
+        versions.merge(table, next(), EntityVersions::latest);
+    }
+
+    /**
+     * Records that a row was deleted, along with any rows that cascaded from it.
+     *
+     * @param table The table of the row.
+     * @param id The id of the row.
+     * @param cascades The tables whose rows may have been deleted by the cascade.
+     */
+    public void deleted(String table, int id, String... cascades) {
+        if (versions == null) {
+            return;
+        }
+        versions.put(key(table, id), DELETED);
+        versions.merge(table, next(), EntityVersions::latest);
+        cascaded(cascades);
+    }
+
+    /**
+     * Records that rows of some tables may have been deleted by a cascade
+     * from a table that is not versioned.
+     *
+     * @param tables The tables whose rows may have been deleted.
+     */
+    public void cascaded(String... tables) {
+        if (versions == null) {
+            return;
+        }
+        for (String table : tables) {
+            generations.merge(table, 1L, Long::sum);
+            versions.merge(table, next(), EntityVersions::latest);
+        }
+    }
+
+    /**
+     * Records the version of a row that was read.
+     *
+     * @param table The table of the row.
+     * @param id The id of the row.
+     * @param version The version that was read.
+     */
+    public void read(String table, int id, long version) {
+        if (versions != null) {
+            versions.merge(key(table, id), version, EntityVersions::latest);
+        }
+    }
+
+    /**
+     * Gets the latest known version of a row.
+     *
+     * @param table The table of the row.
+     * @param id The id of the row.
+     * @return Long The version, or null if it is unknown or the row was deleted.
+     */
+    public Long version(String table, int id) {
+        if (versions == null) {
+            return null;
+        }
+        Object version = versions.get(key(table, id));
+        return version == null || (Long) version == DELETED ? null : (Long) version;
+    }
+
+    /**
+     * Gets the version of a table, which changes whenever any of its rows do.
+     *
+     * @param table The table.
+     * @return TableVersion
+     */
+    public TableVersion tableVersion(String table) {
+        if (versions != null) {
+            long version = (Long) versions.computeIfAbsent(table, name -> next());
+            return new TableVersion(version, String.valueOf(version));
+        }
+        if (!TABLES.contains(table)) {
+            throw new DaoException("Cannot read the version of table " + table);
+        }
+        String sql = "SELECT COALESCE(MAX(version), 0) AS version, COUNT(*) AS row_count FROM " + table + ";";
+        RowMapper<long[]> mapper = (resultSet, rowNumber) -> new long[]{resultSet.getLong("version"), resultSet.getLong("row_count")};
+        List<List<long[]>> results = SHARDED_TABLES.contains(table)
+                ? shards.queryAll((shardJdbcTemplate, shard) -> shardJdbcTemplate.query(sql, mapper))
+                : List.of(jdbcTemplate.query(sql, mapper));
+        long version = 0;
+        long rows = 0;
+        for (List<long[]> result : results) {
+            version = Math.max(version, result.get(0)[0]);
+            rows += result.get(0)[1];
+        }
+        return new TableVersion(version, version + "-" + rows);
+    }
+
+    private String key(String table, int id) {
+        return table + ":" + generations.getOrDefault(table, 0L) + ":" + id;
+    }
+
+    private static Object latest(Object a, Object b) {
+        return Math.max((Long) a, (Long) b);
+    }
+
+    /**
+     * The version of a table, with the tag that identifies it in an ETag.
+     */
+    public static class TableVersion {
+        /**
+         * The latest version of any row in the table.
+         */
+        private final long version;
+
+        /**
+         * The tag that changes whenever the table does.
+         */
+        private final String tag;
+
+        /**
+         * Creates a new table version.
+         *
+         * @param version The latest version of any row in the table.
+         * @param tag The tag that changes whenever the table does.
+         */
+        public TableVersion(long version, String tag) {
+            this.version = version;
+            this.tag = tag;
+        }
+
+        /**
+         * Gets the latest version of any row in the table.
+         *
+         * @return long
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets the tag that changes whenever the table does.
+         *
+         * @return String
+         */
+        public String getTag() {
+            return tag;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.example.daos;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.config.DatabaseGate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalesces concurrent inserts into one multi-row insert and one commit.
+ * <p>
+ * The first caller to arrive opens a batch and waits up to
+ * {@code webstore.group-commit.max-delay} for others to join it, or until it
+ * holds {@code webstore.group-commit.max-rows} rows, then writes the whole
+ * batch on its own thread. Everyone else waits for their row's result. If a
+ * batch fails, its rows are retried one at a time, so one bad row only fails
+ * its own caller.
+ * <p>
+ * Batching is off unless {@code webstore.group-commit.enabled} is set, and
+ * is skipped for a caller already inside a transaction, whose insert has to
+ * commit or roll back with the rest of that transaction. With the
+ * {@link DatabaseGate} on, callers give their permit back while a batch
+ * gathers, and the leader takes one only to write it, so waiting callers
+ * never hold permits that the rest of the application needs. Rows per batch are
+ * published as {@code webstore.group-commit.rows{table}}, and rows retried
+ * alone after a failed batch as {@code webstore.group-commit.retries{table}}.
+ */
+@Component
+public class GroupCommit {
+    /**
+     * Whether inserts are coalesced at all.
+     */
+    private final boolean enabled;
+
+    /**
+     * The most rows written by one batch.
+     */
+    private final int maxRows;
+
+    /**
+     * How long the first caller waits for others, in nanoseconds.
+     */
+    private final long maxDelayNanos;
+
+    /**
+     * The registry to publish each batcher's meters to.
+     */
+    private final MeterRegistry registry;
+
+    /**
+     * The database gate, or null if it is off.
+     */
+    private final DatabaseGate gate;
+
+    /**
+     * Creates a new group commit.
+     *
+     * @param enabled Whether inserts are coalesced at all.
+     * @param maxRows The most rows written by one batch.
+     * @param maxDelay How long the first caller waits for others.
+     * @param registry The registry to publish each batcher's meters to.
+     * @param gate The database gate, if it is on.
+     */
+    public GroupCommit(@Value("${webstore.group-commit.enabled:false}") boolean enabled,
+                       @Value("${webstore.group-commit.max-rows:200}") int maxRows,
+                       @Value("${webstore.group-commit.max-delay:300us}") Duration maxDelay,
+                       MeterRegistry registry, ObjectProvider<DatabaseGate> gate) {
+        this.enabled = enabled && maxRows > 1;
+        this.maxRows = maxRows;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.registry = registry;
+        this.gate = gate.getIfAvailable();
+    }
+
+    /**
+     * Creates a batcher for one table.
+     *
+     * @param table The table, used to tag the meters.
+     * @param writer Writes a batch.
+     * @param <R> The type of the rows to insert.
+     * @param <T> The type of the result of each row.
+     * @return Batcher
+     */
+    public <R, T> Batcher<R, T> batcher(String table, Writer<R, T> writer) {
+        return new Batcher<>(table, writer);
+    }
+
+    /**
+     * Writes a batch of rows to a shard in one transaction.
+     *
+     * @param <R> The type of the rows to insert.
+     * @param <T> The type of the result of each row.
+     */
+    @FunctionalInterface
+    public interface Writer<R, T> {
+        /**
+         * Writes the rows.
+         *
+         * @param shard The shard, see {@link OrderShards}.
+         * @param rows The rows.
+         * @return List of T, one result per row, in order.
+         */
+        List<T> write(int shard, List<R> rows);
+    }
+
+    /**
+     * Collects the rows for one table, with a batch open per shard.
+     *
+     * @param <R> The type of the rows to insert.
+     * @param <T> The type of the result of each row.
+     */
+    public class Batcher<R, T> {
+        /**
+         * Writes a batch.
+         */
+        private final Writer<R, T> writer;
+
+        /**
+         * The batch accepting rows on each shard. Guarded by itself.
+         */
+        private final Map<Integer, Batch<R, T>> open = new HashMap<>();
+
+        /**
+         * The rows written per batch.
+         */
+        private final DistributionSummary rows;
+
+        /**
+         * The rows retried alone after their batch failed.
+         */
+        private final Counter retries;
+
+        private Batcher(String table, Writer<R, T> writer) {
+            this.writer = writer;
+            this.rows = DistributionSummary.builder("webstore.group-commit.rows")
+                    .description("Rows written per group commit")
+                    .baseUnit("rows")
+                    .tag("table", table)
+                    .register(registry);
+            this.retries = Counter.builder("webstore.group-commit.retries")
+                    .description("Rows retried alone after their group commit failed")
+                    .tag("table", table)
+                    .register(registry);
+        }
+
+        /**
+         * Inserts a row, together with any others arriving at the same time.
+         *
+         * @param shard The shard to insert into.
+         * @param row The row.
+         * @return T The result of the row.
+         */
+        public T submit(int shard, R row) {
+            if (!enabled || TransactionSynchronizationManager.isActualTransactionActive()) {
+                return writer.write(shard, List.of(row)).get(0);
+            }
+            return gate == null ? join(shard, row) : gate.withoutPermit(() -> join(shard, row));
+        }
+
+        /**
+         * Adds a row to the open batch, writing the batch if this caller
+         * opened it, and waits for the row's result.
+         */
+        private T join(int shard, R row) {
+            Batch<R, T> batch;
+            CompletableFuture<T> result = new CompletableFuture<>();
+            boolean leader;
+            synchronized (open) {
+                batch = open.get(shard);
+                leader = batch == null;
+                if (leader) {
+                    batch = new Batch<>(Thread.currentThread());
+                    open.put(shard, batch);
+                }
+                batch.rows.add(row);
+                batch.results.add(result);
+                if (batch.rows.size() >= maxRows) {
+                    open.remove(shard);
+                    batch.closed = true;
+                }
+            }
+
+            if (leader) {
+                long deadline = System.nanoTime() + maxDelayNanos;
+                long left;
+                while (!batch.closed && (left = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, left);
+                }
+                synchronized (open) {
+                    open.remove(shard, batch);
+                    batch.closed = true;
+                }
+                Batch<R, T> closed = batch;
+                try {
+                    if (gate == null) {
+                        flush(shard, closed);
+                    } else {
+                        gate.withPermit(() -> {
+                            flush(shard, closed);
+                            return null;
+                        });
+                    }
+                } catch (Throwable e) {
+                    // No permit came free, or the flush itself broke: nobody may be left waiting.
+                    for (CompletableFuture<T> waiting : closed.results) {
+                        waiting.completeExceptionally(e);
+                    }
+                }
+            } else if (batch.closed) {
+                LockSupport.unpark(batch.leader);
+            }
+
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Writes a closed batch and hands each caller its result.
+         */
+        private void flush(int shard, Batch<R, T> batch) {
+            rows.record(batch.rows.size());
+            try {
+                List<T> written = writer.write(shard, batch.rows);
+                for (int i = 0; i < written.size(); i++) {
+                    batch.results.get(i).complete(written.get(i));
+                }
+            } catch (Throwable e) {
+                if (batch.rows.size() == 1) {
+                    batch.results.get(0).completeExceptionally(e);
+                    return;
+                }
+                retries.increment(batch.rows.size());
+                for (int i = 0; i < batch.rows.size(); i++) {
+                    try {
+                        batch.results.get(i).complete(writer.write(shard, List.of(batch.rows.get(i))).get(0));
+                    } catch (Throwable failure) {
+                        batch.results.get(i).completeExceptionally(failure);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The rows of one batch and their callers' results.
+     */
+    private static class Batch<R, T> {
+        /**
+         * The caller that opened the batch and writes it.
+         */
+        private final Thread leader;
+
+        /**
+         * The rows, in arrival order.
+         */
+        private final List<R> rows = new ArrayList<>();
+
+        /**
+         * The result of each row.
+         */
+        private final List<CompletableFuture<T>> results = new ArrayList<>();
+
+        /**
+         * Whether the batch stopped taking rows.
+         */
+        private volatile boolean closed;
+
+        Batch(Thread leader) {
+            this.leader = leader;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package org.example.daos;
+
+import org.example.exceptions.DaoException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Allocates primary keys for new rows.
+ * <p>
+ * By default, ids come from the table's auto_increment column and are read
+ * back as generated keys, so an insert is a single statement regardless of
+ * the size of the table.
+ * <p>
+ * When {@code webstore.ids.block-size} is greater than zero, ids are instead
+ * handed out from blocks reserved in the {@code id_sequences} table. One
+ * round trip reserves a whole block, which bulk loaders can use to insert
+ * rows with known ids. Block mode must be enabled on every node that writes
+ * to the tables, otherwise auto_increment ids may collide with reserved ones.
+ */
+@Component
+public class IdAllocator {
+    /**
+     * The tables that ids can be allocated for.
+     */
+    private static final Set<String> TABLES = Set.of("products", "orders", "order_items");
+
+    /**
+     * The JDBC template for querying the database.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The number of ids reserved per round trip, or 0 to use auto_increment.
+     */
+    private final int blockSize;
+
+    /**
+     * The block currently being handed out for each table.
+     */
+    private final Map<String, IdRange> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new id allocator.
+     *
+     * @param dataSource The data source for the allocator.
+     * @param blockSize The number of ids reserved per round trip, or 0 to use auto_increment.
+     */
+    public IdAllocator(DataSource dataSource, @Value("${webstore.ids.block-size:0}") int blockSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Whether ids are allocated from reserved blocks instead of auto_increment.
+     *
+     * @return boolean
+     */
+    public boolean isBlockMode() {
+        return blockSize > 0;
+    }
+
+    /**
+     * Inserts a row and returns its id.
+     *
+     * @param table The table to insert into.
+     * @param columns The comma separated columns to insert, without the id column.
+     * @param values The values for the columns.
+     * @return int The id of the new row.
+     */
+    public int insert(String table, String columns, Object... values) {
+        return insert(jdbcTemplate, table, columns, values);
+    }
+
+    /**
+     * Inserts a row through another JDBC template, such as an order shard's,
+     * and returns its id. Blocks are still reserved on the allocator's own
+     * data source.
+     *
+     * @param target The JDBC template to insert with.
+     * @param table The table to insert into.
+     * @param columns The comma separated columns to insert, without the id column.
+     * @param values The values for the columns.
+     * @return int The id of the new row.
+     */
+    public int insert(JdbcTemplate target, String table, String columns, Object... values) {
+        checkTable(table);
+        String placeholders = String.join(", ", Collections.nCopies(values.length, "?"));
+
+        if (isBlockMode()) {
+            int id = nextId(table);
+            Object[] args = new Object[values.length + 1];
+            args[0] = id;
+            System.arraycopy(values, 0, args, 1, values.length);
+            target.update("INSERT INTO " + table + " (id, " + columns + ") VALUES (?, " + placeholders + ");", args);
+            return id;
+        }
+
+        String sql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders + ");";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        target.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            for (int i = 0; i < values.length; i++) {
+                statement.setObject(i + 1, values[i]);
+            }
+            return statement;
+        }, keyHolder);
+
+        Number key = keyHolder.getKey();
+        if (key == null) {
+            throw new DaoException("Failed to read generated id for " + table);
+        }
+        return key.intValue();
+    }
+
+    /**
+     * Inserts many rows with one batched statement and returns their ids.
+     * With {@code rewriteBatchedStatements=true} on the MySQL URL the batch
+     * is sent as multi-row inserts.
+     *
+     * @param table The table to insert into.
+     * @param columns The comma separated columns to insert, without the id column.
+     * @param rows The values for the columns, one array per row.
+     * @return int[] The ids of the new rows, in the same order as the rows.
+     */
+    public int[] insertBatch(String table, String columns, List<Object[]> rows) {
+        return insertBatch(jdbcTemplate, table, columns, rows);
+    }
+
+    /**
+     * Inserts many rows through another JDBC template, such as an order
+     * shard's, and returns their ids.
+     *
+     * @param target The JDBC template to insert with.
+     * @param table The table to insert into.
+     * @param columns The comma separated columns to insert, without the id column.
+     * @param rows The values for the columns, one array per row.
+     * @return int[] The ids of the new rows, in the same order as the rows.
+     */
+    public int[] insertBatch(JdbcTemplate target, String table, String columns, List<Object[]> rows) {
+        checkTable(table);
+        int[] ids = new int[rows.size()];
+        if (rows.isEmpty()) {
+            return ids;
+        }
+        int width = rows.get(0).length;
+        String placeholders = String.join(", ", Collections.nCopies(width, "?"));
+
+        if (isBlockMode()) {
+            IdRange range = reserve(table, rows.size());
+            List<Object[]> args = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                ids[i] = range.getStart() + i;
+                Object[] row = new Object[width + 1];
+                row[0] = ids[i];
+                System.arraycopy(rows.get(i), 0, row, 1, width);
+                args.add(row);
+            }
+            target.batchUpdate("INSERT INTO " + table + " (id, " + columns + ") VALUES (?, " + placeholders + ");", args);
+            return ids;
+        }
+
+        String sql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders + ");";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        target.batchUpdate(
+                connection -> connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement statement, int i) throws SQLException {
+                        Object[] row = rows.get(i);
+                        for (int column = 0; column < row.length; column++) {
+                            statement.setObject(column + 1, row[column]);
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return rows.size();
+                    }
+                },
+                keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        if (keys.size() != rows.size()) {
+            throw new DaoException("Expected " + rows.size() + " generated ids for " + table + " but got " + keys.size());
+        }
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ((Number) keys.get(i).values().iterator().next()).intValue();
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the next id for a table from its current block, reserving a new
+     * block when the current one is used up.
+     *
+     * @param table The table to allocate an id for.
+     * @return int
+     */
+    public int nextId(String table) {
+        checkTable(table);
+        while (true) {
+            IdRange block = blocks.get(table);
+            if (block != null) {
+                int id = block.take();
+                if (id != -1) {
+                    return id;
+                }
+            }
+            synchronized (this) {
+                if (blocks.get(table) == block) {
+                    blocks.put(table, reserve(table, blockSize));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves a contiguous range of ids for a table in one round trip.
+     * Intended for bulk loaders that insert rows with explicit ids.
+     *
+     * @param table The table to reserve ids for.
+     * @param count The number of ids to reserve.
+     * @return IdRange The reserved ids.
+     */
+    public IdRange reserve(String table, int count) {
+        checkTable(table);
+        if (!isBlockMode()) {
+            throw new DaoException("Id blocks can only be reserved when webstore.ids.block-size is set.");
+        }
+        if (count <= 0) {
+            throw new DaoException("Count must be positive.");
+        }
+
+        Integer end = jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            // Make sure the sequence starts after any rows written through auto_increment.
+            try (var seed = connection.prepareStatement(
+                    "INSERT INTO id_sequences (name, next_id) SELECT ?, COALESCE(MAX(id), 0) + 1 FROM " + table +
+                    " ON DUPLICATE KEY UPDATE next_id = GREATEST(next_id, VALUES(next_id));")) {
+                seed.setString(1, table);
+                seed.executeUpdate();
+            }
+            // LAST_INSERT_ID(expr) is per connection, so both statements share this one.
+            try (var bump = connection.prepareStatement(
+                    "UPDATE id_sequences SET next_id = LAST_INSERT_ID(next_id + ?) WHERE name = ?;")) {
+                bump.setInt(1, count);
+                bump.setString(2, table);
+                bump.executeUpdate();
+            }
+            try (var select = connection.createStatement();
+                 ResultSet resultSet = select.executeQuery("SELECT LAST_INSERT_ID();")) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        });
+
+        if (end == null) {
+            throw new DaoException("Failed to reserve ids for " + table);
+        }
+        return new IdRange(end - count, end);
+    }
+
+    /**
+     * Checks that ids can be allocated for a table. Table names are
+     * concatenated into SQL, so only known tables are accepted.
+     *
+     * @param table The table name.
+     */
+    private void checkTable(String table) {
+        if (!TABLES.contains(table)) {
+            throw new DaoException("Cannot allocate ids for table " + table);
+        }
+    }
+
+    /**
+     * A range of reserved ids, from {@code start} inclusive to {@code end} exclusive.
+     */
+    public static class IdRange {
+        /**
+         * The first id in the range.
+         */
+        private final int start;
+
+        /**
+         * The id after the last id in the range.
+         */
+        private final int end;
+
+        /**
+         * The next id to hand out.
+         */
+        private int next;
+
+        /**
+         * Creates a new id range.
+         *
+         * @param start The first id in the range.
+         * @param end The id after the last id in the range.
+         */
+        public IdRange(int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.next = start;
+        }
+
+        /**
+         * Gets the first id in the range.
+         *
+         * @return int
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the id after the last id in the range.
+         *
+         * @return int
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Takes the next unused id from the range.
+         *
+         * @return int The id, or -1 if the range is used up.
+         */
+        public synchronized int take() {
+            return next < end ? next++ : -1;
+        }
+    }
+}
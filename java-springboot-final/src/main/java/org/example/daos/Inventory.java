@@ -0,0 +1,574 @@
+package org.example.daos;
+
+import org.example.config.ReplicaRoutingDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+/**
+ * Reserves product stock for order items without taking the product's row
+ * lock on every reservation.
+ * <p>
+ * {@code products.stock} holds the units no node has leased yet, or null
+ * for a product whose stock is not tracked. A node leases units from the
+ * row in chunks of {@code webstore.inventory.lease-size}, never taking
+ * more than the locked row holds, and spreads them over striped in-memory
+ * counters. A reservation is then a
+ * compare-and-set on one stripe; only when the stripes run dry is the row
+ * touched again. Units are never in two places at once, so stock cannot be
+ * oversold, however many nodes lease from the same row.
+ * <p>
+ * Units given back by deleted or reduced items stay leased. Every
+ * {@code webstore.inventory.flush-interval} the leases of products that
+ * saw no reservations since the previous flush are written back to their
+ * rows, and whether untracked products are tracked is read
+ * again. Leases are also written back on shutdown.
+ * <p>
+ * Each node also records the units it holds per product in
+ * {@code stock_leases}, renewing the whole ledger on every flush. The
+ * leases of a node that died stop being renewed, and
+ * {@link #reconcile()} (POST /api/products/stock/reconcile) gives back the
+ * leases not renewed for {@code webstore.inventory.lease-timeout}. A
+ * ledger row is only as fresh as that node's last flush, so reconciling
+ * can count up to one flush interval of a dead node's reservations twice;
+ * it is left to an admin rather than run on its own. The timeout must be
+ * well above the flush interval, or a live node's lease is given back
+ * while it still holds it.
+ */
+@Component
+public class Inventory implements DisposableBean {
+    /**
+     * How far apart stripes are in the counter array, so that two stripes
+     * never share a cache line.
+     */
+    private static final int PADDING = 16;
+
+    /**
+     * The most stripes per product.
+     */
+    private static final int MAX_STRIPES = 64;
+
+    /**
+     * Marks a product whose stock is not tracked.
+     */
+    private static final Stock UNTRACKED = new Stock(0, 0);
+
+    /**
+     * The JDBC template for the products table on the primary. It bypasses
+     * replica routing, so the row is never read from a replica that has not
+     * seen this node's latest lease.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Runs lease changes in their own transaction, so a caller rolling back
+     * cannot undo a lease whose units are already in memory.
+     */
+    private final TransactionTemplate leaseTransaction;
+
+    /**
+     * The units leased from a row at a time.
+     */
+    private final int leaseSize;
+
+    /**
+     * The number of stripes per product, a power of two.
+     */
+    private final int stripes;
+
+    /**
+     * The stock of each product used so far, or {@link #UNTRACKED}.
+     */
+    private final Map<Integer, Stock> stocks = new ConcurrentHashMap<>();
+
+    /**
+     * This node's name in the lease ledger.
+     */
+    private final String node = UUID.randomUUID().toString();
+
+    /**
+     * How long a ledger row may go without being renewed before
+     * {@link #reconcile()} gives its units back.
+     */
+    private final Duration leaseTimeout;
+
+    /**
+     * Creates a new inventory.
+     *
+     * @param dataSource The data source holding the products table, or routing to it.
+     * @param transactionManager The transaction manager for the data source.
+     * @param leaseSize The units leased from a row at a time.
+     * @param stripes The number of counters each product's lease is spread over, 0 for one per core.
+     * @param leaseTimeout How long a node's leases go unrenewed before they can be reconciled.
+     */
+    public Inventory(DataSource dataSource, PlatformTransactionManager transactionManager,
+                     @Value("${webstore.inventory.lease-size:100}") int leaseSize,
+                     @Value("${webstore.inventory.stripes:0}") int stripes,
+                     @Value("${webstore.inventory.lease-timeout:PT5M}") Duration leaseTimeout) {
+        DataSource primary = dataSource instanceof ReplicaRoutingDataSource routing ? routing.getPrimary() : dataSource;
+        this.jdbcTemplate = new JdbcTemplate(primary);
+        this.leaseTransaction = new TransactionTemplate(primary == dataSource ? transactionManager : new DataSourceTransactionManager(primary));
+        this.leaseTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.leaseSize = Math.max(1, leaseSize);
+        int wanted = Math.min(MAX_STRIPES, stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors());
+        this.stripes = wanted <= 1 ? 1 : Integer.highestOneBit(wanted - 1) << 1;
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * Runs work that reserves or returns stock. Reservations made by the
+     * work are undone if it throws, and returns only happen once it has
+     * finished. Leasing and returning stock take a connection of their own,
+     * so reservations must be made before the work opens its transaction.
+     *
+     * @param work The work, given the reservation to record its stock changes in.
+     * @param <T> The type of the result.
+     * @return The result of the work.
+     */
+    public <T> T reserving(Function<Reservation, T> work) {
+        Reservation reservation = new Reservation();
+        T result;
+        try {
+            result = work.apply(reservation);
+        } catch (RuntimeException e) {
+            reservation.taken.forEach(change -> release(change[0], change[1]));
+            throw e;
+        }
+        reservation.returned.forEach(change -> release(change[0], change[1]));
+        return result;
+    }
+
+    /**
+     * Gets the units of a product that can still be reserved: those not
+     * leased by any node plus this node's unused lease.
+     *
+     * @param productId The product.
+     * @return Integer The units, or null if the product's stock is not tracked.
+     */
+    public Integer available(int productId) {
+        Integer stored = read(productId);
+        if (stored == null) {
+            return null;
+        }
+        Stock stock = stocks.get(productId);
+        if (stock == null || stock == UNTRACKED) {
+            return stored;
+        }
+        // Reread under the lock, so units moving between the row and the lease are counted once.
+        synchronized (stock) {
+            Integer again = read(productId);
+            return again == null ? null : again + stock.local();
+        }
+    }
+
+    /**
+     * Sets the units of a product not leased by any node, dropping this
+     * node's lease. Leases other nodes hold come on top, so on more than one
+     * node this is only exact once their leases have been written back.
+     *
+     * @param productId The product.
+     * @param units The units, or null to stop tracking the product's stock.
+     */
+    public void set(int productId, Integer units) {
+        if (units != null && units < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Stock cannot be negative");
+        }
+        Stock stock = stocks.remove(productId);
+        Runnable write = () -> leaseTransaction.executeWithoutResult(status -> {
+            if (jdbcTemplate.update("UPDATE products SET stock = ? WHERE id = ?;", units, productId) == 0) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found");
+            }
+            jdbcTemplate.update("DELETE FROM stock_leases WHERE node = ? AND product_id = ?;", node, productId);
+        });
+        if (stock == null || stock == UNTRACKED) {
+            write.run();
+            return;
+        }
+        synchronized (stock) {
+            stock.drain();
+            stock.retired = true;
+            write.run();
+        }
+    }
+
+    /**
+     * Forgets a deleted product.
+     *
+     * @param productId The product.
+     */
+    public void forget(int productId) {
+        Stock stock = stocks.remove(productId);
+        if (stock != null && stock != UNTRACKED) {
+            synchronized (stock) {
+                stock.drain();
+                stock.retired = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the leases of products that saw no reservations since the last
+     * flush back to their rows, and forgets which products are untracked.
+     */
+    @Scheduled(fixedDelayString = "${webstore.inventory.flush-interval:PT1S}")
+    public void flush() {
+        stocks.values().removeIf(stock -> stock == UNTRACKED);
+        List<Stock> idle = new ArrayList<>();
+        for (Stock stock : stocks.values()) {
+            if (!stock.touched) {
+                idle.add(stock);
+            }
+            stock.touched = false;
+        }
+        giveBack(idle);
+        renew();
+    }
+
+    /**
+     * Gives back the leases of nodes that have not renewed them for
+     * {@code webstore.inventory.lease-timeout}, presumably because they
+     * died, and removes them from the ledger.
+     *
+     * @return int The units given back.
+     */
+    public int reconcile() {
+        Integer returned = leaseTransaction.execute(status -> {
+            List<Object[]> stale = jdbcTemplate.query(
+                    "SELECT node, product_id, units FROM stock_leases WHERE node <> ? " +
+                            "AND renewed_at < current_timestamp(6) - INTERVAL ? MICROSECOND FOR UPDATE;",
+                    (resultSet, rowNumber) -> new Object[]{resultSet.getInt("units"), resultSet.getInt("product_id"), resultSet.getString("node")},
+                    node, leaseTimeout.toNanos() / 1000);
+            if (stale.isEmpty()) {
+                return 0;
+            }
+            jdbcTemplate.batchUpdate("UPDATE products SET stock = stock + ? WHERE id = ? AND stock IS NOT NULL;",
+                    stale.stream().map(row -> new Object[]{row[0], row[1]}).toList());
+            jdbcTemplate.batchUpdate("DELETE FROM stock_leases WHERE product_id = ? AND node = ?;",
+                    stale.stream().map(row -> new Object[]{row[1], row[2]}).toList());
+            return stale.stream().mapToInt(row -> (Integer) row[0]).sum();
+        });
+        return returned == null ? 0 : returned;
+    }
+
+    @Override
+    public void destroy() {
+        List<Stock> held = stocks.values().stream().filter(stock -> stock != UNTRACKED).toList();
+        if (held.isEmpty()) {
+            return;
+        }
+        giveBack(held);
+        try {
+            jdbcTemplate.update("DELETE FROM stock_leases WHERE node = ?;", node);
+        } catch (DataAccessException e) {
+            // Left to be reconciled once it times out.
+        }
+    }
+
+    /**
+     * Takes units of a product from this node's lease, leasing more from the
+     * row when it runs out.
+     *
+     * @throws ResponseStatusException 409 if there are not enough units left.
+     */
+    private void reserve(int productId, int units) {
+        while (true) {
+            Stock stock = stocks.computeIfAbsent(productId, this::load);
+            if (stock == null || stock == UNTRACKED || units <= 0) {
+                return;
+            }
+            stock.touched = true;
+            if (stock.tryTake(stripe(), units)) {
+                return;
+            }
+            synchronized (stock) {
+                if (stock.retired) {
+                    continue;
+                }
+                int local = stock.drain();
+                if (local < units) {
+                    local += lease(productId, Math.max(leaseSize, units - local));
+                }
+                if (local < units) {
+                    stock.spread(local);
+                    throw new ResponseStatusException(HttpStatus.CONFLICT, "Not enough stock for product " + productId);
+                }
+                stock.spread(local - units);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Puts units of a product back into this node's lease. The lease is
+     * checked under its lock, so units are not added to one that
+     * {@link #set(int, Integer)} or {@link #forget(int)} already drained.
+     */
+    private void release(int productId, int units) {
+        Stock stock = stocks.get(productId);
+        if (stock == UNTRACKED || units <= 0) {
+            return;
+        }
+        if (stock != null) {
+            synchronized (stock) {
+                if (!stock.retired) {
+                    stock.add(stripe(), units);
+                    return;
+                }
+            }
+        }
+        // Not leased here, so the units go straight back to the row.
+        leaseTransaction.executeWithoutResult(status ->
+                jdbcTemplate.update("UPDATE products SET stock = stock + ? WHERE id = ? AND stock IS NOT NULL;", units, productId));
+    }
+
+    /**
+     * Moves up to a number of units from a product's row into a lease.
+     *
+     * @return int The units leased, fewer than asked for if the row is running out.
+     */
+    private int lease(int productId, int wanted) {
+        Integer leased = leaseTransaction.execute(status -> {
+            Integer stored = jdbcTemplate.query("SELECT stock FROM products WHERE id = ? FOR UPDATE;",
+                    resultSet -> resultSet.next() ? (Integer) resultSet.getObject("stock") : null, productId);
+            int taken = stored == null ? 0 : Math.min(stored, wanted);
+            if (taken > 0) {
+                jdbcTemplate.update("UPDATE products SET stock = stock - ? WHERE id = ?;", taken, productId);
+                jdbcTemplate.update("INSERT INTO stock_leases (node, product_id, units, renewed_at) VALUES (?, ?, ?, current_timestamp(6)) " +
+                        "ON DUPLICATE KEY UPDATE units = units + VALUES(units), renewed_at = VALUES(renewed_at);", node, productId, taken);
+            }
+            return taken;
+        });
+        return leased == null ? 0 : leased;
+    }
+
+    /**
+     * Writes the unused leases of some products back to their rows. Each
+     * product is written under its lock, so its units are always either
+     * leased or in the row for {@link #available(int)}. If a write fails
+     * the units stay leased.
+     */
+    private void giveBack(List<Stock> returning) {
+        for (Stock stock : returning) {
+            if (stock == UNTRACKED) {
+                continue;
+            }
+            synchronized (stock) {
+                int local = stock.drain();
+                if (local == 0) {
+                    continue;
+                }
+                try {
+                    leaseTransaction.executeWithoutResult(status -> {
+                        jdbcTemplate.update("UPDATE products SET stock = stock + ? WHERE id = ? AND stock IS NOT NULL;", local, stock.productId);
+                        jdbcTemplate.update("DELETE FROM stock_leases WHERE node = ? AND product_id = ?;", node, stock.productId);
+                    });
+                } catch (DataAccessException e) {
+                    stock.add(0, local);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the units this node holds of every product in the ledger,
+     * which also renews its leases. Products it holds none of are recorded
+     * too, so a lease used up since the last flush is not given back again.
+     * Every unit held was leased together with its ledger row, so only
+     * existing rows are updated: by primary key, one row at a time, which
+     * neither takes gap locks nor checks the foreign key to products, and
+     * so cannot deadlock with a lease holding the product row.
+     */
+    private void renew() {
+        List<Object[]> rows = new ArrayList<>();
+        for (Stock stock : stocks.values()) {
+            if (stock != UNTRACKED) {
+                rows.add(new Object[]{stock.local(), node, stock.productId});
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate("UPDATE stock_leases SET units = ?, renewed_at = current_timestamp(6) " +
+                    "WHERE node = ? AND product_id = ?;", rows);
+        } catch (DataAccessException e) {
+            // Renewed on the next flush.
+        }
+    }
+
+    /**
+     * Looks up whether a product's stock is tracked. Unknown products are
+     * not remembered, and reservations for them are left to fail with the
+     * write itself.
+     */
+    private Stock load(int productId) {
+        List<Integer> stored = select(productId);
+        if (stored.isEmpty()) {
+            return null;
+        }
+        return stored.get(0) == null ? UNTRACKED : new Stock(productId, stripes);
+    }
+
+    private Integer read(int productId) {
+        List<Integer> stored = select(productId);
+        if (stored.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found");
+        }
+        return stored.get(0);
+    }
+
+    private List<Integer> select(int productId) {
+        return jdbcTemplate.query("SELECT stock FROM products WHERE id = ?;",
+                (resultSet, rowNumber) -> (Integer) resultSet.getObject("stock"), productId);
+    }
+
+    private int stripe() {
+        return (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16) & (stripes - 1);
+    }
+
+    /**
+     * The stock changes of one write, applied by {@link #reserving(Function)}.
+     */
+    public class Reservation {
+        /**
+         * The units reserved so far, as {product, units}.
+         */
+        private final List<int[]> taken = new ArrayList<>();
+
+        /**
+         * The units to give back once the write has finished, as {product, units}.
+         */
+        private final List<int[]> returned = new ArrayList<>();
+
+        private Reservation() {
+        }
+
+        /**
+         * Reserves units of a product now.
+         *
+         * @param productId The product.
+         * @param units The units.
+         * @throws ResponseStatusException 409 if there are not enough units left.
+         */
+        public void take(int productId, int units) {
+            reserve(productId, units);
+            taken.add(new int[]{productId, units});
+        }
+
+        /**
+         * Gives back units of a product once the write has finished.
+         *
+         * @param productId The product.
+         * @param units The units.
+         */
+        public void give(int productId, int units) {
+            returned.add(new int[]{productId, units});
+        }
+    }
+
+    /**
+     * A product's lease, spread over striped counters.
+     */
+    private static class Stock {
+        /**
+         * The product.
+         */
+        private final int productId;
+
+        /**
+         * The units held by each stripe, every {@link #PADDING} slots.
+         */
+        private final AtomicIntegerArray counters;
+
+        /**
+         * The number of stripes.
+         */
+        private final int stripes;
+
+        /**
+         * Whether any reservation was made since the last flush.
+         */
+        private volatile boolean touched;
+
+        /**
+         * Whether the lease was replaced or the product deleted.
+         */
+        private volatile boolean retired;
+
+        Stock(int productId, int stripes) {
+            this.productId = productId;
+            this.stripes = stripes;
+            this.counters = new AtomicIntegerArray(Math.max(1, stripes) * PADDING);
+        }
+
+        /**
+         * Takes units from one stripe if it holds enough.
+         */
+        boolean tryTake(int stripe, int units) {
+            int slot = stripe * PADDING;
+            while (true) {
+                int held = counters.get(slot);
+                if (held < units) {
+                    return false;
+                }
+                if (counters.compareAndSet(slot, held, held - units)) {
+                    return true;
+                }
+            }
+        }
+
+        void add(int stripe, int units) {
+            counters.addAndGet(stripe * PADDING, units);
+        }
+
+        /**
+         * Empties every stripe. Callers hold the lock on this stock.
+         *
+         * @return int The units the stripes held.
+         */
+        int drain() {
+            int total = 0;
+            for (int i = 0; i < stripes; i++) {
+                total += counters.getAndSet(i * PADDING, 0);
+            }
+            return total;
+        }
+
+        /**
+         * Shares units out over the stripes. Callers hold the lock on this stock.
+         */
+        void spread(int units) {
+            int each = units / stripes;
+            for (int i = 0; i < stripes; i++) {
+                counters.addAndGet(i * PADDING, i == 0 ? units - each * (stripes - 1) : each);
+            }
+        }
+
+        int local() {
+            int total = 0;
+            for (int i = 0; i < stripes; i++) {
+                total += counters.get(i * PADDING);
+            }
+            return total;
+        }
+    }
+}
@@ -1,86 +1,347 @@
 package org.example.daos;
 
-import org.example.exceptions.DaoException;
 import org.example.models.Order;
+import org.example.models.OrderDetails;
+import org.example.models.OrderItem;
+import org.example.models.OrderLine;
+import org.example.models.Product;
 import org.example.models.User;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
 
-import javax.sql.DataSource;
+import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Component
 public class OrderDao {
 
-    private final JdbcTemplate jdbcTemplate;
+    private final OrderShards shards;
 
-    public OrderDao(DataSource dataSource) {
-        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    private final IdAllocator idAllocator;
+
+    private final EntityVersions versions;
+
+    private final ApplicationEventPublisher events;
+
+    private final GroupCommit.Batcher<Order, Order> inserts;
+
+    private final Inventory inventory;
+
+    private static final Set<String> PATCH_FIELDS = Set.of("username");
+
+    public OrderDao(OrderShards shards, IdAllocator idAllocator, EntityVersions versions, ApplicationEventPublisher events,
+                    GroupCommit groupCommit, Inventory inventory) {
+        this.shards = shards;
+        this.idAllocator = idAllocator;
+        this.versions = versions;
+        this.events = events;
+        this.inserts = groupCommit.batcher("orders", this::insertOrders);
+        this.inventory = inventory;
     }
 
    public List<Order> getAll(){
-        return jdbcTemplate.query("SELECT * FROM orders ORDER BY id;", this::mapToOrder);
+        return shards.merge((jdbcTemplate, shard) -> jdbcTemplate.query("SELECT * FROM orders ORDER BY id;", this::mapToOrder),
+                Order::getId, Integer.MAX_VALUE);
+    }
+
+    public List<Order> getPage(int afterId, int limit){
+        return shards.merge((jdbcTemplate, shard) -> readPage(jdbcTemplate, afterId, limit), Order::getId, limit);
+    }
+
+    public void streamAll(Consumer<Order> consumer){
+        shards.stream(
+                streamingJdbcTemplate -> streamingJdbcTemplate.query("SELECT * FROM orders ORDER BY id;",
+                        (ResultSet resultSet) -> consumer.accept(mapToOrder(resultSet, resultSet.getRow()))),
+                this::readPage, Order::getId, consumer);
+    }
+
+    private List<Order> readPage(JdbcTemplate jdbcTemplate, int afterId, int limit){
+        return jdbcTemplate.query("SELECT * FROM orders WHERE id > ? ORDER BY id LIMIT ?;", this::mapToOrder, afterId, limit);
     }
 
     public Order getById(int id){
         try{
-            return jdbcTemplate.queryForObject("SELECT * from orders WHERE id =?;", this::mapToOrder,id);
+            return shards.jdbc(shards.locate(id)).queryForObject("SELECT * from orders WHERE id =?;", this::mapToOrder,id);
         }
         catch (EmptyResultDataAccessException e){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
         }
     }
 
+    public OrderDetails getDetails(int id){
+        List<OrderDetails> details = getDetails(List.of(id));
+        if (details.isEmpty()){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
+        }
+        return details.get(0);
+    }
+
+    /**
+     * Gets the details of several orders in id order. When sharded, each
+     * shard is asked only for the ids it issued.
+     */
+    public List<OrderDetails> getDetails(List<Integer> ids){
+        if (ids.isEmpty()){
+            return List.of();
+        }
+        return shards.merge((jdbcTemplate, shard) -> {
+            List<Integer> local = ids.stream().filter(id -> shards.ofId(id) == shard).toList();
+            if (local.isEmpty()){
+                return List.of();
+            }
+            String placeholders = String.join(",", Collections.nCopies(local.size(), "?"));
+            String sql = "SELECT o.id AS order_id, o.username, oi.id AS item_id, oi.product_id, oi.quantity, " +
+                    "p.name AS product_name, p.price " +
+                    "FROM orders o " +
+                    "LEFT JOIN order_items oi ON oi.order_id = o.id " +
+                    "LEFT JOIN products p ON p.id = oi.product_id " +
+                    "WHERE o.id IN (" + placeholders + ") " +
+                    "ORDER BY o.id, oi.id;";
+            return jdbcTemplate.query(sql, new OrderDetailsExtractor(), local.toArray());
+        }, OrderDetails::getId, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates an order. When sharded, the user is looked up on the primary
+     * and kept from being deleted until the order is in.
+     */
     public Order createOrder(Order order){
-        int sqlId = getAll().size() +1;
+        return shards.withUser(order.getUsername(), false, (shard, username) -> {
+            checkUser(username);
+            long version = versions.next();
+            Order created = inserts.submit(shard, new Order(0, username, version));
+            versions.written("orders", created.getId(), version);
+            return created;
+        });
+    }
 
-        String sql = "INSERT INTO orders (id,username) VALUES(?,?);";
-        try{
-            jdbcTemplate.update(sql, sqlId,  order.getUsername());
-            return getById(sqlId);
+    /**
+     * Inserts new orders on a shard, several at once when they were
+     * coalesced by the group commit.
+     */
+    private List<Order> insertOrders(int shard, List<Order> orders){
+        int[] ids;
+        if (orders.size() == 1){
+            Order order = orders.get(0);
+            ids = new int[]{idAllocator.insert(shards.jdbc(shard), "orders", "username, version", order.getUsername(), order.getVersion())};
         }
-        catch(EmptyResultDataAccessException e){
-            throw new DaoException("Failed to create order");
+        else{
+            List<Object[]> rows = orders.stream().map(order -> new Object[]{order.getUsername(), order.getVersion()}).toList();
+            ids = shards.inTransaction(shard, jdbcTemplate -> idAllocator.insertBatch(jdbcTemplate, "orders", "username, version", rows));
+        }
+        List<Order> created = new ArrayList<>(orders.size());
+        for (int i = 0; i < ids.length; i++){
+            created.add(new Order(ids[i], orders.get(i).getUsername(), 0, BigDecimal.ZERO.setScale(2), orders.get(i).getVersion()));
         }
+        return created;
     }
 
-    public Order updateOrder(Order order){
-        String sql = "UPDATE orders SET username = ? WHERE id = ?;";
+    /**
+     * Creates an order and all of its items in one transaction. The products
+     * are checked and priced with one query, the order goes in with its
+     * totals already computed and the items with one batched insert, so the
+     * cost does not grow in round trips with the number of items. The
+     * products are read with a shared lock, so a price change waits for the
+     * order to commit instead of repricing orders without it. Stock for
+     * every item is reserved before the transaction opens, since leasing
+     * takes a connection of its own, and given back if the checkout fails.
+     */
+    public OrderDetails checkout(String username, List<OrderItem> items){
+        if (items.isEmpty()){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "An order needs at least one item");
+        }
+        for (OrderItem item : items){
+            if (item.getQuantity() <= 0){
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Quantities must be positive");
+            }
+        }
+        List<Integer> productIds = items.stream().map(OrderItem::getProductId).distinct().toList();
 
-        int rowsAffected = jdbcTemplate.update(sql, order.getUsername(), order.getId());
+        return inventory.reserving(reservation -> {
+            for (OrderItem item : items){
+                reservation.take(item.getProductId(), item.getQuantity());
+            }
+            return shards.withUser(username, false, (shard, stored) -> {
+                checkUser(stored);
+                return shards.inTransaction(shard, jdbcTemplate -> checkout(jdbcTemplate, stored, items, productIds));
+            });
+        });
+    }
 
-        if (rowsAffected == 0){
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
+    private OrderDetails checkout(JdbcTemplate jdbcTemplate, String username, List<OrderItem> items, List<Integer> productIds){
+        Map<Integer, Product> products = new HashMap<>();
+        String placeholders = String.join(",", Collections.nCopies(productIds.size(), "?"));
+        jdbcTemplate.query("SELECT id, name, price FROM products WHERE id IN (" + placeholders + ") LOCK IN SHARE MODE;", (ResultSet resultSet) -> {
+            products.put(resultSet.getInt("id"), new Product(resultSet.getInt("id"), resultSet.getString("name"), resultSet.getBigDecimal("price")));
+        }, productIds.toArray());
+        List<Integer> unknown = productIds.stream().filter(id -> !products.containsKey(id)).toList();
+        if (!unknown.isEmpty()){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown products " + unknown);
         }
-        else{
-            return getById(order.getId());
+
+        BigDecimal total = BigDecimal.ZERO.setScale(2);
+        for (OrderItem item : items){
+            BigDecimal price = products.get(item.getProductId()).getPrice();
+            total = total.add(price == null ? BigDecimal.ZERO : price.multiply(BigDecimal.valueOf(item.getQuantity())));
+        }
+        long version = versions.next();
+        int orderId = idAllocator.insert(jdbcTemplate, "orders", "username, item_count, total, version",
+                username, items.size(), total, version);
+        int[] itemIds = idAllocator.insertBatch(jdbcTemplate, "order_items", "order_id, product_id, quantity, version", items.stream()
+                .map(item -> new Object[]{orderId, item.getProductId(), item.getQuantity(), version})
+                .toList());
+
+        OrderDetails details = new OrderDetails(orderId, username);
+        List<OrderItem> created = new ArrayList<>(items.size());
+        for (int i = 0; i < itemIds.length; i++){
+            OrderItem item = items.get(i);
+            Product product = products.get(item.getProductId());
+            details.addLine(new OrderLine(itemIds[i], product.getId(), product.getName(), product.getPrice(), item.getQuantity()));
+            created.add(new OrderItem(itemIds[i], orderId, item.getProductId(), item.getQuantity(), version));
         }
+        versions.written("orders", orderId, version);
+        versions.written("order_items", Arrays.stream(itemIds).boxed().toList());
+        events.publishEvent(OrderItemsChanged.written(created));
+        return details;
     }
 
-    public int deleteOrder(int id){
-        String sql = "DELETE FROM orders WHERE id = ?;";
-        int rowsAffected = jdbcTemplate.update(sql, id);
-        if (rowsAffected == 0 ){
+    /**
+     * Replaces the username of an order. The item count and total are kept
+     * by the order item writes, so the row is locked to return them.
+     */
+    public Order updateOrder(Order order, int id){
+        String sql = "UPDATE orders SET username = ?, version = ? WHERE id = ?;";
+        int shard = shards.locate(id);
+        return shards.withUser(order.getUsername(), false, (userShard, username) -> {
+            checkUser(username);
+            checkShard(shard, userShard);
+            return shards.inTransaction(shard, jdbcTemplate -> {
+                Order current = lockById(jdbcTemplate, id);
+                long version = versions.next();
+                jdbcTemplate.update(sql, username, version, id);
+                versions.written("orders", id, version);
+                return new Order(id, username, current.getItemCount(), current.getTotal(), version);
+            });
+        });
+    }
+
+    /**
+     * Changes only the fields present in the PATCH body. A body that sets
+     * every field is written without reading the row first; otherwise the
+     * row is locked, merged and only changed columns are written.
+     */
+    public Order patchOrder(int id, Map<String, Object> changes){
+        PartialUpdate.checkFields(changes, PATCH_FIELDS);
+        if (changes.keySet().containsAll(PATCH_FIELDS)){
+            return updateOrder(new Order(id, PartialUpdate.stringValue(changes, "username", null)), id);
+        }
+        int shard = shards.locate(id);
+        return shards.inTransaction(shard, jdbcTemplate -> {
+            Order current = lockById(jdbcTemplate, id);
+            Order patched = new Order(id, PartialUpdate.stringValue(changes, "username", current.getUsername()),
+                    current.getItemCount(), current.getTotal(), current.getVersion());
+            PartialUpdate update = new PartialUpdate("orders")
+                    .set("username", current.getUsername(), patched.getUsername());
+            if (!update.isEmpty()){
+                patched.setVersion(versions.next());
+                update.set("version", current.getVersion(), patched.getVersion()).execute(jdbcTemplate, id);
+                versions.written("orders", id, patched.getVersion());
+            }
+            return patched;
+        });
+    }
+
+    /**
+     * Rejects giving an order to a user whose orders live on another shard,
+     * which would need the order and its items moved.
+     */
+    private void checkShard(int shard, int userShard){
+        if (userShard != shard){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Order cannot be moved to a user on another shard");
+        }
+    }
+
+    /**
+     * Rejects orders for a user the primary does not have. Only sharded
+     * orders get here without one; unsharded, the foreign key checks.
+     */
+    private void checkUser(String username){
+        if (username == null){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown user");
+        }
+    }
+
+    private Order lockById(JdbcTemplate jdbcTemplate, int id){
+        try{
+            return jdbcTemplate.queryForObject("SELECT * FROM orders WHERE id = ? FOR UPDATE;", this::mapToOrder, id);
+        }
+        catch (EmptyResultDataAccessException e){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
         }
-        else{
-            return rowsAffected;
+    }
+
+    /**
+     * Deletes an order and, by cascade, its items, giving back the stock
+     * the items held.
+     */
+    public int deleteOrder(int id){
+        String sql = "DELETE FROM orders WHERE id = ?;";
+        return inventory.reserving(reservation -> shards.inTransaction(shards.locate(id), jdbcTemplate -> {
+            jdbcTemplate.query("SELECT product_id, SUM(quantity) AS quantity FROM order_items WHERE order_id = ? GROUP BY product_id FOR UPDATE;",
+                    (ResultSet resultSet) -> {
+                        reservation.give(resultSet.getInt("product_id"), resultSet.getInt("quantity"));
+                    }, id);
+            int rowsAffected = jdbcTemplate.update(sql, id);
+            if (rowsAffected == 0 ){
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
+            }
+            else{
+                versions.deleted("orders", id, "order_items");
+                events.publishEvent(OrderItemsChanged.orderDeleted(id));
+                return rowsAffected;
+            }
+        }));
+    }
+
+    /**
+     * Recomputes the item count and total of every order from its items,
+     * repairing any drift left by writes made outside the DAOs. When
+     * sharded, this also resyncs each shard's copy of the products.
+     *
+     * @return int The number of orders that were repaired.
+     */
+    public int rebuildTotals(){
+        int repaired = shards.rebuildTotals(versions.next());
+        if (repaired > 0){
+            versions.cascaded("orders");
         }
+        return repaired;
     }
 
 
 
 
-    private Order mapToOrder(ResultSet resultSet, int rowNumber) throws SQLException {
+    Order mapToOrder(ResultSet resultSet, int rowNumber) throws SQLException {
         int id = resultSet.getInt("id");
         return new Order(
                 id,
-                resultSet.getString("username")
+                resultSet.getString("username"),
+                resultSet.getInt("item_count"),
+                resultSet.getBigDecimal("total"),
+                resultSet.getLong("version")
         );
     }
 
@@ -0,0 +1,51 @@
+package org.example.daos;
+
+import org.example.models.OrderDetails;
+import org.example.models.OrderLine;
+import org.springframework.jdbc.core.ResultSetExtractor;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the rows of an orders / order_items / products join into one
+ * OrderDetails per order. Expects the rows to be ordered by order id, and
+ * orders without items to appear once with null item columns.
+ */
+public class OrderDetailsExtractor implements ResultSetExtractor<List<OrderDetails>> {
+    /**
+     * Extracts the order details from the result set.
+     *
+     * @param resultSet The result set to map.
+     * @return List of OrderDetails, in the order the orders appear in the result set.
+     * @throws SQLException If an error occurs while reading the result set.
+     */
+    @Override
+    public List<OrderDetails> extractData(ResultSet resultSet) throws SQLException {
+        Map<Integer, OrderDetails> orders = new LinkedHashMap<>();
+        while (resultSet.next()) {
+            int orderId = resultSet.getInt("order_id");
+            OrderDetails details = orders.get(orderId);
+            if (details == null) {
+                details = new OrderDetails(orderId, resultSet.getString("username"));
+                orders.put(orderId, details);
+            }
+
+            int itemId = resultSet.getInt("item_id");
+            if (!resultSet.wasNull()) {
+                details.addLine(new OrderLine(
+                        itemId,
+                        resultSet.getInt("product_id"),
+                        resultSet.getString("product_name"),
+                        resultSet.getBigDecimal("price"),
+                        resultSet.getInt("quantity")
+                ));
+            }
+        }
+        return new ArrayList<>(orders.values());
+    }
+}
@@ -1,81 +1,457 @@
 package org.example.daos;
 
-import org.example.exceptions.DaoException;
+import org.example.models.BulkResult;
 import org.example.models.OrderItem;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
 
-import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 @Component
 public class OrderItemDao {
 
-    private final JdbcTemplate jdbcTemplate;
+    private final OrderShards shards;
 
-    public OrderItemDao(DataSource dataSource) {
-        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    private final IdAllocator idAllocator;
+
+    private final EntityVersions versions;
+
+    private final ApplicationEventPublisher events;
+
+    private final GroupCommit.Batcher<OrderItem, OrderItem> inserts;
+
+    private final Inventory inventory;
+
+    private static final Set<String> PATCH_FIELDS = Set.of("orderId", "productId", "quantity");
+
+    public OrderItemDao(OrderShards shards, IdAllocator idAllocator, EntityVersions versions, ApplicationEventPublisher events,
+                        GroupCommit groupCommit, Inventory inventory) {
+        this.shards = shards;
+        this.idAllocator = idAllocator;
+        this.versions = versions;
+        this.events = events;
+        this.inserts = groupCommit.batcher("order_items", this::insertOIs);
+        this.inventory = inventory;
     }
 
     public List<OrderItem> getAllOI(){
-        String sql = "SELECT * FROM order_items;";
-        return jdbcTemplate.query(sql, this::mapToOrderItem);
+        String sql = "SELECT * FROM order_items ORDER BY id;";
+        return shards.merge((jdbcTemplate, shard) -> jdbcTemplate.query(sql, this::mapToOrderItem), OrderItem::getId, Integer.MAX_VALUE);
+    }
+
+    public List<OrderItem> findOI(Integer orderId, Integer productId){
+        List<Object> args = new ArrayList<>();
+        String sql = "SELECT * FROM order_items WHERE " + filter(orderId, productId, args) + " ORDER BY id;";
+        return shards.merge((jdbcTemplate, shard) -> holds(shard, orderId) ? jdbcTemplate.query(sql, this::mapToOrderItem, args.toArray()) : List.of(),
+                OrderItem::getId, Integer.MAX_VALUE);
     }
 
+    public List<OrderItem> getOIPage(Integer orderId, Integer productId, int afterId, int limit){
+        List<Object> args = new ArrayList<>();
+        String sql = "SELECT * FROM order_items WHERE " + filter(orderId, productId, args) + " AND id > ? ORDER BY id LIMIT ?;";
+        args.add(afterId);
+        args.add(limit);
+        return shards.merge((jdbcTemplate, shard) -> holds(shard, orderId) ? jdbcTemplate.query(sql, this::mapToOrderItem, args.toArray()) : List.of(),
+                OrderItem::getId, limit);
+    }
+
+    public void streamAllOI(Consumer<OrderItem> consumer){
+        String sql = "SELECT * FROM order_items ORDER BY id;";
+        shards.stream(
+                streamingJdbcTemplate -> streamingJdbcTemplate.query(sql, (ResultSet resultSet) -> consumer.accept(mapToOrderItem(resultSet, resultSet.getRow()))),
+                (jdbcTemplate, afterId, limit) -> jdbcTemplate.query("SELECT * FROM order_items WHERE id > ? ORDER BY id LIMIT ?;", this::mapToOrderItem, afterId, limit),
+                OrderItem::getId, consumer);
+    }
+
+    /**
+     * Whether a shard can hold the items of an order, or of any order when
+     * no order is given.
+     */
+    private boolean holds(int shard, Integer orderId){
+        return orderId == null || shards.ofId(orderId) == shard;
+    }
 
     public OrderItem getOIById(int id){
         String sql = "SELECT * FROM order_items WHERE id = ?;";
         try{
-            return jdbcTemplate.queryForObject(sql,this::mapToOrderItem ,id);
+            return shards.jdbc(shards.locate(id)).queryForObject(sql,this::mapToOrderItem ,id);
         }
         catch(EmptyResultDataAccessException e){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
         }
     }
 
+    /**
+     * Creates an order item. Its stock is reserved before the insert, and
+     * given back if the insert fails.
+     */
     public OrderItem createOI(OrderItem orderItem){
-        int SqlId = getAllOI().size() +1 ;
-        String sql = "INSERT INTO order_items (id, order_id, product_id, quantity) VALUES(?,?,?,?);";
+        int shard = shards.locate(orderItem.getOrderId());
+        return inventory.reserving(reservation -> {
+            reservation.take(orderItem.getProductId(), orderItem.getQuantity());
+            return inserts.submit(shard,
+                    new OrderItem(0, orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), versions.next()));
+        });
+    }
 
-        try{
-        jdbcTemplate.update(sql, SqlId, orderItem.getOrderId(),orderItem.getProductId(),orderItem.getQuantity());
-        return getOIById(SqlId);}
-        catch(EmptyResultDataAccessException e ){
-            throw new DaoException("Failed to create product");
+    /**
+     * Inserts new order items on a shard and adds them to their orders'
+     * totals, several at once when they were coalesced by the group commit.
+     * The orders are updated first and in id order, so concurrent inserts
+     * lock them in the same order and cannot deadlock.
+     */
+    private List<OrderItem> insertOIs(int shard, List<OrderItem> orderItems){
+        return shards.inTransaction(shard, jdbcTemplate -> {
+            orderItems.stream()
+                    .sorted(Comparator.comparingInt(OrderItem::getOrderId))
+                    .forEach(orderItem -> addToTotals(jdbcTemplate, orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), 1, orderItem.getVersion()));
+            String columns = "order_id, product_id, quantity, version";
+            int[] ids;
+            if (orderItems.size() == 1){
+                OrderItem orderItem = orderItems.get(0);
+                ids = new int[]{idAllocator.insert(jdbcTemplate, "order_items", columns,
+                        orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), orderItem.getVersion())};
+            }
+            else{
+                ids = idAllocator.insertBatch(jdbcTemplate, "order_items", columns, orderItems.stream()
+                        .map(orderItem -> new Object[]{orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), orderItem.getVersion()})
+                        .toList());
+            }
+            List<OrderItem> created = new ArrayList<>(orderItems.size());
+            for (int i = 0; i < ids.length; i++){
+                OrderItem orderItem = orderItems.get(i);
+                created.add(new OrderItem(ids[i], orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), orderItem.getVersion()));
+                versions.written("order_items", ids[i], orderItem.getVersion());
+            }
+            events.publishEvent(OrderItemsChanged.written(created));
+            return created;
+        });
+    }
+
+    /**
+     * Saves a batch of order items. The previous orders of upserted items
+     * are not known up front, so the totals of every order the batch
+     * touched are recomputed rather than moved by a delta. When sharded,
+     * the items are written shard by shard, each shard in its own
+     * transaction. Stock is reserved for each shard's items before its
+     * transaction opens: new items take their quantity, and upserted items
+     * move theirs from the row they replace.
+     */
+    public List<BulkResult> saveOIs(List<OrderItem> orderItems, boolean upsert){
+        long version = versions.next();
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        for (int i = 0; i < orderItems.size(); i++){
+            OrderItem orderItem = orderItems.get(i);
+            int shard = shards.locate(orderItem.getOrderId());
+            if (upsert && orderItem.getId() > 0){
+                checkShard(shards.locate(orderItem.getId()), orderItem.getOrderId());
+            }
+            byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(i);
         }
+
+        BulkResult[] results = new BulkResult[orderItems.size()];
+        List<OrderItem> saved = new ArrayList<>(orderItems.size());
+        byShard.forEach((shard, indexes) -> {
+            List<OrderItem> rows = indexes.stream().map(orderItems::get).toList();
+            List<Integer> upsertIds = upsert ? rows.stream().map(OrderItem::getId).filter(id -> id > 0).distinct().toList() : List.of();
+            List<BulkResult> shardResults = movingStock(shard, upsertIds, (reservation, seen) -> {
+                // Later rows with the same id replace the earlier ones.
+                Map<Integer, OrderItem> current = new HashMap<>(seen);
+                for (OrderItem orderItem : rows){
+                    OrderItem replaced = upsert && orderItem.getId() > 0 ? current.put(orderItem.getId(), orderItem) : null;
+                    if (replaced == null){
+                        reservation.take(orderItem.getProductId(), orderItem.getQuantity());
+                    }
+                    else{
+                        moveStock(reservation, replaced, orderItem);
+                    }
+                }
+            }, (jdbcTemplate, locked) -> saveOIs(jdbcTemplate, rows, locked, upsert, version));
+            for (BulkResult result : shardResults){
+                result.setIndex(indexes.get(result.getIndex()));
+                results[result.getIndex()] = result;
+                OrderItem orderItem = orderItems.get(result.getIndex());
+                saved.add(new OrderItem(result.getId(), orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), version));
+            }
+        });
+        events.publishEvent(OrderItemsChanged.written(saved));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Saves one shard's items, given the rows they upsert over, already
+     * locked.
+     */
+    private List<BulkResult> saveOIs(JdbcTemplate jdbcTemplate, List<OrderItem> orderItems, Map<Integer, OrderItem> replaced,
+                                     boolean upsert, long version){
+        Set<Integer> orderIds = new HashSet<>();
+        for (OrderItem orderItem : orderItems){
+            orderIds.add(orderItem.getOrderId());
+        }
+        for (OrderItem current : replaced.values()){
+            orderIds.add(current.getOrderId());
+        }
+        List<BulkResult> results = BulkWrites.save(jdbcTemplate, idAllocator, "order_items", "order_id, product_id, quantity, version", orderItems, upsert,
+                OrderItem::getId, orderItem -> new Object[]{orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), version});
+        versions.written("order_items", results.stream().map(BulkResult::getId).toList());
+        OrderTotals.rebuildOrders(jdbcTemplate, orderIds, version);
+        versions.written("orders", orderIds);
+        return results;
     }
 
     public OrderItem updateOI(OrderItem orderItem, int id){
-        String sql = "UPDATE order_items SET order_id = ?, product_id = ?, quantity = ? WHERE id = ?;";
-        jdbcTemplate.update(sql, orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), orderItem.getId());
-        return getOIById(orderItem.getId());
+        String sql = "UPDATE order_items SET order_id = ?, product_id = ?, quantity = ?, version = ? WHERE id = ?;";
+        int shard = shards.locate(id);
+        checkShard(shard, orderItem.getOrderId());
+        return movingStock(shard, List.of(id),
+                (reservation, seen) -> moveStock(reservation, found(seen, id), orderItem),
+                (jdbcTemplate, locked) -> {
+            OrderItem current = found(locked, id);
+            long version = versions.next();
+            jdbcTemplate.update(sql, orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), version, id);
+            OrderItem updated = new OrderItem(id, orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity(), version);
+            moveTotals(jdbcTemplate, current, updated, version);
+            versions.written("order_items", id, version);
+            events.publishEvent(OrderItemsChanged.written(List.of(updated)));
+            return updated;
+        });
     }
 
-    public int deleteOI(int id){
-        String sql = "DELETE FROM order_items where id = ?;";
-        int rowAffected = jdbcTemplate.update(sql, id);
-        if (rowAffected == 0){
+    /**
+     * Changes only the fields present in the PATCH body. A body that sets
+     * every field is written without reading the row first; otherwise the
+     * row is locked, merged and only changed columns are written.
+     */
+    public OrderItem patchOI(int id, Map<String, Object> changes){
+        PartialUpdate.checkFields(changes, PATCH_FIELDS);
+        if (changes.keySet().containsAll(PATCH_FIELDS)){
+            return updateOI(new OrderItem(id,
+                    PartialUpdate.intValue(changes, "orderId", 0),
+                    PartialUpdate.intValue(changes, "productId", 0),
+                    PartialUpdate.intValue(changes, "quantity", 0)), id);
+        }
+        int shard = shards.locate(id);
+        return movingStock(shard, List.of(id),
+                (reservation, seen) -> moveStock(reservation, found(seen, id), patched(found(seen, id), changes)),
+                (jdbcTemplate, locked) -> {
+            OrderItem current = found(locked, id);
+            OrderItem patched = patched(current, changes);
+            checkShard(shard, patched.getOrderId());
+            PartialUpdate update = new PartialUpdate("order_items")
+                    .set("order_id", current.getOrderId(), patched.getOrderId())
+                    .set("product_id", current.getProductId(), patched.getProductId())
+                    .set("quantity", current.getQuantity(), patched.getQuantity());
+            if (!update.isEmpty()){
+                patched.setVersion(versions.next());
+                update.set("version", current.getVersion(), patched.getVersion()).execute(jdbcTemplate, id);
+                moveTotals(jdbcTemplate, current, patched, patched.getVersion());
+                versions.written("order_items", id, patched.getVersion());
+                events.publishEvent(OrderItemsChanged.written(List.of(patched)));
+            }
+            return patched;
+        });
+    }
+
+    private static OrderItem patched(OrderItem current, Map<String, Object> changes){
+        return new OrderItem(current.getId(),
+                PartialUpdate.intValue(changes, "orderId", current.getOrderId()),
+                PartialUpdate.intValue(changes, "productId", current.getProductId()),
+                PartialUpdate.intValue(changes, "quantity", current.getQuantity()),
+                current.getVersion());
+    }
+
+    /**
+     * Runs a write to existing items on a shard that moves their stock.
+     * Leasing stock takes a connection of its own, so the stock is reserved
+     * from the items as last read, before the shard transaction takes one;
+     * holding a connection while waiting for another would exhaust the pool
+     * under load. If the locked items no longer have the product and
+     * quantity they were read with, the reservation is undone and the write
+     * starts over.
+     *
+     * @param reserve Records the stock changes, given the items as read.
+     * @param write Writes, given the items as locked, all matching the read.
+     */
+    private <T> T movingStock(int shard, List<Integer> ids, BiConsumer<Inventory.Reservation, Map<Integer, OrderItem>> reserve,
+                              BiFunction<JdbcTemplate, Map<Integer, OrderItem>, T> write){
+        while (true){
+            Map<Integer, OrderItem> seen = readOIs(shards.jdbc(shard), ids, false);
+            try{
+                return inventory.reserving(reservation -> {
+                    reserve.accept(reservation, seen);
+                    return shards.inTransaction(shard, jdbcTemplate -> {
+                        Map<Integer, OrderItem> locked = readOIs(jdbcTemplate, ids, true);
+                        if (!sameStock(seen, locked)){
+                            throw new StockMoved();
+                        }
+                        return write.apply(jdbcTemplate, locked);
+                    });
+                });
+            }
+            catch(StockMoved e){
+                // Another write changed the items in between; read them again.
+            }
+        }
+    }
+
+    private Map<Integer, OrderItem> readOIs(JdbcTemplate jdbcTemplate, List<Integer> ids, boolean lock){
+        Map<Integer, OrderItem> items = new HashMap<>();
+        if (ids.isEmpty()){
+            return items;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        jdbcTemplate.query("SELECT * FROM order_items WHERE id IN (" + placeholders + ")" + (lock ? " FOR UPDATE;" : ";"),
+                (ResultSet resultSet) -> {
+                    OrderItem item = mapToOrderItem(resultSet, resultSet.getRow());
+                    items.put(item.getId(), item);
+                }, ids.toArray());
+        return items;
+    }
+
+    private static boolean sameStock(Map<Integer, OrderItem> seen, Map<Integer, OrderItem> locked){
+        if (!seen.keySet().equals(locked.keySet())){
+            return false;
+        }
+        for (OrderItem item : locked.values()){
+            OrderItem before = seen.get(item.getId());
+            if (before.getProductId() != item.getProductId() || before.getQuantity() != item.getQuantity()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static OrderItem found(Map<Integer, OrderItem> items, int id){
+        OrderItem item = items.get(id);
+        if (item == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
         }
-        else{
+        return item;
+    }
+
+    /**
+     * Thrown inside {@link #movingStock} when the locked items no longer
+     * match the reservation.
+     */
+    private static class StockMoved extends RuntimeException {
+        StockMoved(){
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Moves an item's reserved stock from its old product and quantity to
+     * its new ones.
+     */
+    private void moveStock(Inventory.Reservation reservation, OrderItem from, OrderItem to){
+        if (from.getProductId() == to.getProductId()){
+            int more = to.getQuantity() - from.getQuantity();
+            if (more > 0){
+                reservation.take(to.getProductId(), more);
+            }
+            else{
+                reservation.give(from.getProductId(), -more);
+            }
+            return;
+        }
+        reservation.take(to.getProductId(), to.getQuantity());
+        reservation.give(from.getProductId(), from.getQuantity());
+    }
+
+    /**
+     * Rejects moving an item to an order on another shard, which would
+     * need the item rewritten under a new id.
+     */
+    private void checkShard(int shard, int orderId){
+        if (shards.ofId(orderId) != shard){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Order item cannot be moved to an order on another shard");
+        }
+    }
+
+    private OrderItem lockOI(JdbcTemplate jdbcTemplate, int id){
+        try{
+            return jdbcTemplate.queryForObject("SELECT * FROM order_items WHERE id = ? FOR UPDATE;", this::mapToOrderItem, id);
+        }
+        catch(EmptyResultDataAccessException e){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
+        }
+    }
+
+    public int deleteOI(int id){
+        String sql = "DELETE FROM order_items where id = ?;";
+        return inventory.reserving(reservation -> shards.inTransaction(shards.locate(id), jdbcTemplate -> {
+            OrderItem current = lockOI(jdbcTemplate, id);
+            reservation.give(current.getProductId(), current.getQuantity());
+            int rowAffected = jdbcTemplate.update(sql, id);
+            addToTotals(jdbcTemplate, current.getOrderId(), current.getProductId(), current.getQuantity(), -1, versions.next());
+            versions.deleted("order_items", id);
+            events.publishEvent(OrderItemsChanged.deleted(id));
             return rowAffected;
+        }));
+    }
+
+    /**
+     * Moves an item's share of the order totals from its old values to its
+     * new ones, in the transaction that changed the item.
+     */
+    private void moveTotals(JdbcTemplate jdbcTemplate, OrderItem from, OrderItem to, long version){
+        if (from.getOrderId() == to.getOrderId() && from.getProductId() == to.getProductId() && from.getQuantity() == to.getQuantity()){
+            return;
+        }
+        addToTotals(jdbcTemplate, from.getOrderId(), from.getProductId(), from.getQuantity(), -1, version);
+        addToTotals(jdbcTemplate, to.getOrderId(), to.getProductId(), to.getQuantity(), 1, version);
+    }
+
+    private void addToTotals(JdbcTemplate jdbcTemplate, int orderId, int productId, int quantity, int sign, long version){
+        if (OrderTotals.add(jdbcTemplate, orderId, productId, quantity, sign, version) > 0){
+            versions.written("orders", orderId, version);
         }
     }
 
 
+    /**
+     * Builds the WHERE condition for the optional order and product filters.
+     * Both columns lead one of the composite indexes on order_items.
+     */
+    private String filter(Integer orderId, Integer productId, List<Object> args){
+        List<String> conditions = new ArrayList<>();
+        if (orderId != null){
+            conditions.add("order_id = ?");
+            args.add(orderId);
+        }
+        if (productId != null){
+            conditions.add("product_id = ?");
+            args.add(productId);
+        }
+        return conditions.isEmpty() ? "TRUE" : String.join(" AND ", conditions);
+    }
 
-    private OrderItem mapToOrderItem(ResultSet resultSet, int rowNumber) throws SQLException {
+    OrderItem mapToOrderItem(ResultSet resultSet, int rowNumber) throws SQLException {
         int id = resultSet.getInt("id");
         return new OrderItem(
                 id,
                 resultSet.getInt("order_id"),
                 resultSet.getInt("product_id"),
-                resultSet.getInt("quantity")
+                resultSet.getInt("quantity"),
+                resultSet.getLong("version")
 
         );
     }
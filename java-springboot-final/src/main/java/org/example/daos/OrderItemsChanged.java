@@ -0,0 +1,134 @@
+package org.example.daos;
+
+import org.example.models.OrderItem;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Published by the DAOs when order items are written or deleted, so
+ * in-memory copies of the order items can follow along. Listeners that
+ * must not see rolled back writes should listen after commit.
+ */
+public class OrderItemsChanged {
+    /**
+     * What happened to the order items.
+     */
+    public enum Kind {
+        /**
+         * The items were inserted or updated to the given values.
+         */
+        WRITTEN,
+        /**
+         * The item with the given id was deleted.
+         */
+        DELETED,
+        /**
+         * Every item of the orders with the given ids was deleted.
+         */
+        ORDER_DELETED
+    }
+
+    /**
+     * What happened to the order items.
+     */
+    private final Kind kind;
+
+    /**
+     * The written items, for {@link Kind#WRITTEN}.
+     */
+    private final List<OrderItem> items;
+
+    /**
+     * The id of the deleted item, for {@link Kind#DELETED}.
+     */
+    private final int id;
+
+    /**
+     * The ids of the deleted orders, for {@link Kind#ORDER_DELETED}.
+     */
+    private final Set<Integer> orderIds;
+
+    private OrderItemsChanged(Kind kind, List<OrderItem> items, int id, Set<Integer> orderIds) {
+        this.kind = kind;
+        this.items = items;
+        this.id = id;
+        this.orderIds = orderIds;
+    }
+
+    /**
+     * Creates an event for inserted or updated items.
+     *
+     * @param items The items as they are now stored.
+     * @return OrderItemsChanged
+     */
+    public static OrderItemsChanged written(List<OrderItem> items) {
+        return new OrderItemsChanged(Kind.WRITTEN, items, 0, Set.of());
+    }
+
+    /**
+     * Creates an event for a deleted item.
+     *
+     * @param id The id of the item.
+     * @return OrderItemsChanged
+     */
+    public static OrderItemsChanged deleted(int id) {
+        return new OrderItemsChanged(Kind.DELETED, List.of(), id, Set.of());
+    }
+
+    /**
+     * Creates an event for the items of a deleted order.
+     *
+     * @param orderId The id of the order.
+     * @return OrderItemsChanged
+     */
+    public static OrderItemsChanged orderDeleted(int orderId) {
+        return ordersDeleted(Set.of(orderId));
+    }
+
+    /**
+     * Creates an event for the items of many deleted orders.
+     *
+     * @param orderIds The ids of the orders.
+     * @return OrderItemsChanged
+     */
+    public static OrderItemsChanged ordersDeleted(Set<Integer> orderIds) {
+        return new OrderItemsChanged(Kind.ORDER_DELETED, List.of(), 0, Set.copyOf(orderIds));
+    }
+
+    /**
+     * Gets what happened to the order items.
+     *
+     * @return Kind
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the written items.
+     *
+     * @return List of OrderItem
+     */
+    public List<OrderItem> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the id of the deleted item.
+     *
+     * @return int
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the ids of the deleted orders.
+     *
+     * @return Set of Integer
+     */
+    public Set<Integer> getOrderIds() {
+        return orderIds;
+    }
+}
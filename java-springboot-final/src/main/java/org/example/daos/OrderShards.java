@@ -0,0 +1,527 @@
+package org.example.daos;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.example.models.Product;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Splits orders and their items over several databases by username.
+ * <p>
+ * Shards are listed as comma separated JDBC URLs in
+ * {@code webstore.shards.urls}, and log in with
+ * {@code webstore.shards.username} and {@code .password}, which default to
+ * the primary's credentials. When no shards are listed there is a single
+ * shard, the application's data source, and everything here passes straight
+ * through to it.
+ * <p>
+ * An order lives on the shard given by the CRC32 of its username modulo the
+ * number of shards, and its items live with it. Every shard connection sets
+ * {@code auto_increment_increment} to {@value #MAX_SHARDS} and
+ * {@code auto_increment_offset} to the shard's position plus one, so ids
+ * never collide between shards and the shard of any order or item id is
+ * {@code (id - 1) % 16}, without a lookup. Adding shards later changes
+ * where usernames hash to, and moving their orders is not handled here.
+ * <p>
+ * Each shard holds a copy of the products table, so order totals and
+ * details are computed on the shard. The product DAO writes through to the
+ * copies, and {@link #rebuildTotals(long)} brings them back in line with
+ * the primary. Shards have no users table, so nothing on a shard checks
+ * that an order's user exists. Writes that name a user go through
+ * {@link #withUser(String, boolean, BiFunction)}, which looks the user up
+ * on the primary, holds a lock on the row until the shard write is done,
+ * and routes on the username as stored there: MySQL compares usernames
+ * case-insensitively, so "Alice" and "alice" are one user and must hash
+ * to one shard. Deleting a user deletes their orders through
+ * {@link #deleteOrdersOf(String)}.
+ * <p>
+ * Queries that read every shard run on a pool of
+ * {@code webstore.shards.query-threads} threads, by default one per
+ * connection the shards' pools hold, with the caller reading the first
+ * shard itself. A request therefore only waits for the pool when more
+ * requests fan out at once than the shards have connections for.
+ */
+@Component
+public class OrderShards implements DisposableBean {
+    /**
+     * The most shards ids can encode.
+     */
+    public static final int MAX_SHARDS = 16;
+
+    /**
+     * The number of rows read from each shard per round when streaming.
+     */
+    private static final int STREAM_PAGE = RowStreams.FETCH_SIZE;
+
+    /**
+     * The connections each shard's pool holds, Hikari's default.
+     */
+    private static final int SHARD_POOL_SIZE = 10;
+
+    /**
+     * The JDBC template for reading products from the primary.
+     */
+    private final JdbcTemplate primaryJdbcTemplate;
+
+    /**
+     * Runs transactions on the primary, to lock users while their orders
+     * are written.
+     */
+    private final TransactionTemplate primaryTransaction;
+
+    /**
+     * The shards, by position. A single entry for the primary when unsharded.
+     */
+    private final List<Shard> shards = new ArrayList<>();
+
+    /**
+     * The shard data sources created here, closed on shutdown.
+     */
+    private final List<HikariDataSource> created = new ArrayList<>();
+
+    /**
+     * Queries the other shards while the caller reads the first, or null
+     * when unsharded.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates the shards.
+     *
+     * @param dataSource The application's data source.
+     * @param transactionManager The application's transaction manager.
+     * @param environment The environment to read the shard settings from.
+     */
+    public OrderShards(DataSource dataSource, PlatformTransactionManager transactionManager, Environment environment) {
+        this.primaryJdbcTemplate = new JdbcTemplate(dataSource);
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        String urls = environment.getProperty("webstore.shards.urls", "");
+        if (urls.isBlank()) {
+            shards.add(new Shard(new JdbcTemplate(dataSource), RowStreams.template(dataSource), new TransactionTemplate(transactionManager)));
+            this.executor = null;
+            return;
+        }
+        if (environment.getProperty("webstore.ids.block-size", Integer.class, 0) > 0) {
+            throw new IllegalStateException("webstore.ids.block-size cannot be used with webstore.shards.urls");
+        }
+        String[] shardUrls = urls.split(",");
+        if (shardUrls.length > MAX_SHARDS) {
+            throw new IllegalStateException("At most " + MAX_SHARDS + " shards can be configured");
+        }
+        String username = environment.getProperty("webstore.shards.username", environment.getProperty("spring.datasource.username", ""));
+        String password = environment.getProperty("webstore.shards.password", environment.getProperty("spring.datasource.password", ""));
+        for (String url : shardUrls) {
+            HikariDataSource shard = new HikariDataSource();
+            shard.setJdbcUrl(url.trim());
+            shard.setUsername(username);
+            shard.setPassword(password);
+            shard.setPoolName("order-shard-" + shards.size());
+            shard.setConnectionInitSql("SET SESSION auto_increment_increment = " + MAX_SHARDS +
+                    ", auto_increment_offset = " + (shards.size() + 1));
+            created.add(shard);
+            shards.add(new Shard(new JdbcTemplate(shard), RowStreams.template(shard),
+                    new TransactionTemplate(new DataSourceTransactionManager(shard))));
+        }
+        int threads = environment.getProperty("webstore.shards.query-threads", Integer.class, shards.size() * SHARD_POOL_SIZE);
+        if (threads < 1) {
+            throw new IllegalStateException("webstore.shards.query-threads must be at least 1");
+        }
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "order-shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Whether orders are split over several databases.
+     *
+     * @return boolean
+     */
+    public boolean isSharded() {
+        return executor != null;
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return int
+     */
+    public int count() {
+        return shards.size();
+    }
+
+    /**
+     * Gets the shard that holds a user's orders.
+     *
+     * @param username The username as stored in users.
+     * @return int
+     */
+    public int ofUsername(String username) {
+        if (!isSharded() || username == null) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(username.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards.size());
+    }
+
+    /**
+     * Runs work for a user on the shard that holds their orders. When
+     * sharded, the user's row on the primary is locked, shared or exclusive,
+     * for as long as the work runs, so a user cannot be deleted while orders
+     * are written for them, and the work is given the username as stored.
+     * Unsharded the user is not looked up, since the foreign key from
+     * orders to users already checks it.
+     *
+     * @param username The username as given.
+     * @param exclusive Whether to lock the user's row for writing, to delete the user.
+     * @param work The work, given the shard and the username as stored, or -1 and null if there is no such user.
+     * @param <T> The type of the result.
+     * @return The result of the work.
+     */
+    public <T> T withUser(String username, boolean exclusive, BiFunction<Integer, String, T> work) {
+        if (!isSharded()) {
+            return work.apply(0, username);
+        }
+        return primaryTransaction.execute(status -> {
+            List<String> stored = primaryJdbcTemplate.queryForList("SELECT username FROM users WHERE username = ? " +
+                    (exclusive ? "FOR UPDATE;" : "LOCK IN SHARE MODE;"), String.class, username);
+            if (stored.isEmpty()) {
+                return work.apply(-1, null);
+            }
+            return work.apply(ofUsername(stored.get(0)), stored.get(0));
+        });
+    }
+
+    /**
+     * Gets the shard an order or order item id was issued by.
+     *
+     * @param id The id.
+     * @return int The shard, or -1 if no configured shard issues that id.
+     */
+    public int ofId(int id) {
+        if (!isSharded()) {
+            return 0;
+        }
+        if (id <= 0) {
+            return -1;
+        }
+        int shard = (id - 1) % MAX_SHARDS;
+        return shard < shards.size() ? shard : -1;
+    }
+
+    /**
+     * Gets the shard an existing order or order item id was issued by.
+     *
+     * @param id The id.
+     * @return int
+     * @throws ResponseStatusException 404 if no configured shard issues that id.
+     */
+    public int locate(int id) {
+        int shard = ofId(id);
+        if (shard < 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
+        }
+        return shard;
+    }
+
+    /**
+     * Gets the JDBC template for a shard.
+     *
+     * @param shard The shard.
+     * @return JdbcTemplate
+     */
+    public JdbcTemplate jdbc(int shard) {
+        return shards.get(shard).jdbcTemplate;
+    }
+
+    /**
+     * Runs work in a transaction on a shard, joining the caller's
+     * transaction on that shard if there is one.
+     *
+     * @param shard The shard.
+     * @param work The work, given the shard's JDBC template.
+     * @param <T> The type of the result.
+     * @return The result of the work.
+     */
+    public <T> T inTransaction(int shard, Function<JdbcTemplate, T> work) {
+        Shard target = shards.get(shard);
+        return target.transactionTemplate.execute(status -> work.apply(target.jdbcTemplate));
+    }
+
+    /**
+     * Runs a query on every shard at once. The caller runs the first
+     * shard's query while the pool runs the others.
+     *
+     * @param query The query, given a shard's JDBC template and position.
+     * @param <T> The type of the rows.
+     * @return List of each shard's rows, by shard.
+     */
+    public <T> List<List<T>> queryAll(BiFunction<JdbcTemplate, Integer, List<T>> query) {
+        if (!isSharded()) {
+            return List.of(query.apply(shards.get(0).jdbcTemplate, 0));
+        }
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>(shards.size());
+        for (int i = 1; i < shards.size(); i++) {
+            int shard = i;
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shards.get(shard).jdbcTemplate, shard), executor));
+        }
+        List<List<T>> results = new ArrayList<>(shards.size());
+        results.add(query.apply(shards.get(0).jdbcTemplate, 0));
+        try {
+            for (CompletableFuture<List<T>> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Runs a query on every shard at once and merges the results in id
+     * order. Each shard's result must already be sorted by id.
+     *
+     * @param query The query, given a shard's JDBC template and position.
+     * @param id Gets the id of a row.
+     * @param limit The most rows to return.
+     * @param <T> The type of the rows.
+     * @return List of T
+     */
+    public <T> List<T> merge(BiFunction<JdbcTemplate, Integer, List<T>> query, ToIntFunction<T> id, int limit) {
+        if (!isSharded()) {
+            return query.apply(shards.get(0).jdbcTemplate, 0);
+        }
+        List<List<T>> results = queryAll(query);
+
+        // Each head is {shard, position}, ordered by the id of the row it points at.
+        PriorityQueue<int[]> heads = new PriorityQueue<>(
+                Comparator.comparingInt(head -> id.applyAsInt(results.get(head[0]).get(head[1]))));
+        for (int i = 0; i < results.size(); i++) {
+            if (!results.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<T> rows = results.get(head[0]);
+            merged.add(rows.get(head[1]));
+            if (++head[1] < rows.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Feeds every row to a consumer in id order. Unsharded, the rows are
+     * streamed with one query; sharded, they are merged a page per shard
+     * at a time, so memory stays bounded by the page size.
+     *
+     * @param all The query for every row in id order, for the unsharded case.
+     * @param after Reads up to a number of rows after an id from a shard, in id order.
+     * @param id Gets the id of a row.
+     * @param consumer Receives each row.
+     * @param <T> The type of the rows.
+     */
+    public <T> void stream(Consumer<JdbcTemplate> all, PageQuery<T> after, ToIntFunction<T> id, Consumer<T> consumer) {
+        if (!isSharded()) {
+            all.accept(shards.get(0).streamingJdbcTemplate);
+            return;
+        }
+        int afterId = 0;
+        while (true) {
+            int from = afterId;
+            List<T> page = merge((jdbcTemplate, shard) -> after.read(jdbcTemplate, from, STREAM_PAGE), id, STREAM_PAGE);
+            page.forEach(consumer);
+            if (page.size() < STREAM_PAGE) {
+                return;
+            }
+            afterId = id.applyAsInt(page.get(page.size() - 1));
+        }
+    }
+
+    /**
+     * Writes products through to every shard's copy and recomputes the
+     * totals of the orders holding them. Does nothing when unsharded.
+     *
+     * @param products The products as written to the primary.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders whose totals changed.
+     */
+    public int copyProducts(List<Product> products, long version) {
+        if (!isSharded() || products.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> rows = new ArrayList<>(products.size());
+        List<Integer> ids = new ArrayList<>(products.size());
+        for (Product product : products) {
+            rows.add(new Object[]{product.getId(), product.getName(), product.getPrice(), product.getVersion()});
+            ids.add(product.getId());
+        }
+        int changed = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            changed += inTransaction(i, jdbcTemplate -> {
+                jdbcTemplate.batchUpdate("INSERT INTO products (id, name, price, version) VALUES (?, ?, ?, ?) " +
+                        "ON DUPLICATE KEY UPDATE name = VALUES(name), price = VALUES(price), version = VALUES(version);", rows);
+                return OrderTotals.rebuildProducts(jdbcTemplate, ids, version);
+            });
+        }
+        return changed;
+    }
+
+    /**
+     * Deletes a product from every shard's copy, taking its items out of
+     * their orders first. Does nothing when unsharded.
+     *
+     * @param id The product.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders whose totals changed.
+     */
+    public int removeProduct(int id, long version) {
+        if (!isSharded()) {
+            return 0;
+        }
+        int changed = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            changed += inTransaction(i, jdbcTemplate -> {
+                int removed = OrderTotals.removed(jdbcTemplate, id, version);
+                jdbcTemplate.update("DELETE FROM products WHERE id = ?;", id);
+                return removed;
+            });
+        }
+        return changed;
+    }
+
+    /**
+     * Recomputes the item count and total of every order on every shard.
+     * When sharded, each shard's products are first made to match the
+     * primary's, which also seeds a new shard.
+     *
+     * @param version The new version of the changed orders.
+     * @return int The number of orders that were repaired.
+     */
+    public int rebuildTotals(long version) {
+        List<Object[]> products = isSharded()
+                ? primaryJdbcTemplate.query("SELECT id, name, price, version FROM products;", (resultSet, rowNumber) -> new Object[]{
+                        resultSet.getInt("id"), resultSet.getString("name"), resultSet.getBigDecimal("price"), resultSet.getLong("version")})
+                : List.of();
+        Set<Integer> ids = new HashSet<>();
+        products.forEach(row -> ids.add((Integer) row[0]));
+
+        int repaired = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            repaired += inTransaction(i, jdbcTemplate -> {
+                if (isSharded()) {
+                    List<Object[]> gone = jdbcTemplate.queryForList("SELECT id FROM products;", Integer.class).stream()
+                            .filter(id -> !ids.contains(id))
+                            .map(id -> new Object[]{id})
+                            .toList();
+                    jdbcTemplate.batchUpdate("DELETE FROM products WHERE id = ?;", gone);
+                    jdbcTemplate.batchUpdate("INSERT INTO products (id, name, price, version) VALUES (?, ?, ?, ?) " +
+                            "ON DUPLICATE KEY UPDATE name = VALUES(name), price = VALUES(price), version = VALUES(version);", products);
+                }
+                return OrderTotals.rebuild(jdbcTemplate, version);
+            });
+        }
+        return repaired;
+    }
+
+    /**
+     * Deletes a user's orders, and with them their items, from the user's
+     * shard. Unsharded, the foreign key on orders already does this.
+     *
+     * @param username The username as stored in users.
+     * @return int The number of orders deleted.
+     */
+    public int deleteOrdersOf(String username) {
+        if (!isSharded()) {
+            return 0;
+        }
+        return jdbc(ofUsername(username)).update("DELETE FROM orders WHERE username = ?;", username);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        created.forEach(HikariDataSource::close);
+    }
+
+    /**
+     * Reads a page of rows after an id.
+     *
+     * @param <T> The type of the rows.
+     */
+    @FunctionalInterface
+    public interface PageQuery<T> {
+        /**
+         * Reads up to a number of rows after an id, in id order.
+         *
+         * @param jdbcTemplate The JDBC template to read with.
+         * @param afterId The id to start after.
+         * @param limit The most rows to read.
+         * @return List of T
+         */
+        List<T> read(JdbcTemplate jdbcTemplate, int afterId, int limit);
+    }
+
+    /**
+     * The templates for one shard.
+     */
+    private static class Shard {
+        /**
+         * The JDBC template for the shard.
+         */
+        private final JdbcTemplate jdbcTemplate;
+
+        /**
+         * The JDBC template for streaming from the shard.
+         */
+        private final JdbcTemplate streamingJdbcTemplate;
+
+        /**
+         * Runs work in a transaction on the shard.
+         */
+        private final TransactionTemplate transactionTemplate;
+
+        Shard(JdbcTemplate jdbcTemplate, JdbcTemplate streamingJdbcTemplate, TransactionTemplate transactionTemplate) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.streamingJdbcTemplate = streamingJdbcTemplate;
+            this.transactionTemplate = transactionTemplate;
+        }
+    }
+}
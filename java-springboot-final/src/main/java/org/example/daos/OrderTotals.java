@@ -0,0 +1,152 @@
+package org.example.daos;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the item count and total on each order in step with its items.
+ * <p>
+ * Single item writes apply a delta to the affected orders in the same
+ * transaction as the write: the item count moves by one and the total by
+ * quantity * price. A price change moves the total of every order holding
+ * the product by quantity * (new price - old price), so these statements
+ * must run before the product row changes. Bulk writes, whose previous
+ * values are not known, recompute the orders they touched instead, and
+ * {@link #rebuild(JdbcTemplate, long)} repairs any drift left by writes
+ * made outside the DAOs.
+ */
+final class OrderTotals {
+    /**
+     * Each order's item count and total, computed from its items.
+     */
+    private static final String COMPUTED = "SELECT oi.order_id, COUNT(*) AS item_count, " +
+            "SUM(oi.quantity * COALESCE(p.price, 0)) AS total " +
+            "FROM order_items oi LEFT JOIN products p ON p.id = oi.product_id ";
+
+    private OrderTotals() {
+    }
+
+    /**
+     * Adds an item to an order's item count and total, or removes it.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param orderId The order the item belongs to.
+     * @param productId The product of the item.
+     * @param quantity The quantity of the item.
+     * @param sign 1 to add the item, -1 to remove it.
+     * @param version The new version of the order.
+     * @return int The number of orders changed.
+     */
+    static int add(JdbcTemplate jdbcTemplate, int orderId, int productId, int quantity, int sign, long version) {
+        return jdbcTemplate.update("UPDATE orders SET item_count = item_count + ?, " +
+                "total = total + ? * COALESCE((SELECT price FROM products WHERE id = ?), 0), version = ? WHERE id = ?;",
+                sign, sign * quantity, productId, version, orderId);
+    }
+
+    /**
+     * Moves the totals of every order holding a product to a new price.
+     * Must run before the product's price is changed.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param productId The product whose price changes.
+     * @param price The new price.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders changed.
+     */
+    static int repriced(JdbcTemplate jdbcTemplate, int productId, BigDecimal price, long version) {
+        return jdbcTemplate.update("UPDATE orders o " +
+                "JOIN (SELECT order_id, SUM(quantity) AS quantity FROM order_items WHERE product_id = ? GROUP BY order_id) i ON i.order_id = o.id " +
+                "JOIN products p ON p.id = ? " +
+                "SET o.total = o.total + i.quantity * (COALESCE(?, 0) - COALESCE(p.price, 0)), o.version = ? " +
+                "WHERE NOT p.price <=> ?;",
+                productId, productId, price, version, price);
+    }
+
+    /**
+     * Removes every item of a product from its orders' item counts and
+     * totals. Must run before the product is deleted, since the delete
+     * cascades to the items.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param productId The product being deleted.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders changed.
+     */
+    static int removed(JdbcTemplate jdbcTemplate, int productId, long version) {
+        return jdbcTemplate.update("UPDATE orders o " +
+                "JOIN (SELECT order_id, COUNT(*) AS item_count, SUM(quantity) AS quantity FROM order_items WHERE product_id = ? GROUP BY order_id) i ON i.order_id = o.id " +
+                "JOIN products p ON p.id = ? " +
+                "SET o.item_count = o.item_count - i.item_count, o.total = o.total - i.quantity * COALESCE(p.price, 0), o.version = ?;",
+                productId, productId, version);
+    }
+
+    /**
+     * Recomputes the item count and total of some orders.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param orderIds The orders to recompute.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders whose item count or total changed.
+     */
+    static int rebuildOrders(JdbcTemplate jdbcTemplate, Collection<Integer> orderIds, long version) {
+        if (orderIds.isEmpty()) {
+            return 0;
+        }
+        return rebuild(jdbcTemplate, "IN (" + placeholders(orderIds.size()) + ")", new ArrayList<>(orderIds), version);
+    }
+
+    /**
+     * Recomputes the item count and total of every order holding some products.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param productIds The products whose orders are recomputed.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders whose item count or total changed.
+     */
+    static int rebuildProducts(JdbcTemplate jdbcTemplate, Collection<Integer> productIds, long version) {
+        if (productIds.isEmpty()) {
+            return 0;
+        }
+        return rebuild(jdbcTemplate, "IN (SELECT order_id FROM order_items WHERE product_id IN (" + placeholders(productIds.size()) + "))",
+                new ArrayList<>(productIds), version);
+    }
+
+    /**
+     * Recomputes the item count and total of every order.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param version The new version of the changed orders.
+     * @return int The number of orders whose item count or total had drifted.
+     */
+    static int rebuild(JdbcTemplate jdbcTemplate, long version) {
+        return rebuild(jdbcTemplate, null, List.of(), version);
+    }
+
+    /**
+     * Recomputes the item count and total of the orders whose id matches a
+     * condition, writing only the orders that are actually off.
+     *
+     * @param ids The condition on the order id, such as {@code IN (?, ?)}, or null for every order.
+     * @param args The arguments of the condition.
+     */
+    private static int rebuild(JdbcTemplate jdbcTemplate, String ids, List<Object> args, long version) {
+        String sql = "UPDATE orders o LEFT JOIN (" + COMPUTED + (ids == null ? "" : "WHERE oi.order_id " + ids + " ") +
+                "GROUP BY oi.order_id) c ON c.order_id = o.id " +
+                "SET o.item_count = COALESCE(c.item_count, 0), o.total = COALESCE(c.total, 0), o.version = ? " +
+                "WHERE " + (ids == null ? "" : "o.id " + ids + " AND ") +
+                "(o.item_count <> COALESCE(c.item_count, 0) OR o.total <> COALESCE(c.total, 0));";
+        List<Object> allArgs = new ArrayList<>(args);
+        allArgs.add(version);
+        allArgs.addAll(args);
+        return jdbcTemplate.update(sql, allArgs.toArray());
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
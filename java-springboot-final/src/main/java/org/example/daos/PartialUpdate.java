@@ -0,0 +1,151 @@
+package org.example.daos;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Builds an UPDATE statement that writes only the columns whose values
+ * actually change, and reads typed values out of a PATCH request body.
+ */
+final class PartialUpdate {
+    private final String table;
+    private final List<String> assignments = new ArrayList<>();
+    private final List<Object> args = new ArrayList<>();
+
+    /**
+     * Creates a partial update for a table.
+     *
+     * @param table The table to update, keyed by its id column.
+     */
+    PartialUpdate(String table) {
+        this.table = table;
+    }
+
+    /**
+     * Adds a column to the update if its value changes.
+     *
+     * @param column The column name.
+     * @param current The value currently stored.
+     * @param updated The value to store.
+     * @return This partial update.
+     */
+    PartialUpdate set(String column, Object current, Object updated) {
+        boolean same = current instanceof BigDecimal a && updated instanceof BigDecimal b
+                ? a.compareTo(b) == 0
+                : Objects.equals(current, updated);
+        if (!same) {
+            assignments.add(column + " = ?");
+            args.add(updated);
+        }
+        return this;
+    }
+
+    /**
+     * Whether no column changes.
+     *
+     * @return boolean
+     */
+    boolean isEmpty() {
+        return assignments.isEmpty();
+    }
+
+    /**
+     * Writes the changed columns of a row, or does nothing if none changed.
+     *
+     * @param jdbcTemplate The JDBC template to write with.
+     * @param id The id of the row.
+     * @return int The number of rows affected.
+     */
+    int execute(JdbcTemplate jdbcTemplate, int id) {
+        if (assignments.isEmpty()) {
+            return 0;
+        }
+        List<Object> all = new ArrayList<>(args);
+        all.add(id);
+        return jdbcTemplate.update("UPDATE " + table + " SET " + String.join(", ", assignments) + " WHERE id = ?;",
+                all.toArray());
+    }
+
+    /**
+     * Rejects a PATCH body that names fields the resource does not have.
+     * An {@code id} field is ignored, since the id comes from the path.
+     *
+     * @param changes The PATCH body.
+     * @param fields The fields that can be changed.
+     */
+    static void checkFields(Map<String, Object> changes, Set<String> fields) {
+        for (String key : changes.keySet()) {
+            if (!key.equals("id") && !fields.contains(key)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field " + key);
+            }
+        }
+    }
+
+    /**
+     * Gets a string field from a PATCH body.
+     *
+     * @param changes The PATCH body.
+     * @param field The field name.
+     * @param current The value to keep if the field is absent.
+     * @return String
+     */
+    static String stringValue(Map<String, Object> changes, String field, String current) {
+        if (!changes.containsKey(field)) {
+            return current;
+        }
+        Object value = changes.get(field);
+        if (value != null && !(value instanceof String)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, field + " must be a string");
+        }
+        return (String) value;
+    }
+
+    /**
+     * Gets an integer field from a PATCH body.
+     *
+     * @param changes The PATCH body.
+     * @param field The field name.
+     * @param current The value to keep if the field is absent.
+     * @return int
+     */
+    static int intValue(Map<String, Object> changes, String field, int current) {
+        if (!changes.containsKey(field)) {
+            return current;
+        }
+        if (!(changes.get(field) instanceof Integer value)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, field + " must be an integer");
+        }
+        return value;
+    }
+
+    /**
+     * Gets a decimal field from a PATCH body.
+     *
+     * @param changes The PATCH body.
+     * @param field The field name.
+     * @param current The value to keep if the field is absent.
+     * @return BigDecimal
+     */
+    static BigDecimal decimalValue(Map<String, Object> changes, String field, BigDecimal current) {
+        if (!changes.containsKey(field)) {
+            return current;
+        }
+        Object value = changes.get(field);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value.toString());
+        } catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, field + " must be a number");
+        }
+    }
+}
@@ -1,33 +1,87 @@
 package org.example.daos;
 
-import org.example.exceptions.DaoException;
+import org.example.config.CacheConfiguration;
+import org.example.models.BulkResult;
 import org.example.models.Product;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 @Component
 public class ProductDao {
 
     private final JdbcTemplate jdbcTemplate;
 
-    public ProductDao(DataSource dataSource) {
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    private final IdAllocator idAllocator;
+
+    private final OrderShards shards;
+
+    private final EntityVersions versions;
+
+    private final ApplicationEventPublisher events;
+
+    private final Inventory inventory;
+
+    private static final Set<String> PATCH_FIELDS = Set.of("name", "price");
+
+    public ProductDao(DataSource dataSource, IdAllocator idAllocator, OrderShards shards, EntityVersions versions, ApplicationEventPublisher events,
+                      Inventory inventory) {
         this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate = RowStreams.template(dataSource);
+        this.idAllocator = idAllocator;
+        this.shards = shards;
+        this.versions = versions;
+        this.events = events;
+        this.inventory = inventory;
     }
 
+    @Cacheable(CacheConfiguration.PRODUCT_LISTS)
     public List<Product> getAllProduct(){
         String sql = "SELECT * FROM products;";
         return jdbcTemplate.query(sql, this::mapToProduct);
     }
 
+    public List<Product> findProducts(BigDecimal minPrice, BigDecimal maxPrice, String name,
+                                      String sort, String direction, String after, Integer limit){
+        return new ProductListing(sort, direction)
+                .price(minPrice, maxPrice)
+                .namePrefix(name)
+                .after(after)
+                .query(jdbcTemplate, this::mapToProduct, limit);
+    }
+
+    public static String sortKey(Product product, String sort){
+        return ProductListing.key(product, sort);
+    }
+
+    public void streamAllProduct(Consumer<Product> consumer){
+        String sql = "SELECT * FROM products ORDER BY id;";
+        streamingJdbcTemplate.query(sql, (ResultSet resultSet) -> consumer.accept(mapToProduct(resultSet, resultSet.getRow())));
+    }
+
+    @Cacheable(CacheConfiguration.PRODUCTS)
     public Product getProductById(int id){
 
         String sql = "SELECT * FROM products WHERE id = ?;";
@@ -38,47 +92,199 @@ public class ProductDao {
         }
     }
 
+    /**
+     * Gets the stock of a product that can still be reserved, or null when
+     * its stock is not tracked. See {@link Inventory}.
+     */
+    public Integer getStock(int id){
+        return inventory.available(id);
+    }
+
+    /**
+     * Sets the stock of a product, or stops tracking it with null.
+     */
+    public void setStock(int id, Integer stock){
+        inventory.set(id, stock);
+    }
+
+    /**
+     * Gives back the stock leased by nodes that stopped renewing their
+     * leases.
+     *
+     * @return int The units given back.
+     */
+    public int reconcileStock(){
+        return inventory.reconcile();
+    }
+
+    @Caching(
+            put = @CachePut(cacheNames = CacheConfiguration.PRODUCTS, key = "#result.id"),
+            evict = @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_LISTS, allEntries = true))
     public Product createProduct(Product product){
-        int sqlId = getAllProduct().size() + 1;
-        String sql = "INSERT INTO products (id, name, price) VALUES(?, ? ,?);";
-        try {
-            jdbcTemplate.update(sql, sqlId, product.getName(), product.getPrice());
-            return getProductById(sqlId);
+        BigDecimal price = price(product.getPrice());
+        long version = versions.next();
+        int sqlId = idAllocator.insert("products", "name, price, version", product.getName(), price, version);
+        versions.written("products", sqlId, version);
+        Product created = new Product(sqlId, product.getName(), price, version);
+        copyToShards(List.of(created));
+        events.publishEvent(ProductsChanged.written(List.of(created)));
+        return created;
+    }
+
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfiguration.PRODUCTS, CacheConfiguration.PRODUCT_LISTS}, allEntries = true)
+    public List<BulkResult> saveProducts(List<Product> products, boolean upsert){
+        long version = versions.next();
+        List<BulkResult> results = BulkWrites.save(jdbcTemplate, idAllocator, "products", "name, price, version", products, upsert,
+                Product::getId, product -> new Object[]{product.getName(), product.getPrice(), version});
+        versions.written("products", results.stream().map(BulkResult::getId).toList());
+        if (upsert){
+            List<Integer> upserted = products.stream().map(Product::getId).filter(id -> id > 0).toList();
+            if (OrderTotals.rebuildProducts(jdbcTemplate, upserted, version) > 0){
+                versions.cascaded("orders");
+            }
         }
-        catch(EmptyResultDataAccessException e){
-            throw new DaoException("Failed to create order");
+        List<Product> saved = new ArrayList<>(results.size());
+        for (BulkResult result : results){
+            Product product = products.get(result.getIndex());
+            saved.add(new Product(result.getId(), product.getName(), price(product.getPrice()), version));
         }
-
+        copyToShards(saved);
+        events.publishEvent(ProductsChanged.written(saved));
+        return results;
     }
 
+    @Caching(
+            put = @CachePut(cacheNames = CacheConfiguration.PRODUCTS, key = "#result.id"),
+            evict = @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_LISTS, allEntries = true))
+    @Transactional
     public Product updateProduct(Product product, int id){
-        String sql = "UPDATE products SET name = ?, price = ? WHERE id = ?;";
-        int rowsAffected = jdbcTemplate.update(sql, product.getName(),product.getPrice(), product.getId());
+        String sql = "UPDATE products SET name = ?, price = ?, version = ? WHERE id = ?;";
+        BigDecimal price = price(product.getPrice());
+        lockProduct(id);
+        long version = versions.next();
+        repriceOrders(id, price, version);
+        int rowsAffected = jdbcTemplate.update(sql, product.getName(), price, version, id);
         if(rowsAffected == 0 ){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
         }
         else{
-        return getProductById(product.getId());}
+        versions.written("products", id, version);
+        Product updated = new Product(id, product.getName(), price, version);
+        copyToShards(List.of(updated));
+        events.publishEvent(ProductsChanged.written(List.of(updated)));
+        return updated;}
+    }
+
+    /**
+     * Changes only the fields present in the PATCH body. A body that sets
+     * every field is written without reading the row first; otherwise the
+     * row is locked, merged and only changed columns are written.
+     */
+    @Transactional
+    @Caching(
+            put = @CachePut(cacheNames = CacheConfiguration.PRODUCTS, key = "#result.id"),
+            evict = @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_LISTS, allEntries = true))
+    public Product patchProduct(int id, Map<String, Object> changes){
+        PartialUpdate.checkFields(changes, PATCH_FIELDS);
+        if (changes.keySet().containsAll(PATCH_FIELDS)){
+            return updateProduct(new Product(id,
+                    PartialUpdate.stringValue(changes, "name", null),
+                    PartialUpdate.decimalValue(changes, "price", null)), id);
+        }
+        Product current = lockProduct(id);
+        Product patched = new Product(id,
+                PartialUpdate.stringValue(changes, "name", current.getName()),
+                price(PartialUpdate.decimalValue(changes, "price", current.getPrice())),
+                current.getVersion());
+        PartialUpdate update = new PartialUpdate("products")
+                .set("name", current.getName(), patched.getName())
+                .set("price", current.getPrice(), patched.getPrice());
+        if (!update.isEmpty()){
+            patched.setVersion(versions.next());
+            repriceOrders(id, patched.getPrice(), patched.getVersion());
+            update.set("version", current.getVersion(), patched.getVersion()).execute(jdbcTemplate, id);
+            versions.written("products", id, patched.getVersion());
+            copyToShards(List.of(patched));
+            events.publishEvent(ProductsChanged.written(List.of(patched)));
+        }
+        return patched;
     }
 
+    private Product lockProduct(int id){
+        try{
+            return jdbcTemplate.queryForObject("SELECT * FROM products WHERE id = ? FOR UPDATE;", this::mapToProduct, id);
+        }
+        catch(EmptyResultDataAccessException e){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
+        }
+    }
+
+    /**
+     * Moves the totals of the orders holding a product to its new price.
+     * Runs before the product row changes, since the delta is taken from
+     * the old price, and after it is locked, so no checkout still pricing
+     * the product at the old price can commit in between.
+     */
+    private void repriceOrders(int id, BigDecimal price, long version){
+        if (OrderTotals.repriced(jdbcTemplate, id, price, version) > 0){
+            versions.cascaded("orders");
+        }
+    }
+
+    /**
+     * Writes products through to the copies on the order shards, which
+     * reprices the orders holding them there. Each shard commits on its
+     * own, before the primary does; a rebuild of the order totals resyncs
+     * a shard that was left behind.
+     */
+    private void copyToShards(List<Product> products){
+        if (shards.isSharded() && shards.copyProducts(products, versions.next()) > 0){
+            versions.cascaded("orders");
+        }
+    }
+
+    /**
+     * Rounds a price the way the decimal(10, 2) column stores it, so a
+     * response built from the request matches what a read would return.
+     */
+    private static BigDecimal price(BigDecimal price){
+        return price == null ? null : price.setScale(2, RoundingMode.HALF_UP);
+    }
+
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfiguration.PRODUCTS, key = "#id"),
+            @CacheEvict(cacheNames = CacheConfiguration.PRODUCT_LISTS, allEntries = true)})
+    @Transactional
     public int deleteProduct(int id){
         String sql = "DELETE FROM products where id = ?;";
+        lockProduct(id);
+        if (OrderTotals.removed(jdbcTemplate, id, versions.next()) > 0){
+            versions.cascaded("orders");
+        }
         int rowsAffected = jdbcTemplate.update(sql, id);
         if (rowsAffected == 0){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Order not found");
         }
         else{
+            versions.deleted("products", id, "order_items");
+            if (shards.isSharded() && shards.removeProduct(id, versions.next()) > 0){
+                versions.cascaded("orders");
+            }
+            inventory.forget(id);
+            events.publishEvent(ProductsChanged.deleted(id));
             return rowsAffected;
         }
     }
 
 
-    private Product mapToProduct(ResultSet resultSet, int rowNumber) throws SQLException {
+    Product mapToProduct(ResultSet resultSet, int rowNumber) throws SQLException {
         int id = resultSet.getInt("id");
         return new Product(
                 id,
                 resultSet.getString("name"),
-                resultSet.getBigDecimal("price")
+                resultSet.getBigDecimal("price"),
+                resultSet.getLong("version")
         );
     }
 
@@ -0,0 +1,158 @@
+package org.example.daos;
+
+import org.example.models.Product;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the SELECT for a filtered, sorted product listing, paged by the
+ * sort column and id so that each page is a range scan of
+ * idx_products_price or idx_products_name rather than a full sort.
+ * <p>
+ * The cursor key of a product is its id alone when sorting by id, and
+ * otherwise its id and sort value separated by a colon. Products with no
+ * value in the sort column are left out of listings sorted by it.
+ */
+final class ProductListing {
+    /**
+     * The columns a listing can be sorted by.
+     */
+    private static final Map<String, String> SORT_COLUMNS = Map.of("id", "id", "price", "price", "name", "name");
+
+    private final String sort;
+    private final boolean descending;
+    private final List<String> conditions = new ArrayList<>();
+    private final List<Object> args = new ArrayList<>();
+
+    /**
+     * Creates a listing.
+     *
+     * @param sort "id", "price" or "name", the column to sort by.
+     * @param direction "asc" or "desc".
+     */
+    ProductListing(String sort, String direction) {
+        if (!SORT_COLUMNS.containsKey(sort)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be id, price or name");
+        }
+        if (!direction.equals("asc") && !direction.equals("desc")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "direction must be asc or desc");
+        }
+        this.sort = SORT_COLUMNS.get(sort);
+        this.descending = direction.equals("desc");
+        if (!this.sort.equals("id")) {
+            conditions.add(this.sort + " IS NOT NULL");
+        }
+    }
+
+    /**
+     * Keeps products priced from a minimum to a maximum, inclusive.
+     *
+     * @param minPrice The lowest price, or null.
+     * @param maxPrice The highest price, or null.
+     * @return This listing.
+     */
+    ProductListing price(BigDecimal minPrice, BigDecimal maxPrice) {
+        if (minPrice != null) {
+            conditions.add("price >= ?");
+            args.add(minPrice);
+        }
+        if (maxPrice != null) {
+            conditions.add("price <= ?");
+            args.add(maxPrice);
+        }
+        return this;
+    }
+
+    /**
+     * Keeps products whose name starts with a prefix. Whether case matters
+     * follows the collation of the name column.
+     *
+     * @param prefix The start of the name, or null.
+     * @return This listing.
+     */
+    ProductListing namePrefix(String prefix) {
+        if (prefix != null && !prefix.isEmpty()) {
+            conditions.add("name LIKE ?");
+            args.add(prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        return this;
+    }
+
+    /**
+     * Starts the listing after the product with a cursor key.
+     *
+     * @param key The cursor key of the last product on the previous page, or null.
+     * @return This listing.
+     */
+    ProductListing after(String key) {
+        if (key == null) {
+            return this;
+        }
+        String comparison = descending ? "<" : ">";
+        try {
+            if (sort.equals("id")) {
+                conditions.add("id " + comparison + " ?");
+                args.add(Integer.parseInt(key));
+                return this;
+            }
+            int colon = key.indexOf(':');
+            int id = Integer.parseInt(key.substring(0, colon));
+            Object value = sort.equals("price") ? new BigDecimal(key.substring(colon + 1)) : key.substring(colon + 1);
+            conditions.add("(" + sort + " " + comparison + " ? OR (" + sort + " = ? AND id " + comparison + " ?))");
+            args.add(value);
+            args.add(value);
+            args.add(id);
+            return this;
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    /**
+     * Reads the listing.
+     *
+     * @param jdbcTemplate The JDBC template to read with.
+     * @param mapper Maps a row to a product.
+     * @param limit The maximum number of products to read, or null for all.
+     * @return List of Product
+     */
+    List<Product> query(JdbcTemplate jdbcTemplate, RowMapper<Product> mapper, Integer limit) {
+        String order = descending ? " DESC" : "";
+        StringBuilder sql = new StringBuilder("SELECT * FROM products");
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        sql.append(" ORDER BY ").append(sort).append(order);
+        if (!sort.equals("id")) {
+            sql.append(", id").append(order);
+        }
+        List<Object> all = new ArrayList<>(args);
+        if (limit != null) {
+            sql.append(" LIMIT ?");
+            all.add(limit);
+        }
+        return jdbcTemplate.query(sql.append(";").toString(), mapper, all.toArray());
+    }
+
+    /**
+     * Gets the cursor key of a product in a listing sorted by a column.
+     *
+     * @param product The product.
+     * @param sort "id", "price" or "name".
+     * @return String
+     */
+    static String key(Product product, String sort) {
+        return switch (sort) {
+            case "price" -> product.getId() + ":" + product.getPrice().toPlainString();
+            case "name" -> product.getId() + ":" + product.getName();
+            default -> String.valueOf(product.getId());
+        };
+    }
+}
@@ -0,0 +1,462 @@
+package org.example.daos;
+
+import org.example.models.Product;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory inverted index over product names, for the search box.
+ * <p>
+ * Names are folded to lower case without accents and split into words. Each
+ * word maps to the sorted ids of the products that contain it, and the words
+ * are kept in a sorted map, so all words starting with a prefix are one
+ * contiguous range. A query matches the products that have, for every word
+ * of the query, a word starting with it. Only the query word with the
+ * fewest postings is read; its products are then checked against the other
+ * words directly, so the work done is proportional to the rarest word's
+ * postings rather than to the catalog, and a common word cannot crowd a
+ * match out. At most {@code webstore.search.max-candidates} matches, those
+ * with the lowest ids, are ranked; a broader query loses the rest.
+ * <p>
+ * Results are ranked by: the whole name equals the query, the name starts
+ * with the query, every query word is a whole word of the name, then shorter
+ * names and lower ids first.
+ * <p>
+ * The index is built when the application starts and follows the
+ * {@link ProductsChanged} events the product DAO publishes after commit.
+ * Events that arrive during a rebuild are replayed on top of it, and a
+ * write older than the indexed version of its product is ignored. Products
+ * written outside the DAO are only picked up by {@link #reload()}.
+ */
+@Component
+public class ProductSearchIndex {
+    /**
+     * Anything that is not a letter or a digit separates words.
+     */
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * The accents left over after decomposing a name.
+     */
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /**
+     * The JDBC template for loading the index.
+     */
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    /**
+     * The most matches ranked for a query.
+     */
+    private final int maxCandidates;
+
+    /**
+     * Lets searches run while no write is being applied.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Serializes full rebuilds.
+     */
+    private final Object reloading = new Object();
+
+    /**
+     * Guards {@link #pending}.
+     */
+    private final Object events = new Object();
+
+    /**
+     * The current index, swapped whole by a rebuild.
+     */
+    private volatile Postings postings;
+
+    /**
+     * Events received while a rebuild is running, or null when none is.
+     */
+    private List<ProductsChanged> pending;
+
+    /**
+     * Creates a new product search index.
+     *
+     * @param dataSource The data source to load the index from.
+     * @param maxCandidates The most matches ranked for a query.
+     */
+    public ProductSearchIndex(DataSource dataSource, @Value("${webstore.search.max-candidates:10000}") int maxCandidates) {
+        this.streamingJdbcTemplate = RowStreams.template(dataSource);
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Builds the index once the application is up. If the products table is
+     * not there yet, the index is built by the first search instead.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        try {
+            reload();
+        } catch (DataAccessException e) {
+            // Left for the first search to build.
+        }
+    }
+
+    /**
+     * Reads every product again and replaces the index.
+     */
+    public void reload() {
+        synchronized (reloading) {
+            synchronized (events) {
+                pending = new ArrayList<>();
+            }
+            Postings loaded = new Postings();
+            try {
+                streamingJdbcTemplate.query("SELECT id, name, price, version FROM products;", (ResultSet resultSet) ->
+                        loaded.put(new Product(resultSet.getInt("id"), resultSet.getString("name"),
+                                resultSet.getBigDecimal("price"), resultSet.getLong("version"))));
+            } catch (RuntimeException e) {
+                synchronized (events) {
+                    pending = null;
+                }
+                throw e;
+            }
+
+            synchronized (events) {
+                lock.writeLock().lock();
+                try {
+                    postings = loaded;
+                    pending.forEach(this::apply);
+                    pending = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies product writes once they have committed.
+     *
+     * @param event The change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsChanged(ProductsChanged event) {
+        synchronized (events) {
+            if (pending != null) {
+                pending.add(event);
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (postings != null) {
+                    apply(event);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Finds the products whose names match a query, best match first.
+     *
+     * @param query The words, or beginnings of words, to look for.
+     * @param limit The maximum number of products to return.
+     * @return List of Product
+     */
+    public List<Product> search(String query, int limit) {
+        String[] words = words(query);
+        if (words.length == 0) {
+            return List.of();
+        }
+        if (postings == null) {
+            reload();
+        }
+
+        lock.readLock().lock();
+        try {
+            // Read only the word with the fewest postings, and check its products against the others.
+            String rarest = words[0];
+            int fewest = Integer.MAX_VALUE;
+            for (String word : words) {
+                int count = postings.countStartingWith(word);
+                if (count == 0) {
+                    return List.of();
+                }
+                if (count < fewest) {
+                    rarest = word;
+                    fewest = count;
+                }
+            }
+            int[] ids = postings.startingWith(rarest);
+            int[] candidates = new int[Math.min(ids.length, maxCandidates)];
+            int size = 0;
+            for (int i = 0; i < ids.length && size < candidates.length; i++) {
+                if (postings.matches(ids[i], words)) {
+                    candidates[size++] = ids[i];
+                }
+            }
+
+            String phrase = String.join(" ", words);
+            Comparator<Ranked> order = Comparator.<Ranked>comparingInt(ranked -> ranked.rank)
+                    .thenComparingInt(ranked -> ranked.product.getName().length())
+                    .thenComparingInt(ranked -> ranked.product.getId());
+            PriorityQueue<Ranked> best = new PriorityQueue<>(order.reversed());
+            for (int i = 0; i < size; i++) {
+                Product product = postings.products.get(candidates[i]);
+                best.add(new Ranked(product, rank(postings.folded.get(candidates[i]), phrase, words)));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+
+            List<Product> results = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                results.add(best.poll().product);
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an event to the current index. Callers hold the write lock.
+     */
+    private void apply(ProductsChanged event) {
+        for (Product product : event.getWritten()) {
+            postings.put(product);
+        }
+        if (event.getDeleted() > 0) {
+            postings.remove(event.getDeleted());
+        }
+    }
+
+    /**
+     * Ranks a name, already split into words, against a query, lower is
+     * better.
+     */
+    private static int rank(String[] nameWords, String phrase, String[] words) {
+        String folded = String.join(" ", nameWords);
+        if (folded.equals(phrase)) {
+            return 0;
+        }
+        if (folded.startsWith(phrase)) {
+            return 1;
+        }
+        Set<String> whole = new HashSet<>(Arrays.asList(nameWords));
+        for (String word : words) {
+            if (!whole.contains(word)) {
+                return 3;
+            }
+        }
+        return 2;
+    }
+
+    /**
+     * Splits text into lower case words without accents.
+     */
+    static String[] words(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("").toLowerCase(Locale.ROOT);
+        return Arrays.stream(SEPARATORS.split(folded)).filter(word -> !word.isEmpty()).toArray(String[]::new);
+    }
+
+    /**
+     * A product and how well it matched.
+     */
+    private static class Ranked {
+        /**
+         * The matching product.
+         */
+        private final Product product;
+
+        /**
+         * How well it matched, lower is better.
+         */
+        private final int rank;
+
+        Ranked(Product product, int rank) {
+            this.product = product;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * The word to product id postings and the products they point to.
+     */
+    private static class Postings {
+        /**
+         * The ids of the products containing each word, sorted by word.
+         */
+        private final NavigableMap<String, IntList> byWord = new TreeMap<>();
+
+        /**
+         * The indexed products by id.
+         */
+        private final Map<Integer, Product> products = new HashMap<>();
+
+        /**
+         * The words of each indexed product's name, by id.
+         */
+        private final Map<Integer, String[]> folded = new HashMap<>();
+
+        /**
+         * Indexes a product, unless a newer version of it is indexed
+         * already, as when an event is replayed after a rebuild that read
+         * its product later.
+         */
+        void put(Product product) {
+            Product indexed = products.get(product.getId());
+            if (indexed != null && indexed.getVersion() > product.getVersion()) {
+                return;
+            }
+            remove(product.getId());
+            String[] words = words(product.getName());
+            products.put(product.getId(), product);
+            folded.put(product.getId(), words);
+            for (String word : words) {
+                byWord.computeIfAbsent(word, key -> new IntList()).add(product.getId());
+            }
+        }
+
+        void remove(int id) {
+            products.remove(id);
+            String[] old = folded.remove(id);
+            if (old == null) {
+                return;
+            }
+            for (String word : old) {
+                IntList ids = byWord.get(word);
+                if (ids != null && ids.remove(id) && ids.size == 0) {
+                    byWord.remove(word);
+                }
+            }
+        }
+
+        /**
+         * Counts the postings of the words starting with a prefix, an upper
+         * bound on the products {@link #startingWith(String)} returns.
+         */
+        int countStartingWith(String prefix) {
+            int count = 0;
+            for (IntList postings : withPrefix(prefix).values()) {
+                count += postings.size;
+            }
+            return count;
+        }
+
+        /**
+         * Gets the sorted ids of the products with a word starting with a
+         * prefix.
+         */
+        int[] startingWith(String prefix) {
+            int[] ids = new int[0];
+            int size = 0;
+            for (IntList postings : withPrefix(prefix).values()) {
+                if (size + postings.size > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(size + postings.size, ids.length * 2));
+                }
+                System.arraycopy(postings.ids, 0, ids, size, postings.size);
+                size += postings.size;
+            }
+            Arrays.sort(ids, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, distinct);
+        }
+
+        /**
+         * Checks whether a product has, for every query word, a word
+         * starting with it.
+         */
+        boolean matches(int id, String[] words) {
+            String[] name = folded.get(id);
+            for (String word : words) {
+                boolean found = false;
+                for (String nameWord : name) {
+                    if (nameWord.startsWith(word)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private NavigableMap<String, IntList> withPrefix(String prefix) {
+            return byWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+    }
+
+    /**
+     * A sorted set of ids in a primitive array.
+     */
+    private static class IntList {
+        /**
+         * The ids, sorted, in the first {@link #size} slots.
+         */
+        private int[] ids = new int[2];
+
+        /**
+         * The number of ids.
+         */
+        private int size;
+
+        void add(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+            return true;
+        }
+    }
+}
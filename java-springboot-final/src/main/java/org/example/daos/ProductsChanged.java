@@ -0,0 +1,65 @@
+package org.example.daos;
+
+import org.example.models.Product;
+
+import java.util.List;
+
+/**
+ * Published by the DAOs when products are written or deleted, so in-memory
+ * copies of the products can follow along. Deleting a product also deletes
+ * its order items.
+ */
+public class ProductsChanged {
+    /**
+     * The written products, as they are now stored.
+     */
+    private final List<Product> written;
+
+    /**
+     * The id of the deleted product, or 0.
+     */
+    private final int deleted;
+
+    private ProductsChanged(List<Product> written, int deleted) {
+        this.written = written;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Creates an event for inserted or updated products.
+     *
+     * @param products The products as they are now stored.
+     * @return ProductsChanged
+     */
+    public static ProductsChanged written(List<Product> products) {
+        return new ProductsChanged(products, 0);
+    }
+
+    /**
+     * Creates an event for a deleted product.
+     *
+     * @param id The id of the product.
+     * @return ProductsChanged
+     */
+    public static ProductsChanged deleted(int id) {
+        return new ProductsChanged(List.of(), id);
+    }
+
+    /**
+     * Gets the written products.
+     *
+     * @return List of Product
+     */
+    public List<Product> getWritten() {
+        return written;
+    }
+
+    /**
+     * Gets the id of the deleted product.
+     *
+     * @return int The id, or 0 if no product was deleted.
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.daos;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Creates JDBC templates for queries whose rows are handed to the caller one
+ * at a time instead of being collected into a list.
+ */
+final class RowStreams {
+    /**
+     * The number of rows fetched from the server per round trip. MySQL only
+     * honors this when the connection URL sets {@code useCursorFetch=true};
+     * MariaDB honors it as is.
+     */
+    static final int FETCH_SIZE = 500;
+
+    private RowStreams() {
+    }
+
+    /**
+     * Creates a JDBC template that fetches rows in chunks of {@link #FETCH_SIZE}.
+     *
+     * @param dataSource The data source for the template.
+     * @return JdbcTemplate
+     */
+    static JdbcTemplate template(DataSource dataSource) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(FETCH_SIZE);
+        return jdbcTemplate;
+    }
+}
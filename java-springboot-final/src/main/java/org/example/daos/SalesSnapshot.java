@@ -0,0 +1,644 @@
+package org.example.daos;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.models.OrderItem;
+import org.example.models.Product;
+import org.example.models.ProductSales;
+import org.example.models.SnapshotStatistics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * An in-memory, column-oriented copy of order_items joined to products, for
+ * dashboards that aggregate sales every few seconds.
+ * <p>
+ * Each order item is one row across primitive arrays of order id, product
+ * id and quantity. Product prices (in cents) and names sit in arrays indexed
+ * by product id, so the join is an array lookup during the scan and a price
+ * change touches one slot. Queries split the rows into chunks, scan the
+ * chunks in parallel on the common fork-join pool and merge the per-chunk
+ * sums. An order may hold a product on several lines, so the number of
+ * orders per product is not summed by the scan but kept as rows change,
+ * from a count of the rows of each order and product pair.
+ * <p>
+ * The snapshot is loaded when the application starts and then follows the
+ * {@link OrderItemsChanged} and {@link ProductsChanged} events the DAOs
+ * publish, after their transactions commit. Events that arrive during a full
+ * reload are replayed on top of it; they are idempotent, so replaying one
+ * the reload already saw does no harm. Deleting a user deletes the rows of
+ * all of their orders in one pass. Writes made outside the DAOs are only
+ * picked up by {@link #reload()}. Orders carry no dates here, so date
+ * filters stay with {@link AnalyticsDao}. When orders are sharded the
+ * items are loaded from every shard through {@link OrderShards}, and
+ * products from the primary.
+ * <p>
+ * Off unless {@code webstore.analytics.snapshot.enabled=true}. The row
+ * count and memory footprint are published as {@code webstore.snapshot.rows}
+ * and {@code webstore.snapshot.bytes}, and query latency as
+ * {@code webstore.snapshot.query}.
+ */
+@Component
+@ConditionalOnProperty(name = "webstore.analytics.snapshot.enabled", havingValue = "true")
+public class SalesSnapshot {
+    /**
+     * The smallest number of rows worth handing to another core.
+     */
+    private static final int MIN_CHUNK = 1 << 16;
+
+    /**
+     * The JDBC template for loading the snapshot.
+     */
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    /**
+     * The order shards, to load the order items from.
+     */
+    private final OrderShards shards;
+
+    /**
+     * Lets queries scan while no write is being applied.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Serializes full reloads.
+     */
+    private final Object reloading = new Object();
+
+    /**
+     * Guards {@link #pending}.
+     */
+    private final Object events = new Object();
+
+    /**
+     * The latency of snapshot queries.
+     */
+    private final Timer queryTimer;
+
+    /**
+     * The current columns, swapped whole by a reload.
+     */
+    private volatile Columns columns;
+
+    /**
+     * Events received while a reload is running, or null when none is.
+     */
+    private List<Object> pending;
+
+    /**
+     * The time the last full load took, in milliseconds.
+     */
+    private volatile long loadMillis;
+
+    /**
+     * The time the last query took, in nanoseconds.
+     */
+    private volatile long lastQueryNanos;
+
+    /**
+     * Creates a new sales snapshot.
+     *
+     * @param dataSource The data source to load the products from.
+     * @param shards The order shards to load the order items from.
+     * @param registry The registry to publish the snapshot's metrics to.
+     */
+    public SalesSnapshot(DataSource dataSource, OrderShards shards, MeterRegistry registry) {
+        this.streamingJdbcTemplate = RowStreams.template(dataSource);
+        this.shards = shards;
+        this.queryTimer = Timer.builder("webstore.snapshot.query")
+                .description("Time spent answering a query from the in-memory sales snapshot")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("webstore.snapshot.rows", this, snapshot -> snapshot.getStatistics().getRows())
+                .description("Order items held by the in-memory sales snapshot")
+                .register(registry);
+        Gauge.builder("webstore.snapshot.bytes", this, snapshot -> snapshot.getStatistics().getBytes())
+                .description("Approximate memory taken by the in-memory sales snapshot")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Loads the snapshot once the application is up. If the tables are not
+     * there yet, the snapshot is loaded by the first query instead.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        try {
+            reload();
+        } catch (DataAccessException e) {
+            // Left for the first query to load.
+        }
+    }
+
+    /**
+     * Reads every order item and product again and replaces the snapshot.
+     */
+    public void reload() {
+        synchronized (reloading) {
+            synchronized (events) {
+                pending = new ArrayList<>();
+            }
+            long start = System.nanoTime();
+            Columns loaded = new Columns();
+            try {
+                streamingJdbcTemplate.query("SELECT id, name, price FROM products;", (ResultSet resultSet) ->
+                        loaded.putProduct(resultSet.getInt("id"), resultSet.getString("name"), cents(resultSet.getBigDecimal("price"))));
+                shards.stream(
+                        jdbcTemplate -> jdbcTemplate.query("SELECT id, order_id, product_id, quantity FROM order_items;", (ResultSet resultSet) ->
+                                loaded.put(resultSet.getInt("id"), resultSet.getInt("order_id"), resultSet.getInt("product_id"), resultSet.getInt("quantity"))),
+                        (jdbcTemplate, afterId, limit) -> jdbcTemplate.query("SELECT id, order_id, product_id, quantity FROM order_items WHERE id > ? ORDER BY id LIMIT ?;",
+                                (resultSet, rowNumber) -> new int[]{resultSet.getInt("id"), resultSet.getInt("order_id"), resultSet.getInt("product_id"), resultSet.getInt("quantity")},
+                                afterId, limit),
+                        row -> row[0],
+                        row -> loaded.put(row[0], row[1], row[2], row[3]));
+            } catch (RuntimeException e) {
+                synchronized (events) {
+                    pending = null;
+                }
+                throw e;
+            }
+
+            synchronized (events) {
+                lock.writeLock().lock();
+                try {
+                    columns = loaded;
+                    pending.forEach(this::apply);
+                    pending = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            loadMillis = (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+
+    /**
+     * Applies order item writes once they have committed.
+     *
+     * @param event The change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onOrderItemsChanged(OrderItemsChanged event) {
+        receive(event);
+    }
+
+    /**
+     * Applies product writes once they have committed.
+     *
+     * @param event The change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductsChanged(ProductsChanged event) {
+        receive(event);
+    }
+
+    /**
+     * Gets the units sold and revenue of each product, best selling first.
+     *
+     * @param sort "revenue" or "units", the measure to rank the products by.
+     * @param limit The maximum number of products to return.
+     * @return List of ProductSales
+     */
+    public List<ProductSales> getProductSales(String sort, int limit) {
+        boolean byRevenue = switch (sort) {
+            case "revenue" -> true;
+            case "units" -> false;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort must be revenue or units");
+        };
+        long start = System.nanoTime();
+        if (columns == null) {
+            reload();
+        }
+        lock.readLock().lock();
+        try {
+            Columns scanned = columns;
+            Totals totals = scanned.totals();
+            long[] measure = byRevenue ? totals.revenueCents : totals.units;
+            return IntStream.range(0, totals.units.length)
+                    .filter(productId -> scanned.orders(productId) > 0)
+                    .boxed()
+                    .sorted(Comparator.<Integer>comparingLong(productId -> measure[productId]).reversed()
+                            .thenComparing(Comparator.naturalOrder()))
+                    .limit(limit)
+                    .map(productId -> new ProductSales(productId, scanned.name(productId), totals.units[productId],
+                            BigDecimal.valueOf(totals.revenueCents[productId], 2), scanned.orders(productId)))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+            lastQueryNanos = System.nanoTime() - start;
+            queryTimer.record(lastQueryNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Gets the size of the snapshot and how long it took to load and query.
+     *
+     * @return SnapshotStatistics
+     */
+    public SnapshotStatistics getStatistics() {
+        lock.readLock().lock();
+        try {
+            Columns current = columns;
+            return new SnapshotStatistics(current == null ? 0 : current.size, current == null ? 0 : current.productCount(),
+                    current == null ? 0 : current.bytes(), loadMillis, lastQueryNanos / 1_000_000.0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an event now, or after the running reload.
+     */
+    private void receive(Object event) {
+        synchronized (events) {
+            if (pending != null) {
+                pending.add(event);
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                if (columns != null) {
+                    apply(event);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies an event to the current columns. Callers hold the write lock.
+     */
+    private void apply(Object event) {
+        if (event instanceof OrderItemsChanged change) {
+            switch (change.getKind()) {
+                case WRITTEN -> {
+                    for (OrderItem orderItem : change.getItems()) {
+                        columns.put(orderItem.getId(), orderItem.getOrderId(), orderItem.getProductId(), orderItem.getQuantity());
+                    }
+                }
+                case DELETED -> columns.remove(change.getId());
+                case ORDER_DELETED -> columns.removeWhere(columns.orderIds, change.getOrderIds()::contains);
+            }
+        } else if (event instanceof ProductsChanged change) {
+            for (Product product : change.getWritten()) {
+                columns.putProduct(product.getId(), product.getName(), cents(product.getPrice()));
+            }
+            if (change.getDeleted() > 0) {
+                columns.removeWhere(columns.productIds, productId -> productId == change.getDeleted());
+                columns.putProduct(change.getDeleted(), null, 0);
+            }
+        }
+    }
+
+    private static long cents(BigDecimal price) {
+        return price == null ? 0 : price.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /**
+     * The snapshot's arrays. Rows are kept dense: a deleted row is filled
+     * with the last row, and an index from item id to row finds a row in
+     * constant time.
+     */
+    private static class Columns {
+        /**
+         * The number of rows in use.
+         */
+        private int size;
+
+        /**
+         * The order item id of each row.
+         */
+        private int[] ids = new int[1024];
+
+        /**
+         * The order id of each row.
+         */
+        private int[] orderIds = new int[1024];
+
+        /**
+         * The product id of each row.
+         */
+        private int[] productIds = new int[1024];
+
+        /**
+         * The quantity of each row.
+         */
+        private int[] quantities = new int[1024];
+
+        /**
+         * The row of each order item id, or -1.
+         */
+        private int[] rowById = filled(new int[1024], 0);
+
+        /**
+         * The price in cents of each product id.
+         */
+        private long[] priceCents = new long[64];
+
+        /**
+         * The name of each product id, or null if there is no such product.
+         */
+        private String[] names = new String[64];
+
+        /**
+         * The number of distinct orders holding each product id.
+         */
+        private int[] orderCounts = new int[64];
+
+        /**
+         * The number of rows of each order and product pair.
+         */
+        private final PairCounts pairs = new PairCounts();
+
+        void put(int id, int orderId, int productId, int quantity) {
+            if (id >= rowById.length) {
+                int length = rowById.length;
+                rowById = filled(Arrays.copyOf(rowById, Math.max(id + 1, length + (length >> 1))), length);
+            }
+            int row = rowById[id];
+            if (row < 0) {
+                if (size == ids.length) {
+                    int capacity = size + (size >> 1);
+                    ids = Arrays.copyOf(ids, capacity);
+                    orderIds = Arrays.copyOf(orderIds, capacity);
+                    productIds = Arrays.copyOf(productIds, capacity);
+                    quantities = Arrays.copyOf(quantities, capacity);
+                }
+                row = size++;
+                ids[row] = id;
+                rowById[id] = row;
+            } else {
+                unpair(orderIds[row], productIds[row]);
+            }
+            orderIds[row] = orderId;
+            productIds[row] = productId;
+            quantities[row] = quantity;
+            pair(orderId, productId);
+        }
+
+        void remove(int id) {
+            if (id < rowById.length && rowById[id] >= 0) {
+                removeRow(rowById[id]);
+            }
+        }
+
+        void removeWhere(int[] column, IntPredicate test) {
+            // Walking backwards, the row moved into a hole has already been checked.
+            for (int row = size - 1; row >= 0; row--) {
+                if (test.test(column[row])) {
+                    removeRow(row);
+                }
+            }
+        }
+
+        private void removeRow(int row) {
+            unpair(orderIds[row], productIds[row]);
+            int id = ids[row];
+            int last = --size;
+            ids[row] = ids[last];
+            orderIds[row] = orderIds[last];
+            productIds[row] = productIds[last];
+            quantities[row] = quantities[last];
+            rowById[ids[row]] = row;
+            rowById[id] = -1;
+        }
+
+        void putProduct(int id, String name, long cents) {
+            ensureProduct(id);
+            names[id] = name;
+            priceCents[id] = cents;
+        }
+
+        String name(int productId) {
+            return productId < names.length ? names[productId] : null;
+        }
+
+        int orders(int productId) {
+            return productId < orderCounts.length ? orderCounts[productId] : 0;
+        }
+
+        private void ensureProduct(int id) {
+            if (id >= names.length) {
+                int capacity = Math.max(id + 1, names.length * 2);
+                names = Arrays.copyOf(names, capacity);
+                priceCents = Arrays.copyOf(priceCents, capacity);
+                orderCounts = Arrays.copyOf(orderCounts, capacity);
+            }
+        }
+
+        private void pair(int orderId, int productId) {
+            ensureProduct(productId);
+            if (pairs.add(orderId, productId, 1) == 1) {
+                orderCounts[productId]++;
+            }
+        }
+
+        private void unpair(int orderId, int productId) {
+            if (pairs.add(orderId, productId, -1) == 0) {
+                orderCounts[productId]--;
+            }
+        }
+
+        int productCount() {
+            return (int) Arrays.stream(names).filter(name -> name != null).count();
+        }
+
+        long bytes() {
+            long rows = 4L * (ids.length + orderIds.length + productIds.length + quantities.length + rowById.length);
+            long products = 8L * priceCents.length + 4L * names.length + 4L * orderCounts.length + pairs.bytes();
+            for (String name : names) {
+                if (name != null) {
+                    products += 40 + name.length();
+                }
+            }
+            return rows + products;
+        }
+
+        /**
+         * Sums units and revenue per product over every row, in parallel
+         * chunks.
+         */
+        Totals totals() {
+            int rows = size;
+            int products = priceCents.length;
+            int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, rows / MIN_CHUNK));
+            return IntStream.range(0, chunks).parallel()
+                    .mapToObj(chunk -> scan((int) ((long) rows * chunk / chunks), (int) ((long) rows * (chunk + 1) / chunks), products))
+                    .reduce(Totals::merge)
+                    .orElseGet(() -> new Totals(products));
+        }
+
+        private Totals scan(int from, int to, int products) {
+            Totals totals = new Totals(products);
+            int[] productColumn = productIds;
+            int[] quantityColumn = quantities;
+            long[] prices = priceCents;
+            for (int row = from; row < to; row++) {
+                int productId = productColumn[row];
+                if (productId < products) {
+                    int quantity = quantityColumn[row];
+                    totals.units[productId] += quantity;
+                    totals.revenueCents[productId] += quantity * prices[productId];
+                }
+            }
+            return totals;
+        }
+
+        private static int[] filled(int[] array, int from) {
+            Arrays.fill(array, from, array.length, -1);
+            return array;
+        }
+    }
+
+    /**
+     * Per product sums from a scan.
+     */
+    private static class Totals {
+        /**
+         * Units ordered per product id.
+         */
+        private final long[] units;
+
+        /**
+         * Revenue in cents per product id.
+         */
+        private final long[] revenueCents;
+
+        Totals(int products) {
+            this.units = new long[products];
+            this.revenueCents = new long[products];
+        }
+
+        Totals merge(Totals other) {
+            for (int i = 0; i < units.length; i++) {
+                units[i] += other.units[i];
+                revenueCents[i] += other.revenueCents[i];
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Counts per order and product pair, in an open-addressed table keyed by
+     * the two ids packed into a long. A pair whose count drops to zero is
+     * removed, so the table only holds pairs that have rows.
+     */
+    private static class PairCounts {
+        /**
+         * The packed pair of each slot.
+         */
+        private long[] keys = new long[1024];
+
+        /**
+         * The count of each slot, 0 for an empty slot.
+         */
+        private int[] counts = new int[1024];
+
+        /**
+         * The number of slots in use.
+         */
+        private int used;
+
+        /**
+         * Adds to the count of a pair.
+         *
+         * @return int The new count.
+         */
+        int add(int orderId, int productId, int delta) {
+            long key = ((long) orderId << 32) | (productId & 0xffffffffL);
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (counts[slot] == 0) {
+                if (delta <= 0) {
+                    return 0;
+                }
+                keys[slot] = key;
+                counts[slot] = delta;
+                if (++used * 2 > keys.length) {
+                    grow();
+                }
+                return delta;
+            }
+            int count = counts[slot] += delta;
+            if (count <= 0) {
+                used--;
+                removeSlot(slot);
+                return 0;
+            }
+            return count;
+        }
+
+        long bytes() {
+            return 12L * keys.length;
+        }
+
+        /**
+         * Empties a slot, moving later slots of the same run back so every
+         * pair stays reachable from its home slot.
+         */
+        private void removeSlot(int slot) {
+            int mask = keys.length - 1;
+            int hole = slot;
+            counts[hole] = 0;
+            for (int next = (hole + 1) & mask; counts[next] != 0; next = (next + 1) & mask) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    counts[hole] = counts[next];
+                    counts[next] = 0;
+                    hole = next;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[oldCounts.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldCounts[i] != 0) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (counts[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int hash(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+}
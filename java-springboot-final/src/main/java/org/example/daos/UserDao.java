@@ -1,42 +1,88 @@
 package org.example.daos;
 
-import org.example.exceptions.DaoException;
+import org.example.config.CacheConfiguration;
 import org.example.models.User;
+import org.example.models.UserAccount;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
 
 import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Data access object for users.
  */
 @Component
 public class UserDao {
+    /**
+     * The users cache key for a method's {@code username} argument, see
+     * {@link #cacheKey(String)}.
+     */
+    private static final String USER_KEY = "T(org.example.daos.UserDao).cacheKey(#username)";
+
     /**
      * The JDBC template for querying the database.
      */
     private final JdbcTemplate jdbcTemplate;
 
     /**
-     * The password encoder for the DAO.
+     * The JDBC template for queries that stream their rows.
+     */
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    /**
+     * The order shards, for the orders removed along with a user.
      */
-    private final PasswordEncoder passwordEncoder;
+    private final OrderShards shards;
+
+    /**
+     * The row versions, told about orders removed along with a user.
+     */
+    private final EntityVersions versions;
+
+    /**
+     * Publishes the order items removed along with a user.
+     */
+    private final ApplicationEventPublisher events;
+
+    /**
+     * The inventory, given back the stock of the order items removed along with a user.
+     */
+    private final Inventory inventory;
 
     /**jdbcTemplate
      * Creates a new user data access object.
      *
      * @param dataSource The data source for the DAO.
-     * @param passwordEncoder The password encoder for the DAO.
+     * @param shards The order shards.
+     * @param versions The row versions.
+     * @param events The publisher for change events.
+     * @param inventory The inventory.
      */
-    public UserDao(DataSource dataSource, PasswordEncoder passwordEncoder) {
+    public UserDao(DataSource dataSource, OrderShards shards, EntityVersions versions, ApplicationEventPublisher events,
+                   Inventory inventory) {
         this.jdbcTemplate = new JdbcTemplate(dataSource);
-        this.passwordEncoder = passwordEncoder;
+        this.streamingJdbcTemplate = RowStreams.template(dataSource);
+        this.shards = shards;
+        this.versions = versions;
+        this.events = events;
+        this.inventory = inventory;
     }
 
     /**
@@ -48,6 +94,28 @@ public class UserDao {
         return jdbcTemplate.query("SELECT * FROM users ORDER BY username;", this::mapToUser);
     }
 
+    /**
+     * Gets a page of users ordered by username.
+     *
+     * @param afterUsername Only users whose username sorts after this one are returned.
+     * @param limit The maximum number of users to return.
+     * @return List of User
+     */
+    public List<User> getUsersPage(String afterUsername, int limit) {
+        return jdbcTemplate.query("SELECT * FROM users WHERE username > ? ORDER BY username LIMIT ?;",
+                this::mapToUser, afterUsername, limit);
+    }
+
+    /**
+     * Streams all users ordered by username, without collecting them into a list.
+     *
+     * @param consumer Receives each user as it is read.
+     */
+    public void streamUsers(Consumer<User> consumer) {
+        streamingJdbcTemplate.query("SELECT * FROM users ORDER BY username;",
+                (ResultSet resultSet) -> consumer.accept(mapToUser(resultSet, resultSet.getRow())));
+    }
+
     /**
      * Gets a user by username.
      *
@@ -63,46 +131,99 @@ public class UserDao {
     }
 
     /**
-     * Creates a new user.
-     * @param user The user to create.
+     * Gets a user and their roles with a single query.
+     * Results are cached until the user or their roles change.
+     *
+     * @param username The username of the user.
+     * @return UserAccount, or null if the user does not exist.
+     */
+    @Cacheable(cacheNames = CacheConfiguration.USERS, key = USER_KEY, unless = "#result == null")
+    public UserAccount getUserAccount(String username) {
+        String sql = "SELECT u.username, u.password, r.role FROM users u " +
+                "LEFT JOIN roles r ON r.username = u.username WHERE u.username = ?;";
+        return jdbcTemplate.query(sql, resultSet -> {
+            if (!resultSet.next()) {
+                return null;
+            }
+            String stored = resultSet.getString("username");
+            String password = resultSet.getString("password");
+            List<String> roles = new ArrayList<>();
+            do {
+                String role = resultSet.getString("role");
+                if (role != null) {
+                    roles.add(role);
+                }
+            } while (resultSet.next());
+            return new UserAccount(stored, password, roles);
+        }, username);
+    }
+
+    /**
+     * Creates a new user. The password is hashed by the caller, so the
+     * slow hash never runs while a database permit is held.
+     *
+     * @param user The user to create, with their password already hashed.
      * @return User The created user.
      */
+    @CacheEvict(cacheNames = CacheConfiguration.USERS, key = "T(org.example.daos.UserDao).cacheKey(#user.username)")
     public User createUser(User user) {
-        String hashedPassword = passwordEncoder.encode(user.getPassword());
         String sql = "INSERT INTO users (username, password) VALUES (?,?);";
-        try {
-            jdbcTemplate.update(sql, user.getUsername(), hashedPassword);
-            return getUserByUsername(user.getUsername());
-        } catch (EmptyResultDataAccessException e) {
-            throw new DaoException("Failed to create user.");
-        }
+        jdbcTemplate.update(sql, user.getUsername(), user.getPassword());
+        return new User(user.getUsername(), user.getPassword());
     }
 
     /**
-     * Updates a user's password.
+     * Updates a user's password without reading the user first. The
+     * password is hashed by the caller, as for {@link #createUser(User)}.
      *
-     * @param user The user to update.
+     * @param user The user to update, with their new password already hashed.
      * @return User
+     * @throws ResponseStatusException If the user does not exist.
      */
+    @CacheEvict(cacheNames = CacheConfiguration.USERS, key = "T(org.example.daos.UserDao).cacheKey(#user.username)")
     public User updatePassword(User user) {
-        String hashedPassword = passwordEncoder.encode(user.getPassword());
         String sql = "UPDATE users SET password = ? WHERE username = ?";
-        int rowsAffected = jdbcTemplate.update(sql, hashedPassword, user.getUsername());
+        int rowsAffected = jdbcTemplate.update(sql, user.getPassword(), user.getUsername());
         if (rowsAffected == 0) {
-            throw new DaoException("Zero rows affected, expected at least one.");
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
         } else {
-            return getUserByUsername(user.getUsername());
+            return new User(user.getUsername(), user.getPassword());
         }
     }
 
     /**
-     * Deletes a user.
+     * Deletes a user, together with their orders and order items, giving
+     * back the stock the items held. The user's row is locked first, so no
+     * order can be written for them meanwhile, then their items on the
+     * user's shard while the user is deleted.
      *
      * @param username The username of the user.
      */
+    @CacheEvict(cacheNames = CacheConfiguration.USERS, key = USER_KEY)
     public int deleteUser(String username) {
         String sql = "DELETE FROM users WHERE username = ? ";
-        return jdbcTemplate.update(sql, username);
+        Set<Integer> orderIds = new HashSet<>();
+        int rowsAffected = inventory.reserving(reservation -> shards.withUser(username, true, (shard, stored) -> stored == null ? 0
+                : shards.inTransaction(shard, orders -> {
+            Map<Integer, Integer> held = new HashMap<>();
+            orders.query("SELECT oi.order_id, oi.product_id, oi.quantity FROM order_items oi " +
+                    "JOIN orders o ON o.id = oi.order_id WHERE o.username = ? FOR UPDATE;", (ResultSet resultSet) -> {
+                orderIds.add(resultSet.getInt("order_id"));
+                held.merge(resultSet.getInt("product_id"), resultSet.getInt("quantity"), Integer::sum);
+            }, stored);
+            int deleted = jdbcTemplate.update(sql, stored);
+            if (deleted > 0) {
+                // The user's orders and their items go with them.
+                shards.deleteOrdersOf(stored);
+                held.forEach(reservation::give);
+            }
+            return deleted;
+        })));
+        if (rowsAffected > 0) {
+            versions.cascaded("orders", "order_items");
+            events.publishEvent(OrderItemsChanged.ordersDeleted(orderIds));
+        }
+        return rowsAffected;
     }
 
     /**
@@ -122,6 +243,7 @@ public class UserDao {
      * @param role The role to add.
      * @return List of String
      */
+    @CacheEvict(cacheNames = CacheConfiguration.USERS, key = USER_KEY)
     public List<String> addRole(String username, String role) {
         try {
             String sql = "INSERT INTO roles (username, role) VALUES (?,?)";
@@ -137,11 +259,24 @@ public class UserDao {
      * @param username The username of the user.
      * @param role The role to delete.
      */
+    @CacheEvict(cacheNames = CacheConfiguration.USERS, key = USER_KEY)
     public int deleteRole(String username, String role) {
         String sql = "DELETE FROM roles WHERE username = ? AND role = ?";
         return jdbcTemplate.update(sql, username, role);
     }
 
+    /**
+     * Gets the users cache key for a username. Usernames compare without
+     * regard to case in the database, so every spelling of one shares a
+     * key, and evicting under any of them drops the cached account.
+     *
+     * @param username The username.
+     * @return String The cache key.
+     */
+    public static String cacheKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
     /**
      * Maps a row in the ResultSet to a User object.
      *
@@ -150,7 +285,7 @@ public class UserDao {
      * @return User The user object.
      * @throws SQLException If an error occurs while mapping the result set.
      */
-    private User mapToUser(ResultSet resultSet, int rowNumber) throws SQLException {
+    User mapToUser(ResultSet resultSet, int rowNumber) throws SQLException {
         String username = resultSet.getString("username");
         return new User(
                 username,
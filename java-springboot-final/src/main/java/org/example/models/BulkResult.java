@@ -0,0 +1,141 @@
+package org.example.models;
+
+/**
+ * Model for the outcome of one row of a bulk request.
+ */
+public class BulkResult {
+    /**
+     * The possible outcomes of a row.
+     */
+    public enum Status {
+        /**
+         * The row was inserted.
+         */
+        CREATED,
+        /**
+         * The row already existed and was updated.
+         */
+        UPDATED,
+        /**
+         * The row was inserted or updated; the driver did not report which.
+         */
+        UPSERTED,
+        /**
+         * The row was not written.
+         */
+        FAILED
+    }
+
+    /**
+     * The position of the row in the request, starting at 0.
+     */
+    private int index;
+
+    /**
+     * The ID of the row, or 0 if it was not written.
+     */
+    private int id;
+
+    /**
+     * The outcome of the row.
+     */
+    private Status status;
+
+    /**
+     * The reason the row was not written, if it failed.
+     */
+    private String error;
+
+    /**
+     * Creates a new bulk result.
+     */
+    public BulkResult() {
+    }
+
+    /**
+     * Creates a new bulk result.
+     *
+     * @param index The position of the row in the request.
+     * @param id The ID of the row.
+     * @param status The outcome of the row.
+     * @param error The reason the row was not written, or null.
+     */
+    public BulkResult(int index, int id, Status status, String error) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.error = error;
+    }
+
+    /**
+     * Gets the position of the row in the request.
+     *
+     * @return int
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets the position of the row in the request.
+     *
+     * @param index The position of the row in the request.
+     */
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Gets the ID of the row.
+     *
+     * @return int
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the ID of the row.
+     *
+     * @param id The ID of the row.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the outcome of the row.
+     *
+     * @return Status
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Sets the outcome of the row.
+     *
+     * @param status The outcome of the row.
+     */
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * Gets the reason the row was not written.
+     *
+     * @return String
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Sets the reason the row was not written.
+     *
+     * @param error The reason the row was not written.
+     */
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,144 @@
+package org.example.models;
+
+/**
+ * Model for the counters of an in-process cache.
+ */
+public class CacheStatistics {
+    /**
+     * The name of the cache.
+     */
+    private String name;
+
+    /**
+     * The approximate number of entries in the cache.
+     */
+    private long size;
+
+    /**
+     * The number of lookups that found an entry.
+     */
+    private long hits;
+
+    /**
+     * The number of lookups that did not find an entry.
+     */
+    private long misses;
+
+    /**
+     * The number of entries evicted because of size or expiry.
+     */
+    private long evictions;
+
+    /**
+     * Creates new cache statistics.
+     */
+    public CacheStatistics() {
+    }
+
+    /**
+     * Creates new cache statistics.
+     *
+     * @param name The name of the cache.
+     * @param size The approximate number of entries in the cache.
+     * @param hits The number of lookups that found an entry.
+     * @param misses The number of lookups that did not find an entry.
+     * @param evictions The number of entries evicted.
+     */
+    public CacheStatistics(String name, long size, long hits, long misses, long evictions) {
+        this.name = name;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Gets the name of the cache.
+     *
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the cache.
+     *
+     * @param name The name of the cache.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the approximate number of entries in the cache.
+     *
+     * @return long
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the approximate number of entries in the cache.
+     *
+     * @param size The number of entries.
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of lookups that found an entry.
+     *
+     * @return long
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Sets the number of lookups that found an entry.
+     *
+     * @param hits The number of hits.
+     */
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    /**
+     * Gets the number of lookups that did not find an entry.
+     *
+     * @return long
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Sets the number of lookups that did not find an entry.
+     *
+     * @param misses The number of misses.
+     */
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    /**
+     * Gets the number of entries evicted.
+     *
+     * @return long
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Sets the number of entries evicted.
+     *
+     * @param evictions The number of evictions.
+     */
+    public void setEvictions(long evictions) {
+        this.evictions = evictions;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.models;
+
+import java.util.List;
+
+/**
+ * Model for a checkout: a new order together with all of its items.
+ */
+public class Checkout {
+    /**
+     * The username of the order.
+     */
+    private String username;
+
+    /**
+     * The items of the order. Only the product and quantity of each are read.
+     */
+    private List<OrderItem> items;
+
+    /**
+     * Creates a new checkout.
+     */
+    public Checkout() {
+    }
+
+    /**
+     * Creates a new checkout.
+     *
+     * @param username The username of the order.
+     * @param items The items of the order.
+     */
+    public Checkout(String username, List<OrderItem> items) {
+        this.username = username;
+        this.items = items;
+    }
+
+    /**
+     * Gets the username of the order.
+     *
+     * @return String
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Sets the username of the order.
+     *
+     * @param username The username of the order.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Gets the items of the order.
+     *
+     * @return List of OrderItem
+     */
+    public List<OrderItem> getItems() {
+        return items;
+    }
+
+    /**
+     * Sets the items of the order.
+     *
+     * @param items The items of the order.
+     */
+    public void setItems(List<OrderItem> items) {
+        this.items = items;
+    }
+}
@@ -1,5 +1,7 @@
 package org.example.models;
 
+import java.math.BigDecimal;
+
 /**
  * Model for an order.
  */
@@ -14,6 +16,21 @@ public class    Order {
      */
     private String username;
 
+    /**
+     * The number of items in the order.
+     */
+    private int itemCount;
+
+    /**
+     * The total price of the items in the order.
+     */
+    private BigDecimal total;
+
+    /**
+     * The version of the order, changed on every write.
+     */
+    private long version;
+
     /**
      * Creates a new order.
      */
@@ -31,6 +48,36 @@ public class    Order {
         this.username = username;
     }
 
+    /**
+     * Creates a new order.
+     *
+     * @param id The ID of the order.
+     * @param username The username of the order.
+     * @param version The version of the order.
+     */
+    public Order(int id, String username, long version) {
+        this.id = id;
+        this.username = username;
+        this.version = version;
+    }
+
+    /**
+     * Creates a new order.
+     *
+     * @param id The ID of the order.
+     * @param username The username of the order.
+     * @param itemCount The number of items in the order.
+     * @param total The total price of the items in the order.
+     * @param version The version of the order.
+     */
+    public Order(int id, String username, int itemCount, BigDecimal total, long version) {
+        this.id = id;
+        this.username = username;
+        this.itemCount = itemCount;
+        this.total = total;
+        this.version = version;
+    }
+
     /**
      * Gets the ID of the order.
      *
@@ -66,4 +113,58 @@ public class    Order {
     public void setUsername(String username) {
         this.username = username;
     }
+
+    /**
+     * Gets the number of items in the order.
+     *
+     * @return int
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Sets the number of items in the order.
+     *
+     * @param itemCount The number of items in the order.
+     */
+    public void setItemCount(int itemCount) {
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * Gets the total price of the items in the order.
+     *
+     * @return BigDecimal
+     */
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets the total price of the items in the order.
+     *
+     * @param total The total price of the items in the order.
+     */
+    public void setTotal(BigDecimal total) {
+        this.total = total;
+    }
+
+    /**
+     * Gets the version of the order.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the order.
+     *
+     * @param version The version of the order.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
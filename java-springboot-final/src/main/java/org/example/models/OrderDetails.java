@@ -0,0 +1,129 @@
+package org.example.models;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model for an order together with its lines and totals.
+ */
+public class OrderDetails {
+    /**
+     * The ID of the order.
+     */
+    private int id;
+
+    /**
+     * The username of the order.
+     */
+    private String username;
+
+    /**
+     * The lines of the order.
+     */
+    private List<OrderLine> lines = new ArrayList<>();
+
+    /**
+     * The sum of the line totals.
+     */
+    private BigDecimal total = BigDecimal.ZERO;
+
+    /**
+     * Creates new order details.
+     */
+    public OrderDetails() {
+    }
+
+    /**
+     * Creates new order details without any lines.
+     *
+     * @param id The ID of the order.
+     * @param username The username of the order.
+     */
+    public OrderDetails(int id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    /**
+     * Adds a line to the order and adds its line total to the order total.
+     *
+     * @param line The line to add.
+     */
+    public void addLine(OrderLine line) {
+        lines.add(line);
+        total = total.add(line.getLineTotal());
+    }
+
+    /**
+     * Gets the ID of the order.
+     *
+     * @return int
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the ID of the order.
+     *
+     * @param id The ID of the order.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the username of the order.
+     *
+     * @return String
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Sets the username of the order.
+     *
+     * @param username The username of the order.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Gets the lines of the order.
+     *
+     * @return List of OrderLine
+     */
+    public List<OrderLine> getLines() {
+        return lines;
+    }
+
+    /**
+     * Sets the lines of the order.
+     *
+     * @param lines The lines of the order.
+     */
+    public void setLines(List<OrderLine> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Gets the sum of the line totals.
+     *
+     * @return BigDecimal
+     */
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    /**
+     * Sets the sum of the line totals.
+     *
+     * @param total The order total.
+     */
+    public void setTotal(BigDecimal total) {
+        this.total = total;
+    }
+}
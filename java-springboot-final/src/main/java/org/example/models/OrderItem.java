@@ -24,6 +24,11 @@ public class OrderItem {
      */
     private int quantity;
 
+    /**
+     * The version of the order item, changed on every write.
+     */
+    private long version;
+
     /**
      * Creates a new order item.
      */
@@ -45,6 +50,23 @@ public class OrderItem {
         this.quantity = quantity;
     }
 
+    /**
+     * Creates a new order item.
+     *
+     * @param id The ID of the order item.
+     * @param orderId The ID of the order.
+     * @param productId The ID of the product.
+     * @param quantity The quantity of the product.
+     * @param version The version of the order item.
+     */
+    public OrderItem(int id, int orderId, int productId, int quantity, long version) {
+        this.id = id;
+        this.orderId = orderId;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.version = version;
+    }
+
     /**
      * Gets the ID of the order item.
      *
@@ -116,4 +138,22 @@ public class OrderItem {
     public void setQuantity(int quantity) {
         this.quantity = quantity;
     }
+
+    /**
+     * Gets the version of the order item.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the order item.
+     *
+     * @param version The version of the order item.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
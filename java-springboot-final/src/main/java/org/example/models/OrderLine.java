@@ -0,0 +1,170 @@
+package org.example.models;
+
+import java.math.BigDecimal;
+
+/**
+ * Model for a line of an order: an order item joined to its product.
+ */
+public class OrderLine {
+    /**
+     * The ID of the order item.
+     */
+    private int id;
+
+    /**
+     * The ID of the product.
+     */
+    private int productId;
+
+    /**
+     * The name of the product.
+     */
+    private String productName;
+
+    /**
+     * The price of the product.
+     */
+    private BigDecimal price;
+
+    /**
+     * The quantity of the product.
+     */
+    private int quantity;
+
+    /**
+     * The price multiplied by the quantity.
+     */
+    private BigDecimal lineTotal;
+
+    /**
+     * Creates a new order line.
+     */
+    public OrderLine() {
+    }
+
+    /**
+     * Creates a new order line. The line total is computed from the price and quantity.
+     *
+     * @param id The ID of the order item.
+     * @param productId The ID of the product.
+     * @param productName The name of the product.
+     * @param price The price of the product.
+     * @param quantity The quantity of the product.
+     */
+    public OrderLine(int id, int productId, String productName, BigDecimal price, int quantity) {
+        this.id = id;
+        this.productId = productId;
+        this.productName = productName;
+        this.price = price;
+        this.quantity = quantity;
+        this.lineTotal = price == null ? BigDecimal.ZERO : price.multiply(BigDecimal.valueOf(quantity));
+    }
+
+    /**
+     * Gets the ID of the order item.
+     *
+     * @return int
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the ID of the order item.
+     *
+     * @param id The ID of the order item.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the ID of the product.
+     *
+     * @return int
+     */
+    public int getProductId() {
+        return productId;
+    }
+
+    /**
+     * Sets the ID of the product.
+     *
+     * @param productId The ID of the product.
+     */
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    /**
+     * Gets the name of the product.
+     *
+     * @return String
+     */
+    public String getProductName() {
+        return productName;
+    }
+
+    /**
+     * Sets the name of the product.
+     *
+     * @param productName The name of the product.
+     */
+    public void setProductName(String productName) {
+        this.productName = productName;
+    }
+
+    /**
+     * Gets the price of the product.
+     *
+     * @return BigDecimal
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    /**
+     * Sets the price of the product.
+     *
+     * @param price The price of the product.
+     */
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    /**
+     * Gets the quantity of the product.
+     *
+     * @return int
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Sets the quantity of the product.
+     *
+     * @param quantity The quantity of the product.
+     */
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    /**
+     * Gets the price multiplied by the quantity.
+     *
+     * @return BigDecimal
+     */
+    public BigDecimal getLineTotal() {
+        return lineTotal;
+    }
+
+    /**
+     * Sets the price multiplied by the quantity.
+     *
+     * @param lineTotal The line total.
+     */
+    public void setLineTotal(BigDecimal lineTotal) {
+        this.lineTotal = lineTotal;
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.models;
+
+import java.util.List;
+
+/**
+ * Model for one page of a keyset-paginated listing.
+ *
+ * @param <T> The type of the items on the page.
+ */
+public class Page<T> {
+    /**
+     * The items on the page.
+     */
+    private List<T> items;
+
+    /**
+     * The opaque token for the next page, or null if this is the last page.
+     */
+    private String nextCursor;
+
+    /**
+     * Creates a new page.
+     */
+    public Page() {
+    }
+
+    /**
+     * Creates a new page.
+     *
+     * @param items The items on the page.
+     * @param nextCursor The token for the next page, or null if this is the last page.
+     */
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the items on the page.
+     *
+     * @return List of T
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Sets the items on the page.
+     *
+     * @param items The items on the page.
+     */
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    /**
+     * Gets the token for the next page.
+     *
+     * @return String
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Sets the token for the next page.
+     *
+     * @param nextCursor The token for the next page.
+     */
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
@@ -21,6 +21,11 @@ public class Product {
      */
     private BigDecimal price;
 
+    /**
+     * The version of the product, changed on every write.
+     */
+    private long version;
+
     /**
      * Creates a new product.
      */
@@ -40,6 +45,21 @@ public class Product {
         this.price = price;
     }
 
+    /**
+     * Creates a new product.
+     *
+     * @param id The ID of the product.
+     * @param name The name of the product.
+     * @param price The price of the product.
+     * @param version The version of the product.
+     */
+    public Product(int id, String name, BigDecimal price, long version) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.version = version;
+    }
+
     /**
      * Gets the ID of the product.
      *
@@ -93,4 +113,22 @@ public class Product {
     public void setPrice(BigDecimal price) {
         this.price = price;
     }
+
+    /**
+     * Gets the version of the product.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the product.
+     *
+     * @param version The version of the product.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,146 @@
+package org.example.models;
+
+import java.math.BigDecimal;
+
+/**
+ * Model for the sales of one product over a period.
+ */
+public class ProductSales {
+    /**
+     * The ID of the product.
+     */
+    private int productId;
+
+    /**
+     * The name of the product.
+     */
+    private String name;
+
+    /**
+     * The number of units ordered.
+     */
+    private long unitsSold;
+
+    /**
+     * The units ordered times the current price.
+     */
+    private BigDecimal revenue;
+
+    /**
+     * The number of orders holding the product.
+     */
+    private long orderCount;
+
+    /**
+     * Creates new product sales.
+     */
+    public ProductSales() {
+    }
+
+    /**
+     * Creates new product sales.
+     *
+     * @param productId The ID of the product.
+     * @param name The name of the product.
+     * @param unitsSold The number of units ordered.
+     * @param revenue The units ordered times the current price.
+     * @param orderCount The number of orders holding the product.
+     */
+    public ProductSales(int productId, String name, long unitsSold, BigDecimal revenue, long orderCount) {
+        this.productId = productId;
+        this.name = name;
+        this.unitsSold = unitsSold;
+        this.revenue = revenue;
+        this.orderCount = orderCount;
+    }
+
+    /**
+     * Gets the ID of the product.
+     *
+     * @return int
+     */
+    public int getProductId() {
+        return productId;
+    }
+
+    /**
+     * Sets the ID of the product.
+     *
+     * @param productId The ID of the product.
+     */
+    public void setProductId(int productId) {
+        this.productId = productId;
+    }
+
+    /**
+     * Gets the name of the product.
+     *
+     * @return String
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the name of the product.
+     *
+     * @param name The name of the product.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the number of units ordered.
+     *
+     * @return long
+     */
+    public long getUnitsSold() {
+        return unitsSold;
+    }
+
+    /**
+     * Sets the number of units ordered.
+     *
+     * @param unitsSold The number of units ordered.
+     */
+    public void setUnitsSold(long unitsSold) {
+        this.unitsSold = unitsSold;
+    }
+
+    /**
+     * Gets the units ordered times the current price.
+     *
+     * @return BigDecimal
+     */
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+
+    /**
+     * Sets the units ordered times the current price.
+     *
+     * @param revenue The units ordered times the current price.
+     */
+    public void setRevenue(BigDecimal revenue) {
+        this.revenue = revenue;
+    }
+
+    /**
+     * Gets the number of orders holding the product.
+     *
+     * @return long
+     */
+    public long getOrderCount() {
+        return orderCount;
+    }
+
+    /**
+     * Sets the number of orders holding the product.
+     *
+     * @param orderCount The number of orders holding the product.
+     */
+    public void setOrderCount(long orderCount) {
+        this.orderCount = orderCount;
+    }
+}
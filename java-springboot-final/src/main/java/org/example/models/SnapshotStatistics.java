@@ -0,0 +1,144 @@
+package org.example.models;
+
+/**
+ * Model for the size and speed of the in-memory sales snapshot.
+ */
+public class SnapshotStatistics {
+    /**
+     * The number of order items in the snapshot.
+     */
+    private int rows;
+
+    /**
+     * The number of products in the snapshot.
+     */
+    private int products;
+
+    /**
+     * The approximate memory taken by the snapshot's arrays.
+     */
+    private long bytes;
+
+    /**
+     * The time the last full load took, in milliseconds.
+     */
+    private long loadMillis;
+
+    /**
+     * The time the last query took, in milliseconds.
+     */
+    private double lastQueryMillis;
+
+    /**
+     * Creates new snapshot statistics.
+     */
+    public SnapshotStatistics() {
+    }
+
+    /**
+     * Creates new snapshot statistics.
+     *
+     * @param rows The number of order items in the snapshot.
+     * @param products The number of products in the snapshot.
+     * @param bytes The approximate memory taken by the snapshot's arrays.
+     * @param loadMillis The time the last full load took, in milliseconds.
+     * @param lastQueryMillis The time the last query took, in milliseconds.
+     */
+    public SnapshotStatistics(int rows, int products, long bytes, long loadMillis, double lastQueryMillis) {
+        this.rows = rows;
+        this.products = products;
+        this.bytes = bytes;
+        this.loadMillis = loadMillis;
+        this.lastQueryMillis = lastQueryMillis;
+    }
+
+    /**
+     * Gets the number of order items in the snapshot.
+     *
+     * @return int
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Sets the number of order items in the snapshot.
+     *
+     * @param rows The number of order items in the snapshot.
+     */
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Gets the number of products in the snapshot.
+     *
+     * @return int
+     */
+    public int getProducts() {
+        return products;
+    }
+
+    /**
+     * Sets the number of products in the snapshot.
+     *
+     * @param products The number of products in the snapshot.
+     */
+    public void setProducts(int products) {
+        this.products = products;
+    }
+
+    /**
+     * Gets the approximate memory taken by the snapshot's arrays.
+     *
+     * @return long
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Sets the approximate memory taken by the snapshot's arrays.
+     *
+     * @param bytes The approximate memory taken by the snapshot's arrays.
+     */
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Gets the time the last full load took, in milliseconds.
+     *
+     * @return long
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    /**
+     * Sets the time the last full load took, in milliseconds.
+     *
+     * @param loadMillis The time the last full load took, in milliseconds.
+     */
+    public void setLoadMillis(long loadMillis) {
+        this.loadMillis = loadMillis;
+    }
+
+    /**
+     * Gets the time the last query took, in milliseconds.
+     *
+     * @return double
+     */
+    public double getLastQueryMillis() {
+        return lastQueryMillis;
+    }
+
+    /**
+     * Sets the time the last query took, in milliseconds.
+     *
+     * @param lastQueryMillis The time the last query took, in milliseconds.
+     */
+    public void setLastQueryMillis(double lastQueryMillis) {
+        this.lastQueryMillis = lastQueryMillis;
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.models;
+
+import java.util.List;
+
+/**
+ * Model for a user together with their roles, as needed for authentication.
+ * Instances are immutable so they can be shared through the user cache.
+ */
+public class UserAccount {
+    /**
+     * The username of the user.
+     */
+    private final String username;
+
+    /**
+     * The hashed password of the user.
+     */
+    private final String password;
+
+    /**
+     * The roles of the user.
+     */
+    private final List<String> roles;
+
+    /**
+     * Creates a new user account.
+     *
+     * @param username The username of the user.
+     * @param password The hashed password of the user.
+     * @param roles The roles of the user.
+     */
+    public UserAccount(String username, String password, List<String> roles) {
+        this.username = username;
+        this.password = password;
+        this.roles = List.copyOf(roles);
+    }
+
+    /**
+     * Gets the username of the user.
+     *
+     * @return The username of the user.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the hashed password of the user.
+     *
+     * @return The hashed password of the user.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Gets the roles of the user.
+     *
+     * @return The roles of the user.
+     */
+    public List<String> getRoles() {
+        return roles;
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.models;
+
+import java.math.BigDecimal;
+
+/**
+ * Model for the spend of one user over a period.
+ */
+public class UserSpend {
+    /**
+     * The username of the user.
+     */
+    private String username;
+
+    /**
+     * The number of orders placed by the user.
+     */
+    private long orderCount;
+
+    /**
+     * The number of items in the user's orders.
+     */
+    private long itemCount;
+
+    /**
+     * The total of the user's orders.
+     */
+    private BigDecimal spend;
+
+    /**
+     * Creates new user spend.
+     */
+    public UserSpend() {
+    }
+
+    /**
+     * Creates new user spend.
+     *
+     * @param username The username of the user.
+     * @param orderCount The number of orders placed by the user.
+     * @param itemCount The number of items in the user's orders.
+     * @param spend The total of the user's orders.
+     */
+    public UserSpend(String username, long orderCount, long itemCount, BigDecimal spend) {
+        this.username = username;
+        this.orderCount = orderCount;
+        this.itemCount = itemCount;
+        this.spend = spend;
+    }
+
+    /**
+     * Gets the username of the user.
+     *
+     * @return String
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Sets the username of the user.
+     *
+     * @param username The username of the user.
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Gets the number of orders placed by the user.
+     *
+     * @return long
+     */
+    public long getOrderCount() {
+        return orderCount;
+    }
+
+    /**
+     * Sets the number of orders placed by the user.
+     *
+     * @param orderCount The number of orders placed by the user.
+     */
+    public void setOrderCount(long orderCount) {
+        this.orderCount = orderCount;
+    }
+
+    /**
+     * Gets the number of items in the user's orders.
+     *
+     * @return long
+     */
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    /**
+     * Sets the number of items in the user's orders.
+     *
+     * @param itemCount The number of items in the user's orders.
+     */
+    public void setItemCount(long itemCount) {
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * Gets the total of the user's orders.
+     *
+     * @return BigDecimal
+     */
+    public BigDecimal getSpend() {
+        return spend;
+    }
+
+    /**
+     * Sets the total of the user's orders.
+     *
+     * @param spend The total of the user's orders.
+     */
+    public void setSpend(BigDecimal spend) {
+        this.spend = spend;
+    }
+}
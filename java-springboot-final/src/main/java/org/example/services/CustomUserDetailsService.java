@@ -2,7 +2,7 @@ package org.example.services;
 
 import eu.fraho.spring.securityJwt.base.dto.JwtUser;
 import org.example.daos.UserDao;
-import org.example.models.User;
+import org.example.models.UserAccount;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -41,20 +41,20 @@ public class CustomUserDetailsService implements UserDetailsService {
      */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        // Get user
-        User user = userDao.getUserByUsername(username);
+        // Get user and roles in one (usually cached) lookup
+        UserAccount user = userDao.getUserAccount(username);
         if (user == null) {
             throw new UsernameNotFoundException("User not found.");
         }
 
-        // Get roles -> authorities
-        List<String> roles = userDao.getRoles(username);
+        // Roles -> authorities
         List<GrantedAuthority> authorities = new ArrayList<>();
-        for (String role : roles) {
+        for (String role : user.getRoles()) {
             authorities.add(new SimpleGrantedAuthority(role));
         }
 
-        // Create JwtUser
+        // Create JwtUser. This is built fresh each time rather than cached,
+        // because Spring Security erases its credentials after authentication.
         JwtUser jwtUser = new JwtUser();
         jwtUser.setUsername(user.getUsername());
         jwtUser.setPassword(user.getPassword());
@@ -0,0 +1,73 @@
+import org.example.SpringBootApplication;
+import org.example.models.ProductSales;
+import org.example.models.UserSpend;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the analytics endpoints.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = SpringBootApplication.class)
+@Import(FinalTestConfiguration.class)
+public class AnalyticsEndpointTests extends WebStoreTest {
+    @Test
+    @DisplayName("GET /api/analytics/products?limit=2 should return the two products with the most revenue")
+    public void getProductSalesShouldReturnTopProducts() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/products?limit=2", HttpMethod.GET, requestEntity, ProductSales[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var sales = result.getBody();
+        assertEquals(2, sales.length);
+        assertEquals("Elderberry", sales[0].getName());
+        assertEquals(5, sales[0].getUnitsSold());
+        assertEquals(new BigDecimal("19.95"), sales[0].getRevenue());
+        assertEquals(1, sales[0].getOrderCount());
+        assertEquals("Date", sales[1].getName());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/products should only count orders placed in the given days")
+    public void getProductSalesShouldFilterByDate() {
+        getJdbcTemplate().update("update orders set created_at = '2020-01-31 23:59:59' where id = 3");
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/products?from=2020-01-01&to=2020-01-31&sort=units",
+                HttpMethod.GET, requestEntity, ProductSales[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var sales = result.getBody();
+        assertEquals(1, sales.length);
+        assertEquals("Cherry", sales[0].getName());
+        assertEquals(3, sales[0].getUnitsSold());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/products?sort=name should return 400")
+    public void getProductSalesShouldRejectUnknownSort() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/products?sort=name", HttpMethod.GET, requestEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/users should return each user's orders and spend")
+    public void getUserSpendShouldSumOrderTotals() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/users", HttpMethod.GET, requestEntity, UserSpend[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var spend = result.getBody();
+        assertEquals(1, spend.length);
+        assertEquals("test-admin", spend[0].getUsername());
+        assertEquals(5, spend[0].getOrderCount());
+        assertEquals(5, spend[0].getItemCount());
+        assertEquals(new BigDecimal("40.05"), spend[0].getSpend());
+    }
+}
@@ -0,0 +1,72 @@
+import org.example.SpringBootApplication;
+import org.example.config.DatabaseGate;
+import org.example.daos.UserDao;
+import org.example.models.Product;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the database admission gate.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = {
+        "webstore.db-gate.enabled=true",
+        "webstore.db-gate.permits=1",
+        "webstore.db-gate.timeout=200ms"
+    }
+)
+@Import(FinalTestConfiguration.class)
+public class DatabaseGateTests extends WebStoreTest {
+    @Autowired
+    private DatabaseGate databaseGate;
+
+    @Autowired
+    private UserDao userDao;
+
+    @Test
+    @DisplayName("GET /api/products/{id} should return 503 while every permit is held")
+    public void getProductShouldFailFastWhenGateIsFull() throws Exception {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var holding = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        Thread holder = new Thread(() -> userDao.streamUsers(user -> {
+            holding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.start();
+        try {
+            assertTrue(holding.await(10, TimeUnit.SECONDS));
+            assertEquals(0, databaseGate.getAvailablePermits());
+
+            var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.GET, requestEntity, String.class);
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, result.getStatusCode());
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        assertEquals(1, databaseGate.getAvailablePermits());
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.GET, requestEntity, Product.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+    }
+}
@@ -0,0 +1,113 @@
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.SpringBootApplication;
+import org.example.models.Order;
+import org.example.models.OrderItem;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for coalescing concurrent inserts. The delay is long enough that
+ * requests sent together always meet in one batch, and the database gate
+ * has a single permit, so they only meet if waiting callers give it up.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = {
+        "webstore.group-commit.enabled=true",
+        "webstore.group-commit.max-rows=8",
+        "webstore.group-commit.max-delay=200ms",
+        "webstore.db-gate.enabled=true",
+        "webstore.db-gate.permits=1"
+    }
+)
+@Import(FinalTestConfiguration.class)
+public class GroupCommitTests extends WebStoreTest {
+    @Autowired
+    private MeterRegistry registry;
+
+    @Test
+    @DisplayName("POST /api/orders sent together should be written in one batch, each with its own id")
+    public void concurrentOrdersShouldShareABatch() throws Exception {
+        var headers = GetAuthEntity("test-admin", "admin").getHeaders();
+        List<ResponseEntity<Order>> results = sendTogether(8, i -> post(headers, "/api/orders", new Order(0, "test-admin"), Order.class));
+
+        var ids = new HashSet<Integer>();
+        for (var result : results) {
+            assertEquals(HttpStatus.CREATED, result.getStatusCode());
+            ids.add(result.getBody().getId());
+        }
+        assertEquals(8, ids.size());
+        assertEquals(13, getJdbcTemplate().queryForObject("select count(*) from orders", Integer.class));
+        assertTrue(registry.get("webstore.group-commit.rows").tag("table", "orders").summary().max() > 1);
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items sent together should fail only the bad item and keep the order total right")
+    public void badItemShouldOnlyFailItself() throws Exception {
+        var headers = GetAuthEntity("test-admin", "admin").getHeaders();
+        List<ResponseEntity<OrderItem>> results = sendTogether(6,
+                i -> post(headers, "/api/order-items", new OrderItem(0, 1, i == 3 ? 999 : 2, 1), OrderItem.class));
+
+        for (int i = 0; i < results.size(); i++) {
+            if (i == 3) {
+                assertNotEquals(HttpStatus.CREATED, results.get(i).getStatusCode());
+            } else {
+                assertEquals(HttpStatus.CREATED, results.get(i).getStatusCode());
+            }
+        }
+        var order = this.restTemplate.exchange(getBaseUrl() + "/api/orders/1", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), Order.class).getBody();
+        assertEquals(6, order.getItemCount());
+        assertEquals(new BigDecimal("3.94"), order.getTotal());
+    }
+
+    private <T> ResponseEntity<T> post(HttpHeaders headers, String path, Object body, Class<T> type) {
+        return this.restTemplate.exchange(getBaseUrl() + path, HttpMethod.POST, new HttpEntity<>(body, headers), type);
+    }
+
+    /**
+     * Sends requests from separate threads at the same time and waits for
+     * all of them.
+     */
+    private <T> List<ResponseEntity<T>> sendTogether(int count, IntFunction<ResponseEntity<T>> request) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<ResponseEntity<T>>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> request.apply(index)));
+            }
+            List<ResponseEntity<T>> results = new ArrayList<>();
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import org.example.SpringBootApplication;
+import org.example.daos.IdAllocator;
+import org.example.models.Order;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for block id allocation.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = "webstore.ids.block-size=3"
+)
+@Import(FinalTestConfiguration.class)
+public class IdAllocatorTests extends WebStoreTest {
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Test
+    @DisplayName("Reserved id blocks should start after existing rows and not overlap")
+    public void reservedBlocksShouldNotOverlap() {
+        var first = idAllocator.reserve("products", 10);
+        var second = idAllocator.reserve("products", 10);
+        assertEquals(6, first.getStart());
+        assertEquals(16, first.getEnd());
+        assertEquals(16, second.getStart());
+        assertEquals(26, second.getEnd());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should use ids from the reserved block")
+    public void postOrderShouldUseBlockIds() {
+        var reserved = idAllocator.reserve("orders", 100);
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Order(0, "test-admin"));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.POST, requestEntity, Order.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+        assertTrue(result.getBody().getId() >= reserved.getEnd());
+    }
+}
@@ -0,0 +1,157 @@
+import org.example.SpringBootApplication;
+import org.example.models.Order;
+import org.example.models.OrderItem;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for replaying POST requests sent again with the same
+ * Idempotency-Key.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class
+)
+@Import(FinalTestConfiguration.class)
+public class IdempotencyKeyTests extends WebStoreTest {
+    @Test
+    @DisplayName("POST /api/orders sent twice with one key should create one order and replay its response")
+    public void retriesShouldBeReplayed() {
+        var headers = headers("retry-1");
+        var first = post(headers, "/api/orders", new Order(0, "test-admin"), Order.class);
+        var second = post(headers, "/api/orders", new Order(0, "test-admin"), Order.class);
+
+        assertEquals(HttpStatus.CREATED, first.getStatusCode());
+        assertNull(first.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(HttpStatus.CREATED, second.getStatusCode());
+        assertEquals("true", second.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals(first.getBody().getId(), second.getBody().getId());
+        assertEquals(6, getJdbcTemplate().queryForObject("select count(*) from orders", Integer.class));
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items sent together with one key should run once and give every caller its response")
+    public void concurrentRetriesShouldWaitForTheFirst() throws Exception {
+        var headers = headers("retry-2");
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        List<ResponseEntity<OrderItem>> results = new ArrayList<>();
+        try {
+            List<Future<ResponseEntity<OrderItem>>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(executor.submit(() -> post(headers, "/api/order-items", new OrderItem(0, 1, 2, 3), OrderItem.class)));
+            }
+            for (var future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (var result : results) {
+            assertEquals(HttpStatus.CREATED, result.getStatusCode());
+            assertEquals(results.get(0).getBody().getId(), result.getBody().getId());
+        }
+        assertEquals(2, getJdbcTemplate().queryForObject("select count(*) from order_items where order_id = 1", Integer.class));
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should return 422 when a key is reused for a different request")
+    public void reusedKeysShouldBeRejected() {
+        var headers = headers("retry-3");
+        assertEquals(HttpStatus.CREATED, post(headers, "/api/orders", new Order(0, "test-admin"), Order.class).getStatusCode());
+        var result = post(headers, "/api/orders", new Order(0, "someone-else"), String.class);
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items that fails should give its key up for the next request")
+    public void failedRequestsShouldNotKeepTheirKey() {
+        var headers = headers("retry-4");
+        var failed = post(headers, "/api/order-items", new OrderItem(0, 1, 999, 1), String.class);
+        assertNotEquals(HttpStatus.CREATED, failed.getStatusCode());
+
+        var result = post(headers, "/api/order-items", new OrderItem(0, 1, 2, 1), OrderItem.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+        assertNull(result.getHeaders().getFirst("Idempotent-Replayed"));
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should replay a response kept by another node")
+    public void keysShouldBeSharedBetweenNodes() {
+        var headers = headers("retry-5");
+        var first = post(headers, "/api/orders", new Order(0, "test-admin"), Order.class);
+        assertEquals(HttpStatus.CREATED, first.getStatusCode());
+        // Another node sees the same table, not this node's memory.
+        getJdbcTemplate().update("update idempotency_keys set body = replace(body, 'test-admin', 'elsewhere') where idempotency_key = 'retry-5'");
+
+        var second = post(headers, "/api/orders", new Order(0, "test-admin"), Order.class);
+        assertEquals(HttpStatus.CREATED, second.getStatusCode());
+        assertEquals("true", second.getHeaders().getFirst("Idempotent-Replayed"));
+        assertEquals("elsewhere", second.getBody().getUsername());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should take over a key whose claim expired, and wait out one that has not")
+    public void expiredClaimsShouldBeTakenOver() {
+        getJdbcTemplate().update("insert into idempotency_keys (username, idempotency_key, fingerprint, expires_at) " +
+                "values ('test-admin', 'retry-6', 'from-a-dead-node', current_timestamp(6) - interval 1 second)");
+        var result = post(headers("retry-6"), "/api/orders", new Order(0, "test-admin"), Order.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+        assertNull(result.getHeaders().getFirst("Idempotent-Replayed"));
+
+        getJdbcTemplate().update("insert into idempotency_keys (username, idempotency_key, fingerprint, expires_at) " +
+                "values ('test-admin', 'retry-7', 'still-running', current_timestamp(6) + interval 1 hour)");
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY,
+                post(headers("retry-7"), "/api/orders", new Order(0, "test-admin"), String.class).getStatusCode());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should return 429 for a new key once the user holds too many")
+    public void keysShouldBeCappedPerUser() {
+        List<Object[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(new Object[]{"held-" + i});
+        }
+        getJdbcTemplate().batchUpdate("insert into idempotency_keys (username, idempotency_key, fingerprint, expires_at) " +
+                "values ('test-admin', ?, 'held', current_timestamp(6) + interval 1 hour)", keys);
+        try {
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS,
+                    post(headers("retry-8"), "/api/orders", new Order(0, "test-admin"), String.class).getStatusCode());
+            assertEquals(HttpStatus.CREATED,
+                    post(new HttpHeaders(GetAuthEntity("test-admin", "admin").getHeaders()), "/api/orders",
+                            new Order(0, "test-admin"), Order.class).getStatusCode());
+        } finally {
+            getJdbcTemplate().update("delete from idempotency_keys where fingerprint = 'held'");
+        }
+    }
+
+    private HttpHeaders headers(String key) {
+        var headers = new HttpHeaders();
+        headers.addAll(GetAuthEntity("test-admin", "admin").getHeaders());
+        headers.set("Idempotency-Key", key);
+        return headers;
+    }
+
+    private <T> ResponseEntity<T> post(HttpHeaders headers, String path, Object body, Class<T> type) {
+        return this.restTemplate.exchange(getBaseUrl() + path, HttpMethod.POST, new HttpEntity<>(body, headers), type);
+    }
+}
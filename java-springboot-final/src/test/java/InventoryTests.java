@@ -0,0 +1,211 @@
+import org.example.SpringBootApplication;
+import org.example.daos.Inventory;
+import org.example.models.Checkout;
+import org.example.models.Order;
+import org.example.models.OrderItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for reserving stock. The lease is smaller than the stock and the
+ * flush runs often, so reservations keep leasing and giving back units
+ * while the tests run.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = {
+        "webstore.inventory.lease-size=3",
+        "webstore.inventory.stripes=4",
+        "webstore.inventory.flush-interval=PT0.05S"
+    }
+)
+@Import(FinalTestConfiguration.class)
+public class InventoryTests extends WebStoreTest {
+    @Autowired
+    private Inventory inventory;
+
+    /**
+     * Stops tracking the products the tests stocked, so the next test's
+     * fresh database does not meet this one's leases.
+     */
+    @AfterEach
+    public void untrack() {
+        for (int id = 1; id <= 5; id++) {
+            this.restTemplate.exchange(getBaseUrl() + "/api/products/" + id + "/stock", HttpMethod.PUT,
+                    GetAuthEntity("test-admin", "admin", null), Integer.class);
+        }
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items sent together should never reserve more than the stock")
+    public void concurrentItemsShouldNotOversell() throws Exception {
+        setStock(1, 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<HttpStatus> statuses = new ArrayList<>();
+        try {
+            List<Future<ResponseEntity<String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                futures.add(executor.submit(() -> createItem(1, 1)));
+            }
+            for (var future : futures) {
+                statuses.add(HttpStatus.valueOf(future.get().getStatusCode().value()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(10, statuses.stream().filter(HttpStatus.CREATED::equals).count());
+        assertEquals(15, statuses.stream().filter(HttpStatus.CONFLICT::equals).count());
+        assertEquals(0, getStock(1));
+        assertEquals(11, getJdbcTemplate().queryForObject("select count(*) from order_items where product_id = 1", Integer.class));
+    }
+
+    @Test
+    @DisplayName("DELETE /api/order-items/{id} should give its stock back")
+    public void deletedItemsShouldGiveStockBack() {
+        setStock(1, 5);
+        var created = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new OrderItem(0, 1, 1, 5)), OrderItem.class);
+        assertEquals(HttpStatus.CREATED, created.getStatusCode());
+        assertEquals(HttpStatus.CONFLICT, createItem(1, 1).getStatusCode());
+
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/" + created.getBody().getId(), HttpMethod.DELETE,
+                GetAuthEntity("test-admin", "admin"), Integer.class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+        assertEquals(5, getStock(1));
+        assertEquals(HttpStatus.CREATED, createItem(1, 1).getStatusCode());
+        assertEquals(4, getStock(1));
+    }
+
+    @Test
+    @DisplayName("POST /api/orders/checkout should give back the stock it reserved when a line runs out")
+    public void failedCheckoutShouldGiveStockBack() {
+        setStock(1, 5);
+        setStock(2, 1);
+        var checkout = new Checkout("test-admin", List.of(new OrderItem(0, 0, 1, 4), new OrderItem(0, 0, 2, 2)));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/checkout", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", checkout), String.class);
+
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+        assertEquals(5, getStock(1));
+        assertEquals(1, getStock(2));
+        assertEquals(5, getJdbcTemplate().queryForObject("select count(*) from orders", Integer.class));
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items/bulk should reserve stock for new items and move it for upserted ones")
+    public void bulkItemsShouldReserveStock() {
+        setStock(1, 3);
+        var tooMany = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", List.of(new OrderItem(0, 1, 1, 2), new OrderItem(0, 2, 1, 2))), String.class);
+        assertEquals(HttpStatus.CONFLICT, tooMany.getStatusCode());
+        assertEquals(3, getStock(1));
+        assertEquals(1, getJdbcTemplate().queryForObject("select count(*) from order_items where product_id = 1", Integer.class));
+
+        // Item 1 holds 1 of product 1; raising it to 3 needs 2 more.
+        var upserted = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk?upsert=true", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", List.of(new OrderItem(1, 1, 1, 3))), String.class);
+        assertEquals(HttpStatus.OK, upserted.getStatusCode());
+        assertEquals(1, getStock(1));
+    }
+
+    @Test
+    @DisplayName("DELETE /api/users/{username} should give back the stock of the user's order items")
+    public void deletedUsersShouldGiveStockBack() {
+        setStock(1, 5);
+        getJdbcTemplate().update("insert into users (username, password) values ('shopper', 'secret')");
+        var order = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new Order(0, "shopper")), Order.class);
+        assertEquals(HttpStatus.CREATED, order.getStatusCode());
+        var item = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new OrderItem(0, order.getBody().getId(), 1, 3)), String.class);
+        assertEquals(HttpStatus.CREATED, item.getStatusCode());
+        assertEquals(2, getStock(1));
+
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/users/shopper", HttpMethod.DELETE,
+                GetAuthEntity("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+        assertEquals(5, getStock(1));
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items should not reserve anything for a product without a stock")
+    public void untrackedProductsShouldNotReserve() {
+        assertNull(getStock(3));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HttpStatus.CREATED, createItem(3, 1000).getStatusCode());
+        }
+        assertNull(getStock(3));
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items should reserve stock set on another node once the next flush has run")
+    public void productsStockedElsewhereShouldBeTracked() {
+        for (int id = 3; id <= 5; id++) {
+            assertEquals(HttpStatus.CREATED, createItem(id, 1).getStatusCode());
+        }
+        // Another node's PUT /api/products/{id}/stock only changes the rows.
+        getJdbcTemplate().update("update products set stock = 1 where id between 3 and 5");
+        inventory.flush();
+
+        for (int id = 3; id <= 5; id++) {
+            assertEquals(HttpStatus.CONFLICT, createItem(id, 2).getStatusCode());
+            assertEquals(1, getStock(id));
+        }
+    }
+
+    @Test
+    @DisplayName("POST /api/products/stock/reconcile should give back the leases of a node that stopped renewing them")
+    public void deadNodesLeasesShouldBeReconciled() {
+        setStock(1, 5);
+        assertEquals(HttpStatus.CREATED, createItem(1, 1).getStatusCode());
+        getJdbcTemplate().update("insert into stock_leases (node, product_id, units, renewed_at) " +
+                "values ('dead-node', 1, 7, current_timestamp(6) - interval 1 hour)");
+
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/stock/reconcile", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin"), Integer.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(7, result.getBody());
+        // This node's own lease is still held, or it would be counted twice.
+        assertEquals(11, getStock(1));
+        assertEquals(0, getJdbcTemplate().queryForObject("select count(*) from stock_leases where node = 'dead-node'", Integer.class));
+    }
+
+    private ResponseEntity<String> createItem(int productId, int quantity) {
+        return this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new OrderItem(0, 1, productId, quantity)), String.class);
+    }
+
+    private void setStock(int productId, int stock) {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/" + productId + "/stock", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", stock), Integer.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+    }
+
+    private Integer getStock(int productId) {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/" + productId + "/stock", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), Integer.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        return result.getBody();
+    }
+}
@@ -0,0 +1,88 @@
+import org.example.SpringBootApplication;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Load test comparing thread-per-request with virtual-thread execution.
+ * <p>
+ * Skipped unless run with {@code -Dwebstore.load-test=true}. Run it once as is
+ * and once with {@code -Dspring.threads.virtual.enabled=true} on a Java 21
+ * runtime, then compare the logged throughput and p99 latency.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class
+)
+@Import(FinalTestConfiguration.class)
+@EnabledIfSystemProperty(named = "webstore.load-test", matches = "true")
+public class LoadComparisonTests extends WebStoreTest {
+    private static final Logger log = LoggerFactory.getLogger(LoadComparisonTests.class);
+    private static final int CLIENTS = Integer.getInteger("webstore.load-test.clients", 400);
+    private static final int REQUESTS_PER_CLIENT = Integer.getInteger("webstore.load-test.requests", 50);
+
+    @Test
+    @DisplayName("GET /api/orders under concurrent load should report throughput and p99 latency")
+    public void measureOrderListing() throws Exception {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        String url = getBaseUrl() + "/api/orders";
+        AtomicInteger rejected = new AtomicInteger();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < CLIENTS; c++) {
+            futures.add(clients.submit(() -> {
+                long[] latencies = new long[REQUESTS_PER_CLIENT];
+                for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+                    long sent = System.nanoTime();
+                    var result = restTemplate.exchange(url, HttpMethod.GET, requestEntity, String.class);
+                    latencies[i] = System.nanoTime() - sent;
+                    if (result.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE) {
+                        rejected.incrementAndGet();
+                    } else {
+                        assertEquals(HttpStatus.OK, result.getStatusCode());
+                    }
+                }
+                return latencies;
+            }));
+        }
+
+        long[] all = new long[CLIENTS * REQUESTS_PER_CLIENT];
+        int n = 0;
+        for (Future<long[]> future : futures) {
+            for (long latency : future.get()) {
+                all[n++] = latency;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        clients.shutdown();
+
+        Arrays.sort(all);
+        log.info("mode={} requests={} throughput={} req/s p50={} ms p99={} ms rejected={}",
+                Boolean.getBoolean("spring.threads.virtual.enabled") ? "virtual" : "platform",
+                all.length,
+                Math.round(all.length / (elapsed / 1e9)),
+                Math.round(all[all.length / 2] / 1e5) / 10.0,
+                Math.round(all[(int) (all.length * 0.99)] / 1e5) / 10.0,
+                rejected.get());
+    }
+}
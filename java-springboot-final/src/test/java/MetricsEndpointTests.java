@@ -0,0 +1,57 @@
+import org.example.SpringBootApplication;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the metrics scrape endpoint.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class
+)
+@Import(FinalTestConfiguration.class)
+@AutoConfigureObservability
+public class MetricsEndpointTests extends WebStoreTest {
+    @Test
+    @DisplayName("GET /actuator/prometheus should report DAO, endpoint and pool metrics")
+    public void prometheusShouldReportHotPathMetrics() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var products = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, requestEntity, String.class);
+        assertEquals(HttpStatus.OK, products.getStatusCode());
+
+        var result = this.restTemplate.exchange(getBaseUrl() + "/actuator/prometheus", HttpMethod.GET, requestEntity, String.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        String body = result.getBody();
+        assertTrue(body.contains("webstore_dao_seconds_count{dao=\"ProductDao\",method=\"getAllProduct\",outcome=\"success\"}"));
+        assertTrue(body.contains("webstore_dao_rows_sum{dao=\"ProductDao\",method=\"getAllProduct\"} 5.0"));
+        assertTrue(body.contains("http_server_requests_seconds_bucket{"));
+        assertTrue(body.contains("uri=\"/api/products\""));
+        assertTrue(body.contains("hikaricp_connections_active"));
+        assertTrue(body.contains("hikaricp_connections_acquire_seconds"));
+    }
+
+    @Test
+    @DisplayName("GET /actuator/prometheus should require an admin, while /actuator/health stays open")
+    public void prometheusShouldRequireAdmin() {
+        var anonymous = this.restTemplate.getForEntity(getBaseUrl() + "/actuator/prometheus", String.class);
+        assertEquals(HttpStatus.UNAUTHORIZED, anonymous.getStatusCode());
+
+        getJdbcTemplate().update("insert into users (username, password) values ('user', 'user')");
+        var user = this.restTemplate.exchange(getBaseUrl() + "/actuator/prometheus", HttpMethod.GET,
+                GetAuthEntity("user", "user"), String.class);
+        assertEquals(HttpStatus.FORBIDDEN, user.getStatusCode());
+
+        var health = this.restTemplate.getForEntity(getBaseUrl() + "/actuator/health", String.class);
+        assertEquals(HttpStatus.OK, health.getStatusCode());
+    }
+}
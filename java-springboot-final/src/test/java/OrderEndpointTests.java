@@ -1,16 +1,34 @@
 import org.example.SpringBootApplication;
+import org.example.models.Checkout;
 import org.example.models.Order;
+import org.example.models.OrderDetails;
+import org.example.models.OrderItem;
+import org.example.models.Page;
+import org.example.models.Product;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import support.FinalTestConfiguration;
 import support.WebStoreTest;
 
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 /**
  * Tests for the order endpoints.
@@ -44,6 +62,37 @@ public class OrderEndpointTests extends WebStoreTest {
         assertEquals(5, orders[4].getId());
     }
 
+    @Test
+    @DisplayName("GET /api/orders?limit=2 should page through all orders with cursors")
+    public void getOrdersWithLimitShouldPageThroughOrders() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var pageType = new ParameterizedTypeReference<Page<Order>>() {};
+        var ids = new ArrayList<Integer>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            var url = getBaseUrl() + "/api/orders?limit=2" + (cursor == null ? "" : "&cursor=" + cursor);
+            var result = this.restTemplate.exchange(url, HttpMethod.GET, requestEntity, pageType);
+            assertEquals(HttpStatus.OK, result.getStatusCode());
+            for (var order : result.getBody().getItems()) {
+                ids.add(order.getId());
+            }
+            cursor = result.getBody().getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(List.of(1, 2, 3, 4, 5), ids);
+    }
+
+    @Test
+    @DisplayName("GET /api/orders?limit=0 should return 400")
+    public void getOrdersWithInvalidLimitShouldReturn400() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders?limit=0", HttpMethod.GET, requestEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+    }
+
     @Test
     @DisplayName("GET /api/orders/3 should return the third order")
     public void getOrderShouldReturnThirdOrder() {
@@ -65,6 +114,44 @@ public class OrderEndpointTests extends WebStoreTest {
         assertEquals(HttpStatus.NOT_FOUND, responseCode);
     }
 
+    @Test
+    @DisplayName("GET /api/orders/2/details should return the order with its priced lines")
+    public void getOrderDetailsShouldReturnLinesAndTotal() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/2/details", HttpMethod.GET, requestEntity, OrderDetails.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var details = result.getBody();
+        assertEquals(2, details.getId());
+        assertEquals("test-admin", details.getUsername());
+        assertEquals(1, details.getLines().size());
+        assertEquals("Banana", details.getLines().get(0).getProductName());
+        assertEquals(new BigDecimal("0.59"), details.getLines().get(0).getPrice());
+        assertEquals(new BigDecimal("1.18"), details.getLines().get(0).getLineTotal());
+        assertEquals(new BigDecimal("1.18"), details.getTotal());
+    }
+
+    @Test
+    @DisplayName("GET /api/orders/6/details should return 404")
+    public void getOrderDetailsShouldReturn404() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/6/details", HttpMethod.GET, requestEntity, OrderDetails.class);
+        assertEquals(HttpStatus.NOT_FOUND, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/orders/details?ids=1,3,6 should return the existing orders")
+    public void getOrderDetailsBatchShouldReturnExistingOrders() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/details?ids=1,3,6", HttpMethod.GET, requestEntity, OrderDetails[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var details = result.getBody();
+        assertEquals(2, details.length);
+        assertEquals(1, details[0].getId());
+        assertEquals(new BigDecimal("0.99"), details[0].getTotal());
+        assertEquals(3, details[1].getId());
+        assertEquals(new BigDecimal("5.97"), details[1].getTotal());
+    }
+
     @Test
     @DisplayName("POST /api/orders should create a new order")
     public void postOrderShouldCreateNewOrder() {
@@ -99,6 +186,171 @@ public class OrderEndpointTests extends WebStoreTest {
         assertEquals(HttpStatus.NOT_FOUND, responseCode);
     }
 
+    @Test
+    @DisplayName("PATCH /api/orders/3 should update the username")
+    public void patchOrderShouldUpdateUsername() {
+        getJdbcTemplate().update("insert into users (username, password) values ('user', 'user')");
+        var requestEntity = GetAuthEntity("test-admin", "admin", Map.of("username", "user"));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/3", HttpMethod.PATCH, requestEntity, Order.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(3, result.getBody().getId());
+        assertEquals("user", result.getBody().getUsername());
+        var username = getJdbcTemplate().queryForObject("select username from orders where id = 3", String.class);
+        assertEquals("user", username);
+    }
+
+    @Test
+    @DisplayName("GET /api/orders/3 should return 304 for a current ETag and 200 after a patch")
+    public void getOrderShouldHonorIfNoneMatch() {
+        getJdbcTemplate().update("insert into users (username, password) values ('user', 'user')");
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/orders/3", HttpMethod.GET, requestEntity, Order.class);
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+
+        var notModified = this.restTemplate.exchange(getBaseUrl() + "/api/orders/3", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+
+        var patchEntity = GetAuthEntity("test-admin", "admin", Map.of("username", "user"));
+        this.restTemplate.exchange(getBaseUrl() + "/api/orders/3", HttpMethod.PATCH, patchEntity, Order.class);
+
+        var modified = this.restTemplate.exchange(getBaseUrl() + "/api/orders/3", HttpMethod.GET, new HttpEntity<>(headers), Order.class);
+        assertEquals(HttpStatus.OK, modified.getStatusCode());
+        assertEquals("user", modified.getBody().getUsername());
+    }
+
+    @Test
+    @DisplayName("GET /api/orders should return 304 while polled and 200 once another node writes or deletes an order")
+    public void getOrdersShouldSeeOtherNodesWrites() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.GET, requestEntity, Order[].class);
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+        for (int i = 0; i < 2; i++) {
+            var polled = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+            assertEquals(HttpStatus.NOT_MODIFIED, polled.getStatusCode());
+        }
+
+        // Another node's write goes straight to the database, past this node's DAOs.
+        getJdbcTemplate().update("update orders set total = 9.99, version = unix_timestamp(current_timestamp(6)) * 1000000 where id = 2");
+        var updated = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.GET, new HttpEntity<>(headers), Order[].class);
+        assertEquals(HttpStatus.OK, updated.getStatusCode());
+
+        headers.setIfNoneMatch(updated.getHeaders().getETag());
+        getJdbcTemplate().update("delete from orders where id = 5");
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.GET, new HttpEntity<>(headers), Order[].class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+        assertEquals(4, deleted.getBody().length);
+    }
+
+    @Test
+    @DisplayName("GET /api/orders/1 should return 200 for an old ETag after a price change moved its total")
+    public void getOrderShouldSeeRepricedTotals() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/orders/1", HttpMethod.GET, requestEntity, Order.class);
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+
+        var repriced = this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", new Product(1, "Apple", new BigDecimal("2.00"))), Product.class);
+        assertEquals(HttpStatus.OK, repriced.getStatusCode());
+
+        var modified = this.restTemplate.exchange(getBaseUrl() + "/api/orders/1", HttpMethod.GET, new HttpEntity<>(headers), Order.class);
+        assertEquals(HttpStatus.OK, modified.getStatusCode());
+        assertEquals(new BigDecimal("2.00"), modified.getBody().getTotal());
+    }
+
+    @Test
+    @DisplayName("GET /api/orders/4 should return the item count and total without joining its items")
+    public void getOrderShouldReturnTotals() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/4", HttpMethod.GET, requestEntity, Order.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(1, result.getBody().getItemCount());
+        assertEquals(new BigDecimal("11.96"), result.getBody().getTotal());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders/totals/rebuild should repair drifted totals")
+    public void rebuildTotalsShouldRepairDrift() {
+        getJdbcTemplate().update("update orders set item_count = 7, total = 99.00 where id = 2");
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/totals/rebuild", HttpMethod.POST, requestEntity, Integer.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(1, result.getBody());
+
+        var order = this.restTemplate.exchange(getBaseUrl() + "/api/orders/2", HttpMethod.GET, requestEntity, Order.class).getBody();
+        assertEquals(1, order.getItemCount());
+        assertEquals(new BigDecimal("1.18"), order.getTotal());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders/checkout should create the order and all its items in one call")
+    public void checkoutShouldCreateOrderWithItems() {
+        var checkout = new Checkout("test-admin", List.of(new OrderItem(0, 0, 2, 3), new OrderItem(0, 0, 4, 1)));
+        var requestEntity = GetAuthEntity("test-admin", "admin", checkout);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/checkout", HttpMethod.POST, requestEntity, OrderDetails.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+        var details = result.getBody();
+        assertEquals(6, details.getId());
+        assertEquals(2, details.getLines().size());
+        assertEquals("Banana", details.getLines().get(0).getProductName());
+        assertEquals(new BigDecimal("4.76"), details.getTotal());
+
+        var order = this.restTemplate.exchange(getBaseUrl() + "/api/orders/6", HttpMethod.GET, GetAuthEntity("test-admin", "admin"), Order.class).getBody();
+        assertEquals(2, order.getItemCount());
+        assertEquals(new BigDecimal("4.76"), order.getTotal());
+        assertEquals(2, getJdbcTemplate().queryForObject("select count(*) from order_items where order_id = 6", Integer.class));
+    }
+
+    @Test
+    @DisplayName("POST /api/orders/checkout should wait for a price change in progress and charge the new price")
+    public void checkoutShouldWaitForPriceChanges() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (var statement = connection.createStatement()) {
+                statement.executeUpdate("update products set price = 2.00 where id = 1");
+            }
+            var checkout = new Checkout("test-admin", List.of(new OrderItem(0, 0, 1, 2)));
+            Future<ResponseEntity<OrderDetails>> result = executor.submit(() -> this.restTemplate.exchange(getBaseUrl() + "/api/orders/checkout",
+                    HttpMethod.POST, GetAuthEntity("test-admin", "admin", checkout), OrderDetails.class));
+            // Wait until the checkout is blocked on the row the price change holds.
+            for (int i = 0; i < 100 && getJdbcTemplate().queryForObject(
+                    "select count(*) from information_schema.innodb_trx where trx_state = 'LOCK WAIT'", Integer.class) == 0; i++) {
+                Thread.sleep(100);
+            }
+            assertFalse(result.isDone());
+
+            connection.commit();
+            assertEquals(HttpStatus.CREATED, result.get().getStatusCode());
+            assertEquals(new BigDecimal("4.00"), result.get().getBody().getTotal());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("POST /api/orders/checkout with an unknown product should return 400 and write nothing")
+    public void checkoutWithUnknownProductShouldReturn400() {
+        var checkout = new Checkout("test-admin", List.of(new OrderItem(0, 0, 2, 3), new OrderItem(0, 0, 99, 1)));
+        var requestEntity = GetAuthEntity("test-admin", "admin", checkout);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/checkout", HttpMethod.POST, requestEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+        assertEquals(5, getJdbcTemplate().queryForObject("select count(*) from orders", Integer.class));
+    }
+
+    @Test
+    @DisplayName("POST /api/orders/checkout without items should return 400")
+    public void checkoutWithoutItemsShouldReturn400() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Checkout("test-admin", List.of()));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/checkout", HttpMethod.POST, requestEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+    }
+
     @Test
     @DisplayName("DELETE /api/orders/3 should delete the third order")
     public void deleteOrderShouldDeleteThirdOrder() {
@@ -1,15 +1,21 @@
 import org.example.SpringBootApplication;
+import org.example.models.BulkResult;
 import org.example.models.OrderItem;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import support.FinalTestConfiguration;
 import support.WebStoreTest;
 
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 /**
@@ -55,6 +61,32 @@ public class OrderItemEndpointTests extends WebStoreTest {
         assertEquals(5, orderItems[4].getQuantity());
     }
 
+    @Test
+    @DisplayName("GET /api/order-items?orderId=2 should return only the items of order 2")
+    public void getOrderItemsByOrderShouldReturnOrderItems() {
+        getJdbcTemplate().update("insert into order_items (order_id, product_id, quantity) values (2, 4, 7)");
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items?orderId=2", HttpMethod.GET, requestEntity, OrderItem[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var orderItems = result.getBody();
+        assertEquals(2, orderItems.length);
+        assertEquals(2, orderItems[0].getProductId());
+        assertEquals(4, orderItems[1].getProductId());
+        assertEquals(7, orderItems[1].getQuantity());
+    }
+
+    @Test
+    @DisplayName("GET /api/order-items?productId=4&orderId=4 should filter by both columns")
+    public void getOrderItemsByOrderAndProductShouldReturnOrderItem() {
+        getJdbcTemplate().update("insert into order_items (order_id, product_id, quantity) values (2, 4, 7)");
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items?productId=4&orderId=4", HttpMethod.GET, requestEntity, OrderItem[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var orderItems = result.getBody();
+        assertEquals(1, orderItems.length);
+        assertEquals(4, orderItems[0].getQuantity());
+    }
+
     @Test
     @DisplayName("GET /api/orders-items/3 should return the third order item")
     public void getOrderItemShouldReturnThirdOrderItem() {
@@ -90,6 +122,37 @@ public class OrderItemEndpointTests extends WebStoreTest {
         assertEquals(1, orderItem.getQuantity());
     }
 
+    @Test
+    @DisplayName("POST /api/order-items/bulk should report failed rows without failing the request")
+    public void bulkPostOrderItemsShouldReportFailedBatch() {
+        var orderItems = List.of(new OrderItem(0, 1, 2, 3), new OrderItem(0, 1, 99, 1));
+        var requestEntity = GetAuthEntity("test-admin", "admin", orderItems);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk", HttpMethod.POST, requestEntity, BulkResult[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var results = result.getBody();
+        assertEquals(2, results.length);
+        assertEquals(BulkResult.Status.FAILED, results[0].getStatus());
+        assertEquals(BulkResult.Status.FAILED, results[1].getStatus());
+        assertEquals("constraint violation", results[1].getError());
+
+        var count = getJdbcTemplate().queryForObject("select count(*) from order_items", Integer.class);
+        assertEquals(5, count);
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items/bulk should create every order item")
+    public void bulkPostOrderItemsShouldCreateOrderItems() {
+        var orderItems = List.of(new OrderItem(0, 1, 2, 3), new OrderItem(0, 1, 3, 1));
+        var requestEntity = GetAuthEntity("test-admin", "admin", orderItems);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk", HttpMethod.POST, requestEntity, BulkResult[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var results = result.getBody();
+        assertEquals(BulkResult.Status.CREATED, results[0].getStatus());
+        assertEquals(6, results[0].getId());
+        assertEquals(BulkResult.Status.CREATED, results[1].getStatus());
+        assertEquals(7, results[1].getId());
+    }
+
     @Test
     @DisplayName("PUT /api/orders-items/3 should update the third order item")
     public void putOrderItemShouldUpdateThirdOrderItem() {
@@ -112,6 +175,83 @@ public class OrderItemEndpointTests extends WebStoreTest {
         assertEquals(HttpStatus.NOT_FOUND, responseCode);
     }
 
+    @Test
+    @DisplayName("PATCH /api/order-items/3 should change only the quantity")
+    public void patchOrderItemShouldChangeOnlyQuantity() {
+        var before = getJdbcTemplate().queryForMap("select order_id, product_id from order_items where id = 3");
+        var requestEntity = GetAuthEntity("test-admin", "admin", Map.of("quantity", 7));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/3", HttpMethod.PATCH, requestEntity, OrderItem.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var orderItem = result.getBody();
+        assertEquals(3, orderItem.getId());
+        assertEquals(((Number) before.get("order_id")).intValue(), orderItem.getOrderId());
+        assertEquals(((Number) before.get("product_id")).intValue(), orderItem.getProductId());
+        assertEquals(7, orderItem.getQuantity());
+        var quantity = getJdbcTemplate().queryForObject("select quantity from order_items where id = 3", Integer.class);
+        assertEquals(7, quantity);
+    }
+
+    @Test
+    @DisplayName("GET /api/order-items/1 should not return 304 once its product has been deleted")
+    public void getOrderItemShouldNotReturn304AfterCascadingDelete() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/1", HttpMethod.GET, requestEntity, OrderItem.class);
+        var list = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.GET, requestEntity, OrderItem[].class);
+
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setIfNoneMatch(first.getHeaders().getETag());
+        var notModified = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/1", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+
+        this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.DELETE, requestEntity, Integer.class);
+
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/1", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.NOT_FOUND, deleted.getStatusCode());
+
+        headers.setIfNoneMatch(list.getHeaders().getETag());
+        var modified = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.GET, new HttpEntity<>(headers), OrderItem[].class);
+        assertEquals(HttpStatus.OK, modified.getStatusCode());
+        assertEquals(4, modified.getBody().length);
+    }
+
+    @Test
+    @DisplayName("POST, PUT and DELETE /api/order-items should keep the order totals in step")
+    public void orderItemWritesShouldMoveOrderTotals() {
+        var created = GetAuthEntity("test-admin", "admin", new OrderItem(0, 1, 2, 3));
+        assertEquals(HttpStatus.CREATED, this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST, created, OrderItem.class).getStatusCode());
+        assertTotals(1, 2, "2.76");
+
+        var moved = GetAuthEntity("test-admin", "admin", new OrderItem(3, 1, 1, 1));
+        assertEquals(HttpStatus.OK, this.restTemplate.exchange(getBaseUrl() + "/api/order-items/3", HttpMethod.PUT, moved, OrderItem.class).getStatusCode());
+        assertTotals(3, 0, "0.00");
+        assertTotals(1, 3, "3.75");
+
+        var patched = GetAuthEntity("test-admin", "admin", Map.of("quantity", 4));
+        assertEquals(HttpStatus.OK, this.restTemplate.exchange(getBaseUrl() + "/api/order-items/3", HttpMethod.PATCH, patched, OrderItem.class).getStatusCode());
+        assertTotals(1, 3, "6.72");
+
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        assertEquals(HttpStatus.OK, this.restTemplate.exchange(getBaseUrl() + "/api/order-items/1", HttpMethod.DELETE, requestEntity, Integer.class).getStatusCode());
+        assertTotals(1, 2, "5.73");
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items/bulk?upsert=true should recompute the totals of every order it touched")
+    public void bulkUpsertShouldRebuildOrderTotals() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", List.of(new OrderItem(2, 4, 2, 1), new OrderItem(0, 4, 1, 2)));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk?upsert=true", HttpMethod.POST, requestEntity, BulkResult[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertTotals(2, 0, "0.00");
+        assertTotals(4, 3, "14.53");
+    }
+
+    private void assertTotals(int orderId, int itemCount, String total) {
+        var totals = getJdbcTemplate().queryForMap("select item_count, total from orders where id = ?", orderId);
+        assertEquals(itemCount, ((Number) totals.get("item_count")).intValue());
+        assertEquals(new BigDecimal(total), totals.get("total"));
+    }
+
     @Test
     @DisplayName("DELETE /api/orders-items/3 should delete the third order item")
     public void deleteOrderItemShouldDeleteThirdOrderItem() {
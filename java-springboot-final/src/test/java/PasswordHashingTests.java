@@ -0,0 +1,93 @@
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.SpringBootApplication;
+import org.example.config.BoundedPasswordEncoder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.server.ResponseStatusException;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the bounded password hashing pool.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class
+)
+@Import(FinalTestConfiguration.class)
+public class PasswordHashingTests extends WebStoreTest {
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    @DisplayName("POST /auth/login should verify the password on the hashing pool")
+    public void loginShouldHashOnBoundedPool() {
+        assertInstanceOf(BoundedPasswordEncoder.class, passwordEncoder);
+
+        GetAuthEntity("test-admin", "admin");
+
+        var timer = meterRegistry.find("webstore.password.hash").tag("operation", "matches").timer();
+        assertNotNull(timer);
+        assertTrue(timer.count() > 0);
+        assertNotNull(meterRegistry.find("executor.queued").tag("name", "password-hashing").gauge());
+    }
+
+    @Test
+    @DisplayName("Password hashing should fail fast with 503 when the pool is saturated")
+    public void hashingShouldRejectWhenSaturated() throws Exception {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var encoder = new BoundedPasswordEncoder(new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return rawPassword.toString().equals(encodedPassword);
+            }
+        }, 1, 1, Duration.ofSeconds(10));
+
+        try {
+            var running = CompletableFuture.supplyAsync(() -> encoder.encode("first"));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            var queued = CompletableFuture.supplyAsync(() -> encoder.encode("second"));
+            while (!queued.isDone() && encoder.getQueueLength() == 0) {
+                Thread.sleep(10);
+            }
+
+            var rejected = assertThrows(ResponseStatusException.class, () -> encoder.matches("third", "third"));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatusCode());
+
+            release.countDown();
+            assertEquals("first", running.get(10, TimeUnit.SECONDS));
+            assertEquals("second", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            encoder.shutdown();
+        }
+    }
+}
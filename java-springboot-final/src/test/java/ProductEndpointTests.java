@@ -1,23 +1,38 @@
 import org.example.SpringBootApplication;
+import org.example.models.BulkResult;
+import org.example.models.CacheStatistics;
+import org.example.models.Page;
 import org.example.models.Product;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import support.FinalTestConfiguration;
 import support.WebStoreTest;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
- * Tests for the product endpoints.
+ * Tests for the product endpoints, with the single-node versions cache on.
  */
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = SpringBootApplication.class)
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = "webstore.cache.versions.enabled=true"
+)
 @Import(FinalTestConfiguration.class)
 public class ProductEndpointTests extends WebStoreTest {
     @Test
@@ -46,6 +61,88 @@ public class ProductEndpointTests extends WebStoreTest {
         assertEquals(new BigDecimal("3.99"), products[4].getPrice());
     }
 
+    @Test
+    @DisplayName("GET /api/products as NDJSON should stream one product per line")
+    public void getProductsAsNdjsonShouldStreamProducts() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setAccept(List.of(MediaType.parseMediaType("application/x-ndjson")));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+
+        var lines = result.getBody().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].contains("\"name\":\"Apple\""));
+        assertTrue(lines[4].contains("\"name\":\"Elderberry\""));
+    }
+
+    @Test
+    @DisplayName("GET /api/products?maxPrice=2.50&sort=price&direction=desc should filter and sort in the database")
+    public void getProductsShouldFilterAndSortByPrice() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products?maxPrice=2.50&sort=price&direction=desc",
+                HttpMethod.GET, requestEntity, Product[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(List.of("Cherry", "Apple", "Banana"), Arrays.stream(result.getBody()).map(Product::getName).toList());
+    }
+
+    @Test
+    @DisplayName("GET /api/products?limit=2&sort=price should page through equal prices with cursors")
+    public void getProductPageSortedByPriceShouldPageThroughTies() {
+        getJdbcTemplate().update("insert into products (name, price) values ('Fig', 0.99)");
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var pageType = new ParameterizedTypeReference<Page<Product>>() {};
+        var ids = new ArrayList<Integer>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            var url = getBaseUrl() + "/api/products?limit=2&sort=price&maxPrice=3" + (cursor == null ? "" : "&cursor=" + cursor);
+            var result = this.restTemplate.exchange(url, HttpMethod.GET, requestEntity, pageType);
+            assertEquals(HttpStatus.OK, result.getStatusCode());
+            for (var product : result.getBody().getItems()) {
+                ids.add(product.getId());
+            }
+            cursor = result.getBody().getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(List.of(2, 1, 6, 3, 4), ids);
+    }
+
+    @Test
+    @DisplayName("GET /api/products?name=b should return the products whose name starts with b")
+    public void getProductsShouldFilterByNamePrefix() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products?name=b", HttpMethod.GET, requestEntity, Product[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(List.of("Banana"), Arrays.stream(result.getBody()).map(Product::getName).toList());
+
+        var wildcard = this.restTemplate.exchange(getBaseUrl() + "/api/products?name={name}", HttpMethod.GET, requestEntity, Product[].class, "%");
+        assertEquals(0, wildcard.getBody().length);
+    }
+
+    @Test
+    @DisplayName("GET /api/products?sort=version should return 400")
+    public void getProductsWithUnknownSortShouldReturn400() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products?sort=version", HttpMethod.GET, requestEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/products with any Accept header should return a JSON array")
+    public void getProductsWithWildcardAcceptShouldReturnJson() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setAccept(List.of(MediaType.ALL));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertTrue(result.getBody().startsWith("["));
+    }
+
     @Test
     @DisplayName("GET /api/products/3 should return the cherry product")
     public void getProductShouldReturnCherryProduct() {
@@ -58,6 +155,41 @@ public class ProductEndpointTests extends WebStoreTest {
         assertEquals(new BigDecimal("1.99"), product.getPrice());
     }
 
+    @Test
+    @DisplayName("GET /api/products/3 should be served from the cache until the product is updated")
+    public void getProductShouldBeCachedUntilUpdated() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+
+        getJdbcTemplate().update("update products set price = 9.99 where id = 3");
+        var cached = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        assertEquals(new BigDecimal("1.99"), cached.getBody().getPrice());
+
+        var updateEntity = GetAuthEntity("test-admin", "admin", new Product(3, "Cherry", new BigDecimal("2.49")));
+        this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.PUT, updateEntity, Product.class);
+        var updated = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        assertEquals(new BigDecimal("2.49"), updated.getBody().getPrice());
+
+        var stats = this.restTemplate.exchange(getBaseUrl() + "/api/caches", HttpMethod.GET, requestEntity, CacheStatistics[].class);
+        assertEquals(HttpStatus.OK, stats.getStatusCode());
+        var products = Arrays.stream(stats.getBody()).filter(s -> s.getName().equals("products")).findFirst().orElseThrow();
+        assertTrue(products.getHits() >= 2);
+    }
+
+    @Test
+    @DisplayName("DELETE /api/products/3 should evict the cached product and listing")
+    public void deleteProductShouldEvictCache() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, requestEntity, Product[].class);
+        this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+
+        this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.DELETE, requestEntity, Integer.class);
+        var product = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        assertEquals(HttpStatus.NOT_FOUND, product.getStatusCode());
+        var products = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, requestEntity, Product[].class);
+        assertEquals(4, products.getBody().length);
+    }
+
     @Test
     @DisplayName("GET /api/products/6 should return 404")
     public void getProductShouldReturn404() {
@@ -79,6 +211,65 @@ public class ProductEndpointTests extends WebStoreTest {
         assertEquals(new BigDecimal("4.99"), createdProduct.getPrice());
     }
 
+    @Test
+    @DisplayName("POST /api/products/bulk should create every product and return their ids")
+    public void bulkPostProductsShouldCreateProducts() {
+        var products = List.of(
+            new Product(0, "Fig", new BigDecimal("4.99")),
+            new Product(0, "Grape", new BigDecimal("5.99")),
+            new Product(0, "Honeydew", new BigDecimal("6.99"))
+        );
+        var requestEntity = GetAuthEntity("test-admin", "admin", products);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/bulk", HttpMethod.POST, requestEntity, BulkResult[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var results = result.getBody();
+        assertEquals(3, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i, results[i].getIndex());
+            assertEquals(BulkResult.Status.CREATED, results[i].getStatus());
+        }
+
+        var grape = getJdbcTemplate().queryForObject("select name from products where id = ?", String.class, results[1].getId());
+        assertEquals("Grape", grape);
+    }
+
+    @Test
+    @DisplayName("POST /api/products/bulk?upsert=true with NDJSON should update existing ids and insert new rows")
+    public void bulkUpsertProductsFromNdjsonShouldUpdateAndInsert() {
+        var body = "{\"id\":3,\"name\":\"Cherry\",\"price\":2.49}\n{\"name\":\"Fig\",\"price\":4.99}\n";
+        var requestEntity = GetAuthEntity("test-admin", "admin", body);
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/bulk?upsert=true", HttpMethod.POST, new HttpEntity<>(body, headers), BulkResult[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var results = result.getBody();
+        assertEquals(2, results.length);
+        assertEquals(3, results[0].getId());
+        assertEquals(BulkResult.Status.UPDATED, results[0].getStatus());
+        assertEquals(BulkResult.Status.CREATED, results[1].getStatus());
+
+        var cherryPrice = getJdbcTemplate().queryForObject("select price from products where id = 3", BigDecimal.class);
+        assertEquals(new BigDecimal("2.49"), cherryPrice);
+        var count = getJdbcTemplate().queryForObject("select count(*) from products", Integer.class);
+        assertEquals(6, count);
+    }
+
+    @Test
+    @DisplayName("POST /api/products/bulk with a malformed row should return 400")
+    public void bulkPostMalformedProductsShouldReturnBadRequest() {
+        var body = "{\"name\":\"Fig\",\"price\":4.99}\n{\"name\":\"Grape\",\"price\":\n";
+        var requestEntity = GetAuthEntity("test-admin", "admin", body);
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/bulk", HttpMethod.POST, new HttpEntity<>(body, headers), String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+
+        var count = getJdbcTemplate().queryForObject("select count(*) from products", Integer.class);
+        assertEquals(5, count);
+    }
+
     @Test
     @DisplayName("PUT /api/products/3 should update the cherry product")
     public void putProductShouldUpdateCherryProduct() {
@@ -100,6 +291,141 @@ public class ProductEndpointTests extends WebStoreTest {
         assertEquals(HttpStatus.NOT_FOUND, responseCode);
     }
 
+    @Test
+    @DisplayName("POST /api/products should return the stored price without reading it back")
+    public void postProductShouldRoundPriceLikeTheColumn() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Product(0, "Fig", new BigDecimal("4.5")));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.POST, requestEntity, Product.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+        assertEquals(6, result.getBody().getId());
+        assertEquals(new BigDecimal("4.50"), result.getBody().getPrice());
+    }
+
+    @Test
+    @DisplayName("PATCH /api/products/3 should change only the given fields")
+    public void patchProductShouldChangeOnlyGivenFields() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", Map.of("price", 2.49));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.PATCH, requestEntity, Product.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals("Cherry", result.getBody().getName());
+        assertEquals(new BigDecimal("2.49"), result.getBody().getPrice());
+        var cherryPrice = getJdbcTemplate().queryForObject("select price from products where id = 3", BigDecimal.class);
+        assertEquals(new BigDecimal("2.49"), cherryPrice);
+
+        var cached = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        assertEquals(new BigDecimal("2.49"), cached.getBody().getPrice());
+    }
+
+    @Test
+    @DisplayName("PATCH /api/products/3 should reject unknown fields")
+    public void patchProductShouldRejectUnknownFields() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", Map.of("colour", "red"));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.PATCH, requestEntity, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("PATCH /api/products/6 should return 404")
+    public void patchProductShouldReturn404() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", Map.of("name", "Fig"));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/6", HttpMethod.PATCH, requestEntity, String.class);
+        assertEquals(HttpStatus.NOT_FOUND, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/products/3 should return 304 for a current ETag and 200 after an update")
+    public void getProductShouldHonorIfNoneMatch() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        var etag = first.getHeaders().getETag();
+        assertTrue(etag.startsWith("\"products-3-"));
+        assertTrue(first.getHeaders().getLastModified() > 0);
+
+        var conditional = conditional(requestEntity, HttpHeaders.IF_NONE_MATCH, etag);
+        var notModified = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, conditional, String.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertEquals(null, notModified.getBody());
+
+        var updateEntity = GetAuthEntity("test-admin", "admin", new Product(3, "Cherry", new BigDecimal("2.49")));
+        var updated = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.PUT, updateEntity, Product.class);
+        assertTrue(updated.getBody().getVersion() > first.getBody().getVersion());
+
+        var modified = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, conditional, Product.class);
+        assertEquals(HttpStatus.OK, modified.getStatusCode());
+        assertEquals(new BigDecimal("2.49"), modified.getBody().getPrice());
+        assertTrue(!etag.equals(modified.getHeaders().getETag()));
+    }
+
+    @Test
+    @DisplayName("GET /api/products/3 should answer a known ETag from the version cache without reading the row")
+    public void getProductShouldAnswerKnownEtagWithoutDatabase() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        var etag = first.getHeaders().getETag();
+
+        // Change the row behind the application's back; only the cache is consulted.
+        getJdbcTemplate().update("update products set version = version + 1 where id = 3");
+        cacheManager.getCache("products").clear();
+
+        var conditional = conditional(requestEntity, HttpHeaders.IF_NONE_MATCH, etag);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, conditional, String.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/products should return 304 until a product is added")
+    public void getProductsShouldHonorIfNoneMatch() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, requestEntity, Product[].class);
+        var etag = first.getHeaders().getETag();
+        var conditional = conditional(requestEntity, HttpHeaders.IF_NONE_MATCH, etag);
+
+        var notModified = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, conditional, String.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+
+        var createEntity = GetAuthEntity("test-admin", "admin", new Product(0, "Fig", new BigDecimal("4.99")));
+        this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.POST, createEntity, Product.class);
+
+        var modified = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, conditional, Product[].class);
+        assertEquals(HttpStatus.OK, modified.getStatusCode());
+        assertEquals(6, modified.getBody().length);
+    }
+
+    @Test
+    @DisplayName("GET /api/products/3 should return 304 for a current If-Modified-Since")
+    public void getProductShouldHonorIfModifiedSince() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var first = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, requestEntity, Product.class);
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.setIfModifiedSince(first.getHeaders().getLastModified());
+
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.NOT_MODIFIED, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("PUT /api/products/2 should move the totals of the orders holding it")
+    public void putProductShouldRepriceOrderTotals() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Product(2, "Banana", new BigDecimal("1.00")));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/2", HttpMethod.PUT, requestEntity, Product.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var total = getJdbcTemplate().queryForObject("select total from orders where id = 2", BigDecimal.class);
+        assertEquals(new BigDecimal("2.00"), total);
+    }
+
+    @Test
+    @DisplayName("DELETE /api/products/3 should remove its items from the order totals")
+    public void deleteProductShouldRemoveItemsFromOrderTotals() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.DELETE, requestEntity, Integer.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        var totals = getJdbcTemplate().queryForMap("select item_count, total from orders where id = 3");
+        assertEquals(0, ((Number) totals.get("item_count")).intValue());
+        assertEquals(new BigDecimal("0.00"), totals.get("total"));
+    }
+
     @Test
     @DisplayName("DELETE /api/products/3 should delete the cherry product")
     public void deleteProductShouldDeleteCherryProduct() {
@@ -119,4 +445,11 @@ public class ProductEndpointTests extends WebStoreTest {
         var responseCode = result.getStatusCode();
         assertEquals(HttpStatus.NOT_FOUND, responseCode);
     }
+
+    private HttpEntity<Object> conditional(HttpEntity<Object> requestEntity, String header, String value) {
+        var headers = new HttpHeaders();
+        headers.putAll(requestEntity.getHeaders());
+        headers.set(header, value);
+        return new HttpEntity<>(headers);
+    }
 }
@@ -0,0 +1,110 @@
+import org.example.SpringBootApplication;
+import org.example.daos.ProductSearchIndex;
+import org.example.daos.ProductsChanged;
+import org.example.models.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the product search endpoint.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = SpringBootApplication.class)
+@Import(FinalTestConfiguration.class)
+public class ProductSearchTests extends WebStoreTest {
+    @Autowired
+    private ProductSearchIndex searchIndex;
+
+    @BeforeEach
+    public void reloadIndex() {
+        // The database is recreated before each test without going through the DAOs.
+        searchIndex.reload();
+    }
+
+    @Test
+    @DisplayName("GET /api/products/search?q=ba should find products by the start of their name")
+    public void searchShouldMatchPrefixes() {
+        assertEquals(List.of("Banana"), search("ba"));
+        assertEquals(List.of(), search("an"));
+    }
+
+    @Test
+    @DisplayName("GET /api/products/search?q=apple should rank the exact name first")
+    public void searchShouldRankExactNamesFirst() {
+        create("Green Apple");
+        create("Äpple Crumble");
+
+        assertEquals(List.of("Apple", "Äpple Crumble", "Green Apple"), search("APPLE"));
+        assertEquals(List.of("Äpple Crumble"), search("apple c"));
+        assertEquals(List.of("Green Apple"), search("gre app"));
+    }
+
+    @Test
+    @DisplayName("GET /api/products/search should follow product updates and deletes")
+    public void searchShouldFollowWrites() {
+        var renamed = this.restTemplate.exchange(getBaseUrl() + "/api/products/2", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", new Product(2, "Blood Orange", new BigDecimal("0.59"))), Product.class);
+        assertEquals(HttpStatus.OK, renamed.getStatusCode());
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.DELETE,
+                GetAuthEntity("test-admin", "admin"), Integer.class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+
+        assertEquals(List.of(), search("banana"));
+        assertEquals(List.of("Blood Orange"), search("orange"));
+        assertEquals(List.of(), search("cherry"));
+    }
+
+    @Test
+    @DisplayName("GET /api/products/search?q= should return no products")
+    public void searchShouldIgnoreBlankQueries() {
+        assertEquals(List.of(), search(" "));
+    }
+
+    @Test
+    @DisplayName("GET /api/products/search should ignore a product write older than the one indexed")
+    public void searchShouldIgnoreStaleWrites() {
+        long version = getJdbcTemplate().queryForObject("select version from products where id = 2", Long.class);
+        searchIndex.onProductsChanged(ProductsChanged.written(List.of(new Product(2, "Plantain", new BigDecimal("0.59"), version + 2))));
+        searchIndex.onProductsChanged(ProductsChanged.written(List.of(new Product(2, "Banana", new BigDecimal("0.59"), version + 1))));
+        assertEquals(List.of("Plantain"), search("plan"));
+        assertEquals(List.of(), search("ban"));
+    }
+
+    @Test
+    @DisplayName("A search should find a match even when a common query word has more products than are ranked")
+    public void searchShouldNotLoseMatchesToCommonWords() {
+        create("Fresh Basket");
+        create("Fresh Bowl");
+        create("Fruit Zest");
+        var narrow = new ProductSearchIndex(dataSource, 2);
+        narrow.reload();
+        // "fresh" alone fills the candidates that "fr" may have.
+        assertEquals(List.of("Fruit Zest"), narrow.search("fr zest", 10).stream().map(Product::getName).toList());
+    }
+
+    private void create(String name) {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new Product(0, name, new BigDecimal("1.00"))), Product.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+    }
+
+    private List<String> search(String query) {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/search?q={q}", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), Product[].class, query);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        return Arrays.stream(result.getBody()).map(Product::getName).toList();
+    }
+}
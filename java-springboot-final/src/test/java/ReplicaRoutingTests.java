@@ -0,0 +1,209 @@
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import org.example.SpringBootApplication;
+import org.example.config.ReplicaRouting;
+import org.example.config.ReplicaRoutingDataSource;
+import org.example.models.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for routing reads to a read replica, with a second embedded MariaDB
+ * instance standing in for the replica. Nothing replicates between the two,
+ * so each test copies to the replica what replication would have.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = {
+        "webstore.replicas.max-lag=1h",
+        "webstore.replicas.heartbeat-interval=PT1H"
+    }
+)
+@Import(FinalTestConfiguration.class)
+public class ReplicaRoutingTests extends WebStoreTest {
+    /**
+     * The embedded replica, shared by every test in the class.
+     */
+    private static DB replica;
+
+    /**
+     * Starts the replica and points the application at it.
+     *
+     * @param registry The registry to add the replica settings to.
+     * @throws ManagedProcessException If the replica cannot be started.
+     */
+    @DynamicPropertySource
+    static void replicaProperties(DynamicPropertyRegistry registry) throws ManagedProcessException {
+        if (replica == null) {
+            var configBuilder = DBConfigurationBuilder.newBuilder();
+            configBuilder.setPort(0);
+            replica = DB.newEmbeddedDB(configBuilder.build());
+            replica.start();
+            replica.createDB("test", "root", "");
+        }
+        registry.add("webstore.replicas.urls", () -> "jdbc:mariadb://localhost:" + replica.getConfiguration().getPort() + "/test");
+        registry.add("webstore.replicas.username", () -> "root");
+        registry.add("webstore.replicas.password", () -> "");
+    }
+
+    @BeforeEach
+    public void setUpReplica() throws SQLException, IOException {
+        createDatabase(replicaDataSource());
+        replicaJdbcTemplate().update("update products set name = 'Stale Apple' where id = 1");
+        routing().refresh();
+    }
+
+    @Test
+    @DisplayName("GET /api/products?minPrice=0 should be read from the replica")
+    public void readsShouldGoToReplica() {
+        assertEquals("Stale Apple", getProductName(null));
+    }
+
+    @Test
+    @DisplayName("GET /api/products/1 should be read from the primary, since it fills the product cache")
+    public void cachedReadsShouldGoToPrimary() {
+        assertEquals("Apple", getCachedProductName());
+        renameApple("Green Apple");
+        assertEquals("Green Apple", getCachedProductName());
+    }
+
+    @Test
+    @DisplayName("PUT /api/products/1 should write to the primary and hand out a consistency token")
+    public void writesShouldGoToPrimary() {
+        String token = renameApple("Green Apple");
+
+        assertNotNull(token);
+        assertEquals("Green Apple", getJdbcTemplate().queryForObject("select name from products where id = 1", String.class));
+        assertEquals("Stale Apple", replicaJdbcTemplate().queryForObject("select name from products where id = 1", String.class));
+    }
+
+    @Test
+    @DisplayName("GET /api/products?minPrice=0 with a consistency token should wait for the replica to apply the write")
+    public void tokenShouldReadOwnWrites() {
+        String token = renameApple("Green Apple");
+        assertEquals("Green Apple", getProductName(token));
+        assertEquals("Stale Apple", getProductName(null));
+
+        // The replica catches up to a heartbeat written after the update.
+        replicaJdbcTemplate().update("update products set name = 'Replicated Apple' where id = 1");
+        replicaJdbcTemplate().update("update replica_heartbeat set position = ? where id = 1", Long.parseLong(token) + 1);
+        routing().refresh();
+        assertEquals("Replicated Apple", getProductName(token));
+    }
+
+    @Test
+    @DisplayName("GET /api/products?minPrice=0 should fall back to the primary when the replica lags")
+    public void laggingReplicaShouldBeSkipped() {
+        replicaJdbcTemplate().update("update replica_heartbeat set beat_at = now(6) - interval 2 hour where id = 1");
+        routing().refresh();
+        assertEquals("Apple", getProductName(null));
+    }
+
+    @Test
+    @DisplayName("GET /api/products should only send an ETag when the primary served the list")
+    public void replicaListsShouldHaveNoETag() {
+        var fromReplica = this.restTemplate.exchange(getBaseUrl() + "/api/products?minPrice=0", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, fromReplica.getStatusCode());
+        assertNull(fromReplica.getHeaders().getETag());
+
+        // The unfiltered list is cached, so it is read from the primary.
+        var fromPrimary = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, fromPrimary.getStatusCode());
+        assertNotNull(fromPrimary.getHeaders().getETag());
+    }
+
+    @Test
+    @DisplayName("GET /api/products/1/stock should read the stock from the primary, where leases are taken")
+    public void stockShouldBeReadFromPrimary() {
+        var set = this.restTemplate.exchange(getBaseUrl() + "/api/products/1/stock", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", 5), Integer.class);
+        assertEquals(HttpStatus.OK, set.getStatusCode());
+        try {
+            var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/1/stock", HttpMethod.GET,
+                    GetAuthEntity("test-admin", "admin"), Integer.class);
+            assertEquals(HttpStatus.OK, result.getStatusCode());
+            assertEquals(5, result.getBody());
+        } finally {
+            this.restTemplate.exchange(getBaseUrl() + "/api/products/1/stock", HttpMethod.PUT,
+                    GetAuthEntity("test-admin", "admin", null), Integer.class);
+        }
+    }
+
+    @Test
+    @DisplayName("A replica should fall out of rotation when its lag has not been refreshed for longer than the allowed lag")
+    public void staleLagShouldBeSkipped() throws InterruptedException {
+        var stale = new ReplicaRoutingDataSource(routing().getPrimary(), Map.of("replica", replicaDataSource()), Duration.ofMillis(500));
+        stale.refresh();
+        assertNotNull(stale.choose(0));
+
+        // No refresh runs meanwhile, as when the heartbeat job is stuck.
+        Thread.sleep(700);
+        assertNull(stale.choose(0));
+    }
+
+    private String renameApple(String name) {
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Product(1, name, new BigDecimal("0.99")));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.PUT, requestEntity, Product.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        return result.getHeaders().getFirst(ReplicaRouting.TOKEN_HEADER);
+    }
+
+    private String getProductName(String token) {
+        var headers = new HttpHeaders();
+        headers.putAll(GetAuthEntity("test-admin", "admin").getHeaders());
+        if (token != null) {
+            headers.set(ReplicaRouting.TOKEN_HEADER, token);
+        }
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products?minPrice=0", HttpMethod.GET,
+                new HttpEntity<>(headers), Product[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        return Arrays.stream(result.getBody()).filter(product -> product.getId() == 1).findFirst().orElseThrow().getName();
+    }
+
+    private String getCachedProductName() {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), Product.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        return result.getBody().getName();
+    }
+
+    private ReplicaRoutingDataSource routing() {
+        return assertInstanceOf(ReplicaRoutingDataSource.class, dataSource);
+    }
+
+    private javax.sql.DataSource replicaDataSource() {
+        return routing().getReplicas().get(0).getDataSource();
+    }
+
+    private JdbcTemplate replicaJdbcTemplate() {
+        return new JdbcTemplate(replicaDataSource());
+    }
+}
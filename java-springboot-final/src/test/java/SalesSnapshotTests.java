@@ -0,0 +1,127 @@
+import org.example.SpringBootApplication;
+import org.example.daos.SalesSnapshot;
+import org.example.models.Order;
+import org.example.models.OrderItem;
+import org.example.models.Product;
+import org.example.models.ProductSales;
+import org.example.models.SnapshotStatistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for the in-memory sales snapshot.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = "webstore.analytics.snapshot.enabled=true"
+)
+@Import(FinalTestConfiguration.class)
+public class SalesSnapshotTests extends WebStoreTest {
+    @Autowired
+    private SalesSnapshot salesSnapshot;
+
+    @BeforeEach
+    public void reloadSnapshot() {
+        // The database is recreated before each test without going through the DAOs.
+        salesSnapshot.reload();
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/snapshot/products?limit=2 should match the database aggregate")
+    public void getSnapshotProductSalesShouldReturnTopProducts() {
+        var sales = getSnapshotProductSales("?limit=2");
+        assertEquals(2, sales.length);
+        assertEquals("Elderberry", sales[0].getName());
+        assertEquals(5, sales[0].getUnitsSold());
+        assertEquals(new BigDecimal("19.95"), sales[0].getRevenue());
+        assertEquals(1, sales[0].getOrderCount());
+        assertEquals("Date", sales[1].getName());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/snapshot/products should follow order item and product writes")
+    public void getSnapshotProductSalesShouldApplyWrites() {
+        var created = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new OrderItem(0, 1, 1, 30)), OrderItem.class);
+        assertEquals(HttpStatus.CREATED, created.getStatusCode());
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/5", HttpMethod.DELETE,
+                GetAuthEntity("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+        var updated = this.restTemplate.exchange(getBaseUrl() + "/api/products/1", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", new Product(1, "Apple", new BigDecimal("1.00"))), Product.class);
+        assertEquals(HttpStatus.OK, updated.getStatusCode());
+
+        var sales = getSnapshotProductSales("?sort=units");
+        assertEquals(4, sales.length);
+        assertEquals("Apple", sales[0].getName());
+        assertEquals(31, sales[0].getUnitsSold());
+        assertEquals(new BigDecimal("31.00"), sales[0].getRevenue());
+        // Both Apple lines are on order 1.
+        assertEquals(1, sales[0].getOrderCount());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/snapshot/products should count an order holding a product on several lines once")
+    public void getSnapshotProductSalesShouldCountDistinctOrders() {
+        for (int i = 0; i < 2; i++) {
+            var created = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                    GetAuthEntity("test-admin", "admin", new OrderItem(0, 2, 1, 50)), OrderItem.class);
+            assertEquals(HttpStatus.CREATED, created.getStatusCode());
+        }
+
+        var apple = getSnapshotProductSales("?sort=units&limit=1")[0];
+        assertEquals("Apple", apple.getName());
+        assertEquals(getJdbcTemplate().queryForObject("select count(distinct order_id) from order_items where product_id = 1", Long.class),
+                apple.getOrderCount());
+    }
+
+    @Test
+    @DisplayName("DELETE /api/users/{username} should drop the user's order items from the snapshot")
+    public void deletedUsersShouldLeaveTheSnapshot() {
+        getJdbcTemplate().update("insert into users (username, password) values ('shopper', 'secret')");
+        var order = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new Order(0, "shopper")), Order.class);
+        for (int i = 0; i < 2; i++) {
+            this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                    GetAuthEntity("test-admin", "admin", new OrderItem(0, order.getBody().getId(), 1, 100)), OrderItem.class);
+        }
+        assertEquals("Apple", getSnapshotProductSales("?sort=units&limit=1")[0].getName());
+        assertEquals(7, salesSnapshot.getStatistics().getRows());
+
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/users/shopper", HttpMethod.DELETE,
+                GetAuthEntity("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+        assertEquals(5, salesSnapshot.getStatistics().getRows());
+        assertEquals("Elderberry", getSnapshotProductSales("?sort=units&limit=1")[0].getName());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/snapshot should report the rows held in memory")
+    public void getSnapshotStatisticsShouldCountRows() {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/snapshot", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), SnapshotStatistics.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        assertEquals(5, result.getBody().getRows());
+        assertEquals(5, result.getBody().getProducts());
+    }
+
+    private ProductSales[] getSnapshotProductSales(String query) {
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/snapshot/products" + query, HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), ProductSales[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+        return result.getBody();
+    }
+}
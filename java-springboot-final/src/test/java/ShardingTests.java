@@ -0,0 +1,317 @@
+import ch.vorburger.exec.ManagedProcessException;
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import org.example.SpringBootApplication;
+import org.example.daos.OrderShards;
+import org.example.models.BulkResult;
+import org.example.models.Checkout;
+import org.example.models.Order;
+import org.example.models.OrderDetails;
+import org.example.models.OrderItem;
+import org.example.models.Page;
+import org.example.models.Product;
+import org.example.models.ProductSales;
+import org.example.models.UserSpend;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests for splitting orders over shards, with two more embedded MariaDB
+ * instances as the shards.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class,
+    properties = {
+        "webstore.cache.products.enabled=false",
+        "webstore.cache.product-lists.enabled=false",
+        "webstore.analytics.snapshot.enabled=true"
+    }
+)
+@Import(FinalTestConfiguration.class)
+public class ShardingTests extends WebStoreTest {
+    /**
+     * The embedded shards, shared by every test in the class.
+     */
+    private static final DB[] shardDbs = new DB[2];
+
+    @Autowired
+    private OrderShards shards;
+
+    /**
+     * Starts the shards and points the application at them.
+     *
+     * @param registry The registry to add the shard settings to.
+     * @throws ManagedProcessException If a shard cannot be started.
+     */
+    @DynamicPropertySource
+    static void shardProperties(DynamicPropertyRegistry registry) throws ManagedProcessException {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < shardDbs.length; i++) {
+            if (shardDbs[i] == null) {
+                var configBuilder = DBConfigurationBuilder.newBuilder();
+                configBuilder.setPort(0);
+                shardDbs[i] = DB.newEmbeddedDB(configBuilder.build());
+                shardDbs[i].start();
+                shardDbs[i].createDB("test", "root", "");
+            }
+            urls.add(shardUrl(i));
+        }
+        registry.add("webstore.shards.urls", () -> String.join(",", urls));
+        registry.add("webstore.shards.username", () -> "root");
+        registry.add("webstore.shards.password", () -> "");
+    }
+
+    @BeforeEach
+    public void setUpShards() throws SQLException, IOException {
+        for (int i = 0; i < shardDbs.length; i++) {
+            createDatabase(new DriverManagerDataSource(shardUrl(i), "root", ""), "/create-shard.sql");
+        }
+        // Copies the products over to the empty shards.
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/totals/rebuild", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin"), Integer.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should store the order on its user's shard, under an id that names the shard")
+    public void ordersShouldGoToTheirUsersShard() {
+        for (int shard = 0; shard < shardDbs.length; shard++) {
+            String username = usernameOn(shard);
+            Order created = createOrder(username);
+
+            assertEquals(shard, (created.getId() - 1) % OrderShards.MAX_SHARDS);
+            assertEquals(1, countOrders(shard, created.getId()));
+            assertEquals(0, countOrders(1 - shard, created.getId()));
+            assertEquals(0, getJdbcTemplate().queryForObject("select count(*) from orders where username = ?", Integer.class, username));
+
+            var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/" + created.getId(), HttpMethod.GET,
+                    GetAuthEntity("test-admin", "admin"), Order.class);
+            assertEquals(HttpStatus.OK, result.getStatusCode());
+            assertEquals(username, result.getBody().getUsername());
+        }
+    }
+
+    @Test
+    @DisplayName("GET /api/orders?limit=2 should page through the orders of every shard in id order")
+    public void pagesShouldMergeShards() {
+        List<Integer> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            created.add(createOrder(usernameOn(i % 2)).getId());
+        }
+        created.sort(null);
+
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var pageType = new ParameterizedTypeReference<Page<Order>>() {};
+        var ids = new ArrayList<Integer>();
+        String cursor = null;
+        do {
+            var url = getBaseUrl() + "/api/orders?limit=2" + (cursor == null ? "" : "&cursor=" + cursor);
+            var result = this.restTemplate.exchange(url, HttpMethod.GET, requestEntity, pageType);
+            assertEquals(HttpStatus.OK, result.getStatusCode());
+            for (var order : result.getBody().getItems()) {
+                ids.add(order.getId());
+            }
+            cursor = result.getBody().getNextCursor();
+        } while (cursor != null);
+
+        assertEquals(created, ids);
+        var all = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.GET, requestEntity, Order[].class);
+        assertEquals(created, List.of(all.getBody()).stream().map(Order::getId).toList());
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items should total the order on its shard, and PUT /api/products/{id} should reprice it there")
+    public void itemsShouldStayWithTheirOrder() {
+        Order order = createOrder(usernameOn(1));
+        var requestEntity = GetAuthEntity("test-admin", "admin", new OrderItem(0, order.getId(), 3, 2));
+        var item = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST, requestEntity, OrderItem.class);
+        assertEquals(HttpStatus.CREATED, item.getStatusCode());
+        assertEquals(1, (item.getBody().getId() - 1) % OrderShards.MAX_SHARDS);
+
+        var details = this.restTemplate.exchange(getBaseUrl() + "/api/orders/" + order.getId() + "/details", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), OrderDetails.class);
+        assertEquals(HttpStatus.OK, details.getStatusCode());
+        assertEquals(1, details.getBody().getLines().size());
+        assertEquals(new BigDecimal("3.98"), details.getBody().getTotal());
+
+        var repriced = this.restTemplate.exchange(getBaseUrl() + "/api/products/3", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", new Product(3, "Cherry", new BigDecimal("2.50"))), Product.class);
+        assertEquals(HttpStatus.OK, repriced.getStatusCode());
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/" + order.getId(), HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), Order.class);
+        assertEquals(1, result.getBody().getItemCount());
+        assertEquals(new BigDecimal("5.00"), result.getBody().getTotal());
+    }
+
+    @Test
+    @DisplayName("POST /api/order-items/bulk should write each item to the shard of its order")
+    public void bulkItemsShouldBeSplitByShard() {
+        Order first = createOrder(usernameOn(0));
+        Order second = createOrder(usernameOn(1));
+        List<OrderItem> items = List.of(new OrderItem(0, first.getId(), 1, 1), new OrderItem(0, second.getId(), 2, 2),
+                new OrderItem(0, first.getId(), 3, 3), new OrderItem(0, second.getId(), 4, 4));
+        var requestEntity = GetAuthEntity("test-admin", "admin", items);
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk", HttpMethod.POST, requestEntity, BulkResult[].class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+
+        for (BulkResult saved : result.getBody()) {
+            assertEquals(BulkResult.Status.CREATED, saved.getStatus());
+            int shard = saved.getIndex() % 2;
+            assertEquals(shard, (saved.getId() - 1) % OrderShards.MAX_SHARDS);
+            var jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(shardUrl(shard), "root", ""));
+            assertEquals(items.get(saved.getIndex()).getQuantity(),
+                    jdbcTemplate.queryForObject("select quantity from order_items where id = ?", Integer.class, saved.getId()));
+        }
+    }
+
+    @Test
+    @DisplayName("PUT /api/orders/{id} should return 409 for a user whose orders live on another shard")
+    public void ordersShouldNotMoveBetweenShards() {
+        Order order = createOrder(usernameOn(0));
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Order(order.getId(), usernameOn(1)));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders/" + order.getId(), HttpMethod.PUT, requestEntity, String.class);
+        assertEquals(HttpStatus.CONFLICT, result.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/products, /users and /snapshot/products should count the orders of every shard")
+    public void analyticsShouldSpanShards() {
+        Order first = createOrder(usernameOn(0));
+        Order second = createOrder(usernameOn(1));
+        List<OrderItem> items = List.of(new OrderItem(0, first.getId(), 1, 2), new OrderItem(0, second.getId(), 1, 3),
+                new OrderItem(0, second.getId(), 2, 1));
+        var saved = this.restTemplate.exchange(getBaseUrl() + "/api/order-items/bulk", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", items), BulkResult[].class);
+        assertEquals(HttpStatus.OK, saved.getStatusCode());
+
+        var products = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/products?sort=units", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), ProductSales[].class);
+        assertEquals(HttpStatus.OK, products.getStatusCode());
+        assertEquals(2, products.getBody().length);
+        assertEquals(1, products.getBody()[0].getProductId());
+        assertEquals(5, products.getBody()[0].getUnitsSold());
+        assertEquals(new BigDecimal("4.95"), products.getBody()[0].getRevenue());
+        assertEquals(2, products.getBody()[0].getOrderCount());
+
+        var users = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/users", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), UserSpend[].class);
+        assertEquals(HttpStatus.OK, users.getStatusCode());
+        assertEquals(List.of(usernameOn(1), usernameOn(0)), List.of(users.getBody()).stream().map(UserSpend::getUsername).toList());
+        assertEquals(new BigDecimal("3.56"), users.getBody()[0].getSpend());
+
+        var reloaded = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/snapshot/reload", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, reloaded.getStatusCode());
+        var snapshot = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/snapshot/products?sort=units", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), ProductSales[].class);
+        assertEquals(HttpStatus.OK, snapshot.getStatusCode());
+        assertEquals(5, snapshot.getBody()[0].getUnitsSold());
+        assertEquals(2, snapshot.getBody()[0].getOrderCount());
+    }
+
+    @Test
+    @DisplayName("POST /api/orders and /api/orders/checkout should return 400 for a user the primary does not have")
+    public void ordersForUnknownUsersShouldBeRejected() {
+        var order = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new Order(0, "nobody")), String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, order.getStatusCode());
+        var checkout = this.restTemplate.exchange(getBaseUrl() + "/api/orders/checkout", HttpMethod.POST,
+                GetAuthEntity("test-admin", "admin", new Checkout("nobody", List.of(new OrderItem(0, 0, 1, 1)))), String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, checkout.getStatusCode());
+        for (int shard = 0; shard < shardDbs.length; shard++) {
+            var jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(shardUrl(shard), "root", ""));
+            assertEquals(0, jdbcTemplate.queryForObject("select count(*) from orders", Integer.class));
+        }
+    }
+
+    @Test
+    @DisplayName("POST /api/orders should route a username in any case to the shard of the stored user, and DELETE should find the order")
+    public void usernamesShouldRouteAsStored() {
+        String stored = null;
+        for (int i = 0; stored == null; i++) {
+            if (shards.ofUsername("user-" + i) != shards.ofUsername("USER-" + i)) {
+                stored = "user-" + i;
+            }
+        }
+        getJdbcTemplate().update("insert into users (username, password) values (?, 'secret')", stored);
+
+        Order created = createOrder(stored.toUpperCase());
+        assertEquals(stored, created.getUsername());
+        assertEquals(shards.ofUsername(stored), (created.getId() - 1) % OrderShards.MAX_SHARDS);
+
+        var deleted = this.restTemplate.exchange(getBaseUrl() + "/api/users/" + stored.toUpperCase(), HttpMethod.DELETE,
+                GetAuthEntity("test-admin", "admin"), Integer.class);
+        assertEquals(HttpStatus.OK, deleted.getStatusCode());
+        assertEquals(0, countOrders(shards.ofUsername(stored), created.getId()));
+    }
+
+    @Test
+    @DisplayName("GET /api/analytics/products should count a product without a price as no revenue")
+    public void unpricedProductsShouldEarnNothing() {
+        var unpriced = this.restTemplate.exchange(getBaseUrl() + "/api/products/2", HttpMethod.PUT,
+                GetAuthEntity("test-admin", "admin", new Product(2, "Banana", null)), Product.class);
+        assertEquals(HttpStatus.OK, unpriced.getStatusCode());
+        for (int shard = 0; shard < shardDbs.length; shard++) {
+            var item = this.restTemplate.exchange(getBaseUrl() + "/api/order-items", HttpMethod.POST,
+                    GetAuthEntity("test-admin", "admin", new OrderItem(0, createOrder(usernameOn(shard)).getId(), 2, 1)), OrderItem.class);
+            assertEquals(HttpStatus.CREATED, item.getStatusCode());
+        }
+
+        var products = this.restTemplate.exchange(getBaseUrl() + "/api/analytics/products", HttpMethod.GET,
+                GetAuthEntity("test-admin", "admin"), ProductSales[].class);
+        assertEquals(HttpStatus.OK, products.getStatusCode());
+        assertEquals(1, products.getBody().length);
+        assertEquals(2, products.getBody()[0].getUnitsSold());
+        assertEquals(0, BigDecimal.ZERO.compareTo(products.getBody()[0].getRevenue()));
+    }
+
+    private Order createOrder(String username) {
+        var requestEntity = GetAuthEntity("test-admin", "admin", new Order(0, username));
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/orders", HttpMethod.POST, requestEntity, Order.class);
+        assertEquals(HttpStatus.CREATED, result.getStatusCode());
+        return result.getBody();
+    }
+
+    /**
+     * Finds a username whose orders live on a shard and adds the user to the primary.
+     */
+    private String usernameOn(int shard) {
+        for (int i = 0; ; i++) {
+            if (shards.ofUsername("user-" + i) == shard) {
+                getJdbcTemplate().update("insert ignore into users (username, password) values (?, 'secret')", "user-" + i);
+                return "user-" + i;
+            }
+        }
+    }
+
+    private int countOrders(int shard, int id) {
+        var jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(shardUrl(shard), "root", ""));
+        return jdbcTemplate.queryForObject("select count(*) from orders where id = ?", Integer.class, id);
+    }
+
+    private static String shardUrl(int shard) {
+        return "jdbc:mariadb://localhost:" + shardDbs[shard].getConfiguration().getPort() + "/test";
+    }
+}
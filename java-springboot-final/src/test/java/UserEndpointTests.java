@@ -6,6 +6,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.*;
 import support.FinalTestConfiguration;
+import support.LoginRequest;
 import support.WebStoreTest;
 import java.sql.SQLException;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -146,6 +147,17 @@ public class UserEndpointTests extends WebStoreTest {
         assertEquals(HttpStatus.FORBIDDEN, responseCode);
     }
 
+    /**
+     * Tests that updating the password of a missing user returns a 404.
+     */
+    @Test
+    @DisplayName("PUT /api/users/{username}/password should return a 404 if the user does not exist")
+    public void updatePasswordShouldReturn404ForMissingUser() {
+        var requestEntity = GetAuthEntity("test-admin", "admin", "test");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/users/nobody/password", HttpMethod.PUT, requestEntity, String.class);
+        assertEquals(HttpStatus.NOT_FOUND, result.getStatusCode());
+    }
+
     /**
      * Tests that updating a user's password succeeds if authorized.
      */
@@ -167,6 +179,60 @@ public class UserEndpointTests extends WebStoreTest {
         assertEquals("test", updatedUser.getPassword());
     }
 
+    /**
+     * Tests that a cached login picks up a role added through the API.
+     */
+    @Test
+    @DisplayName("POST /api/users/{username}/roles should take effect on the user's next login")
+    public void addRoleShouldEvictCachedUser() {
+        getJdbcTemplate().update("insert into users (username, password) values ('user', 'user')");
+        var userEntity = GetAuthEntity("user", "user");
+        var forbidden = this.restTemplate.exchange(getBaseUrl() + "/api/users", HttpMethod.GET, userEntity, String.class);
+        assertEquals(HttpStatus.FORBIDDEN, forbidden.getStatusCode());
+
+        var adminEntity = GetAuthEntity("test-admin", "admin", "admin");
+        var added = this.restTemplate.exchange(getBaseUrl() + "/api/users/user/roles", HttpMethod.POST, adminEntity, String[].class);
+        assertEquals(HttpStatus.OK, added.getStatusCode());
+
+        var newUserEntity = GetAuthEntity("user", "user");
+        var allowed = this.restTemplate.exchange(getBaseUrl() + "/api/users", HttpMethod.GET, newUserEntity, String.class);
+        assertEquals(HttpStatus.OK, allowed.getStatusCode());
+    }
+
+    /**
+     * Tests that a cached login picks up a password change.
+     */
+    @Test
+    @DisplayName("PUT /api/users/{username}/password should take effect on the user's next login")
+    public void updatePasswordShouldEvictCachedUser() {
+        GetAuthEntity("test-admin", "admin");
+        var requestEntity = GetAuthEntity("test-admin", "admin", "changed");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/users/test-admin/password", HttpMethod.PUT, requestEntity, User.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+
+        var oldLogin = this.restTemplate.postForEntity(getBaseUrl() + "/auth/login", new LoginRequest("test-admin", "admin"), String.class);
+        assertEquals(HttpStatus.UNAUTHORIZED, oldLogin.getStatusCode());
+        var newLogin = this.restTemplate.postForEntity(getBaseUrl() + "/auth/login", new LoginRequest("test-admin", "changed"), String.class);
+        assertEquals(HttpStatus.OK, newLogin.getStatusCode());
+    }
+
+    /**
+     * Tests that a login cached under another spelling of the username
+     * picks up a password change.
+     */
+    @Test
+    @DisplayName("PUT /api/users/{username}/password should take effect on a login that used another case")
+    public void updatePasswordShouldEvictCachedUserOfAnyCase() {
+        var cached = this.restTemplate.postForEntity(getBaseUrl() + "/auth/login", new LoginRequest("Test-Admin", "admin"), String.class);
+        assertEquals(HttpStatus.OK, cached.getStatusCode());
+        var requestEntity = GetAuthEntity("test-admin", "admin", "changed");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/users/test-admin/password", HttpMethod.PUT, requestEntity, User.class);
+        assertEquals(HttpStatus.OK, result.getStatusCode());
+
+        var oldLogin = this.restTemplate.postForEntity(getBaseUrl() + "/auth/login", new LoginRequest("Test-Admin", "admin"), String.class);
+        assertEquals(HttpStatus.UNAUTHORIZED, oldLogin.getStatusCode());
+    }
+
     /**
      * Tests that deleting a user fails if not authorized.
      */
@@ -0,0 +1,69 @@
+import eu.fraho.spring.securityJwt.base.service.JwtTokenService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.SpringBootApplication;
+import org.example.config.CachingJwtTokenService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import support.FinalTestConfiguration;
+import support.WebStoreTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the verified token cache.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = SpringBootApplication.class
+)
+@Import(FinalTestConfiguration.class)
+public class VerifiedTokenCacheTests extends WebStoreTest {
+    @Autowired
+    private JwtTokenService jwtTokenService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    @DisplayName("GET /api/products should reuse a verified bearer token")
+    public void repeatRequestsShouldHitCache() {
+        assertInstanceOf(CachingJwtTokenService.class, jwtTokenService);
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        double hits = hits();
+
+        for (int i = 0; i < 3; i++) {
+            var result = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, requestEntity, String.class);
+            assertEquals(HttpStatus.OK, result.getStatusCode());
+        }
+
+        assertTrue(hits() >= hits + 2);
+        assertTrue(((CachingJwtTokenService) jwtTokenService).size() >= 1);
+    }
+
+    @Test
+    @DisplayName("GET /api/products should still reject a tampered bearer token")
+    public void tamperedTokenShouldNotBeCached() {
+        var requestEntity = GetAuthEntity("test-admin", "admin");
+        var token = requestEntity.getHeaders().getFirst(HttpHeaders.AUTHORIZATION).substring("Bearer ".length());
+        this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, requestEntity, String.class);
+
+        var headers = new HttpHeaders();
+        headers.setBearerAuth(token.substring(0, token.length() - 4) + "AAAA");
+        var result = this.restTemplate.exchange(getBaseUrl() + "/api/products", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        assertEquals(HttpStatus.UNAUTHORIZED, result.getStatusCode());
+    }
+
+    private double hits() {
+        var counter = meterRegistry.find("cache.gets").tags("cache", "verified-tokens", "result", "hit").functionCounter();
+        return counter == null ? 0 : counter.count();
+    }
+}
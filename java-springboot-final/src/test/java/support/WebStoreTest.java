@@ -5,6 +5,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.cache.CacheManager;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -51,6 +52,12 @@ public class WebStoreTest {
     @Autowired
     protected PasswordEncoder passwordEncoder;
 
+    /**
+     * An injected cache manager, cleared whenever the database is reset.
+     */
+    @Autowired
+    protected CacheManager cacheManager;
+
     /**
      * Gets the base URL for the server.
      *
@@ -89,10 +96,38 @@ public class WebStoreTest {
      */
     @BeforeEach
     public void setUp() throws SQLException, IOException {
-        var connection = dataSource.getConnection();
+        createDatabase(dataSource);
+
+        // The script rewrites every table behind the application's back.
+        for (String name : cacheManager.getCacheNames()) {
+            cacheManager.getCache(name).clear();
+        }
+    }
+
+    /**
+     * Runs the database creation script against a data source.
+     *
+     * @param target The data source to create the tables in.
+     * @throws SQLException If an error occurs while setting up the database.
+     * @throws IOException If an error occurs while reading the database creation script.
+     */
+    protected void createDatabase(DataSource target) throws SQLException, IOException {
+        createDatabase(target, "/create-database.sql");
+    }
+
+    /**
+     * Runs a database creation script against a data source.
+     *
+     * @param target The data source to create the tables in.
+     * @param script The classpath location of the script.
+     * @throws SQLException If an error occurs while setting up the database.
+     * @throws IOException If an error occurs while reading the database creation script.
+     */
+    protected void createDatabase(DataSource target, String script) throws SQLException, IOException {
+        var connection = target.getConnection();
         var reader = new java.io.InputStreamReader(
             WebStoreTest.class.getResource
-            ("/create-database.sql").openStream()
+            (script).openStream()
         );
         var sr = new ScriptRunner(connection);
         sr.setStopOnError(true);
@@ -1,4 +1,4 @@
-drop table if exists order_items, orders, products, roles, users;
+drop table if exists idempotency_keys, stock_leases, replica_heartbeat, id_sequences, order_items, orders, products, roles, users;
 
 create table users (
     username varchar(255) primary key,
@@ -15,12 +15,22 @@ create table roles (
 create table products (
     id int primary key auto_increment,
     name varchar(255),
-    price decimal(10, 2)
+    price decimal(10, 2),
+    stock int,
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_products_price (price),
+    index idx_products_name (name)
 );
 
 create table orders (
     id int primary key auto_increment,
     username varchar(255),
+    item_count int not null default 0,
+    total decimal(12, 2) not null default 0,
+    created_at datetime(6) not null default current_timestamp(6),
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_orders_created_at (created_at),
+    index idx_orders_username_created_at (username, created_at),
     foreign key (username) references users(username) on delete cascade
 );
 
@@ -29,10 +39,48 @@ create table order_items (
     order_id int,
     product_id int,
     quantity int,
+    version bigint not null default (unix_timestamp(current_timestamp(6)) * 1000000),
+    index idx_order_items_order_product (order_id, product_id),
+    index idx_order_items_product_order (product_id, order_id),
     foreign key (order_id) references orders(id) on delete cascade,
     foreign key (product_id) references products(id) on delete cascade
 );
 
+create table stock_leases (
+    node varchar(36) not null,
+    product_id int not null,
+    units int not null,
+    renewed_at datetime(6) not null,
+    primary key (node, product_id),
+    foreign key (product_id) references products(id) on delete cascade
+);
+
+create table id_sequences (
+    name varchar(64) primary key,
+    next_id int not null
+);
+
+create table replica_heartbeat (
+    id int primary key,
+    position bigint not null,
+    beat_at datetime(6) not null
+);
+
+create table idempotency_keys (
+    username varchar(255) not null,
+    idempotency_key varchar(255) not null,
+    fingerprint char(64) not null,
+    status int,
+    content_type varchar(255),
+    headers text,
+    body longblob,
+    expires_at datetime(6) not null,
+    primary key (username, idempotency_key),
+    index idx_idempotency_keys_expires_at (expires_at)
+);
+
+insert into replica_heartbeat (id, position, beat_at) values (1, 0, current_timestamp(6));
+
 insert into users (username, password) values ('test-admin', 'admin');
 insert into roles (username, role) values ('test-admin', 'ADMIN');
 
@@ -42,11 +90,11 @@ insert into products (name, price) values ('Cherry', 1.99);
 insert into products (name, price) values ('Date', 2.99);
 insert into products (name, price) values ('Elderberry', 3.99);
 
-insert into orders (username) values ('test-admin');
-insert into orders (username) values ('test-admin');
-insert into orders (username) values ('test-admin');
-insert into orders (username) values ('test-admin');
-insert into orders (username) values ('test-admin');
+insert into orders (username, item_count, total) values ('test-admin', 1, 0.99);
+insert into orders (username, item_count, total) values ('test-admin', 1, 1.18);
+insert into orders (username, item_count, total) values ('test-admin', 1, 5.97);
+insert into orders (username, item_count, total) values ('test-admin', 1, 11.96);
+insert into orders (username, item_count, total) values ('test-admin', 1, 19.95);
 
 insert into order_items (order_id, product_id, quantity) values (1, 1, 1);
 insert into order_items (order_id, product_id, quantity) values (2, 2, 2);